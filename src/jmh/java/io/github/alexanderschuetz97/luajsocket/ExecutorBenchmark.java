@@ -0,0 +1,174 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.BlockingTCPEngine;
+import io.github.alexanderschuetz97.luajsocket.util.ScriptLoader;
+import io.github.alexanderschuetz97.luajsocket.util.VirtualThreads;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.jse.JsePlatform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the round trip latency of the BlockingTCPEngine with many open connections
+ * once with the default thread pool and once with virtual threads.
+ * Both ends of every connection are lua sockets so every connection needs 4 blocking jobs.
+ * The number of live platform threads is printed after every iteration.
+ *
+ * The "virtual" executor needs Java 21 or newer (pass -jvm to jmh) and 20000 connections need
+ * more than 40000 file descriptors (ulimit -n).
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutorBenchmark {
+
+    private static final String SCRIPT =
+            "local socket = require('socket')\n" +
+            "local clients = {}\n" +
+            "local peers = {}\n" +
+            "function connect(n)\n" +
+            "  local server = socket.tcp()\n" +
+            "  assert(server:setoption('reuseaddr', true))\n" +
+            "  assert(server:bind('127.0.0.1', 0))\n" +
+            "  assert(server:listen(1024))\n" +
+            "  local _, port = server:getsockname()\n" +
+            "  for i = 1, n do\n" +
+            "    clients[i] = assert(socket.connect('127.0.0.1', port))\n" +
+            "    peers[i] = assert(server:accept())\n" +
+            "  end\n" +
+            "  server:close()\n" +
+            "end\n" +
+            "function echo(i, msg)\n" +
+            "  assert(clients[i]:send(msg))\n" +
+            "  local line = assert(peers[i]:receive('*l'))\n" +
+            "  assert(peers[i]:send(line .. '\\n'))\n" +
+            "  return assert(clients[i]:receive('*l'))\n" +
+            "end\n" +
+            "function closeall()\n" +
+            "  for i, c in ipairs(clients) do c:close() end\n" +
+            "  for i, c in ipairs(peers) do c:close() end\n" +
+            "  clients = {}\n" +
+            "  peers = {}\n" +
+            "end\n";
+
+    private static final LuaString MESSAGE = LuaString.valueOf("0123456789abcdef\n");
+
+    @State(Scope.Benchmark)
+    public static class EchoState {
+
+        /**
+         * "platform" uses the default cached thread pool, "virtual" runs the blocking jobs on virtual threads.
+         */
+        @Param({"platform", "virtual"})
+        public String executor;
+
+        @Param({"1000", "20000"})
+        public int connections;
+
+        public Globals globals;
+
+        public LuaValue echo;
+
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            boolean virtual = "virtual".equals(executor);
+            if (virtual && !VirtualThreads.isAvailable()) {
+                throw new IllegalStateException("Virtual threads require Java 21 or newer");
+            }
+
+            //The lua scripts are only packaged into the jar so we load them from where the build put them.
+            ScriptLoader.setInstance(new ScriptLoader() {
+                @Override
+                protected URLClassLoader getClassLoader() {
+                    File f = new File("target/luajcoutput/compiled.zip");
+                    if (!f.exists()) {
+                        throw new RuntimeException("Run maven compile first!");
+                    }
+                    try {
+                        return new URLClassLoader(new URL[]{f.toURI().toURL()}, ExecutorBenchmark.class.getClassLoader());
+                    } catch (MalformedURLException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+
+            globals = JsePlatform.standardGlobals();
+            globals.load(new LuaJSocketLib(new BlockingTCPEngine(), virtual));
+            globals.load(SCRIPT, "executorbenchmark.lua").call();
+            globals.get("connect").call(LuaValue.valueOf(connections));
+            echo = globals.get("echo");
+        }
+
+        /**
+         * Index of the lua connection for the next round trip.
+         */
+        public LuaValue nextConnection() {
+            next++;
+            if (next > connections) {
+                next = 1;
+            }
+            return LuaValue.valueOf(next);
+        }
+
+        @TearDown(Level.Iteration)
+        public void printThreads() {
+            //Virtual threads are not counted.
+            System.out.println("platform threads: " + ManagementFactory.getThreadMXBean().getThreadCount());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            globals.get("closeall").call();
+        }
+    }
+
+    @Benchmark
+    public Varargs echo(EchoState state) {
+        return state.echo.call(state.nextConnection(), MESSAGE);
+    }
+}
@@ -0,0 +1,149 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.util.ScriptLoader;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.jse.JsePlatform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures quoted-printable encoding of mail bodies through ltn12 from lua.
+ * "chain" is ltn12.filter.chain(mime.normalize(), mime.encode("quoted-printable"), mime.wrap("quoted-printable")),
+ * "fused" is mime.qpfilter() which produces the same output in one pass.
+ * The body is text with LF line breaks, some trailing spaces, '=' and UTF-8 characters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QPBenchmark {
+
+    private static final String SCRIPT =
+            "local ltn12 = require('ltn12')\n" +
+            "local mime = require('mime')\n" +
+            "local function run(body, filter)\n" +
+            "  local t = {}\n" +
+            "  assert(ltn12.pump.all(ltn12.source.chain(ltn12.source.string(body), filter), (ltn12.sink.table(t))))\n" +
+            "  return table.concat(t)\n" +
+            "end\n" +
+            "function chain(body)\n" +
+            "  return run(body, ltn12.filter.chain(mime.normalize(), mime.encode('quoted-printable'), mime.wrap('quoted-printable')))\n" +
+            "end\n" +
+            "function fused(body)\n" +
+            "  return run(body, mime.qpfilter())\n" +
+            "end\n";
+
+    private static final String[] WORDS = {"Lorem", "ipsum", "dolor", "sit", "amet,", "a=b", "Grüße", "naïve", "€100", "x"};
+
+    @Param({"1048576", "8388608"})
+    public int size;
+
+    private Globals globals;
+
+    private LuaValue chain;
+
+    private LuaValue fused;
+
+    private LuaString body;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        //The lua scripts are only packaged into the jar so we load them from where the build put them.
+        ScriptLoader.setInstance(new ScriptLoader() {
+            @Override
+            protected URLClassLoader getClassLoader() {
+                File f = new File("target/luajcoutput/compiled.zip");
+                if (!f.exists()) {
+                    throw new RuntimeException("Run maven compile first!");
+                }
+                try {
+                    return new URLClassLoader(new URL[]{f.toURI().toURL()}, QPBenchmark.class.getClassLoader());
+                } catch (MalformedURLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        globals = JsePlatform.standardGlobals();
+        globals.load(new LuaJSocketLib());
+        globals.load(SCRIPT, "qpbenchmark.lua").call();
+        chain = globals.get("chain");
+        fused = globals.get("fused");
+
+        Random random = new Random(4711);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(size + 64);
+        int line = 0;
+        while (baos.size() < size) {
+            byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes(StandardCharsets.UTF_8);
+            baos.write(word, 0, word.length);
+            line += word.length;
+            if (line > 60 + random.nextInt(40)) {
+                if (random.nextInt(8) == 0) {
+                    baos.write(' ');
+                }
+                baos.write('\n');
+                line = 0;
+            } else {
+                baos.write(' ');
+            }
+        }
+        body = LuaString.valueOf(baos.toByteArray());
+
+        if (!chain.call(body).raweq(fused.call(body))) {
+            throw new IllegalStateException("chain and fused filter produce different output");
+        }
+    }
+
+    @Benchmark
+    public LuaValue chain() {
+        return chain.call(body);
+    }
+
+    @Benchmark
+    public LuaValue fused() {
+        return fused.call(body);
+    }
+}
@@ -0,0 +1,122 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.util.ScriptLoader;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.jse.JsePlatform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Globals.load(new LuaJSocketLib()) into fresh Globals.
+ * The "cold" benchmarks run once per forked JVM and include loading the classes of luaj and the precompiled scripts,
+ * the "warm" benchmarks measure the steady state. "require" additionally requires socket and socket.http.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StartupBenchmark {
+
+    private Globals globals;
+
+    @Setup(Level.Trial)
+    public void setupLoader() {
+        //The lua scripts are only packaged into the jar so we load them from where the build put them.
+        ScriptLoader.setInstance(new ScriptLoader() {
+            @Override
+            protected URLClassLoader getClassLoader() {
+                File f = new File("target/luajcoutput/compiled.zip");
+                if (!f.exists()) {
+                    throw new RuntimeException("Run maven compile first!");
+                }
+                try {
+                    return new URLClassLoader(new URL[]{f.toURI().toURL()}, StartupBenchmark.class.getClassLoader());
+                } catch (MalformedURLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    @Setup(Level.Invocation)
+    public void setupGlobals() {
+        globals = JsePlatform.standardGlobals();
+    }
+
+    private LuaValue load() {
+        return globals.load(new LuaJSocketLib());
+    }
+
+    private LuaValue loadAndRequire() {
+        globals.load(new LuaJSocketLib());
+        LuaValue require = globals.get("require");
+        require.call("socket");
+        return require.call("socket.http");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public LuaValue coldLoad() {
+        return load();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public LuaValue coldRequire() {
+        return loadAndRequire();
+    }
+
+    @Benchmark
+    public LuaValue warmLoad() {
+        return load();
+    }
+
+    @Benchmark
+    public LuaValue warmRequire() {
+        return loadAndRequire();
+    }
+}
@@ -0,0 +1,370 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.BlockingTCPEngine;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.NioTCPEngine;
+import io.github.alexanderschuetz97.luajsocket.util.ScriptLoader;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.jse.JsePlatform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures throughput and latency of tcp send and receive through the lua api over loopback.
+ * Every operation calls the real socket functions from lua so the whole path from
+ * TCPSendFunction/TCPReceiveFunction through the RingBuffers to the socket io of the engine is measured.
+ * The other end of every connection is a plain java socket that drains or produces bytes as fast as possible.
+ *
+ * Operations are spread round robin over all connections.
+ * The "*a" pattern needs the peer to close the connection so it opens one connection per operation instead.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TCPBenchmark {
+
+    private static final String SCRIPT =
+            "local socket = require('socket')\n" +
+            "local clients = {}\n" +
+            "function connect(port, n)\n" +
+            "  for i = 1, n do\n" +
+            "    local c = socket.tcp()\n" +
+            "    assert(c:connect('127.0.0.1', port))\n" +
+            "    clients[i] = c\n" +
+            "  end\n" +
+            "end\n" +
+            "function send(i, msg)\n" +
+            "  return assert(clients[i]:send(msg))\n" +
+            "end\n" +
+            "function receive(i, pattern)\n" +
+            "  return assert(clients[i]:receive(pattern))\n" +
+            "end\n" +
+            "function receiveall(port)\n" +
+            "  local c = socket.tcp()\n" +
+            "  assert(c:connect('127.0.0.1', port))\n" +
+            "  local res = assert(c:receive('*a'))\n" +
+            "  c:close()\n" +
+            "  return res\n" +
+            "end\n" +
+            "function closeall()\n" +
+            "  for i, c in ipairs(clients) do c:close() end\n" +
+            "  clients = {}\n" +
+            "end\n";
+
+    /**
+     * Lua state and the java end of the connections.
+     */
+    public abstract static class AbstractState {
+
+        protected Globals globals;
+
+        protected ServerSocket server;
+
+        protected final List<Socket> peers = new ArrayList<>();
+
+        protected Thread acceptThread;
+
+        protected int next;
+
+        /**
+         * @param engine "nio" to use the NioTCPEngine, "blocking" to use the BlockingTCPEngine.
+         */
+        protected void setupLua(String engine) throws IOException {
+            //The lua scripts are only packaged into the jar so we load them from where the build put them.
+            ScriptLoader.setInstance(new ScriptLoader() {
+                @Override
+                protected URLClassLoader getClassLoader() {
+                    File f = new File("target/luajcoutput/compiled.zip");
+                    if (!f.exists()) {
+                        throw new RuntimeException("Run maven compile first!");
+                    }
+                    try {
+                        return new URLClassLoader(new URL[]{f.toURI().toURL()}, TCPBenchmark.class.getClassLoader());
+                    } catch (MalformedURLException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+
+            globals = JsePlatform.standardGlobals();
+            if ("nio".equals(engine)) {
+                globals.load(new LuaJSocketLib(NioTCPEngine.getDefault()));
+            } else {
+                globals.load(new LuaJSocketLib(new BlockingTCPEngine()));
+            }
+            globals.load(SCRIPT, "tcpbenchmark.lua").call();
+
+            server = new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"));
+        }
+
+        /**
+         * Accepts connections until the server is closed and lets the peer handler work on each of them.
+         */
+        protected void startAccepting() {
+            acceptThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!server.isClosed()) {
+                        final Socket socket;
+                        try {
+                            socket = server.accept();
+                        } catch (IOException e) {
+                            return;
+                        }
+
+                        synchronized (peers) {
+                            peers.add(socket);
+                        }
+
+                        Thread t = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    handlePeer(socket);
+                                } catch (IOException e) {
+                                    //Closed during tear down.
+                                }
+                            }
+                        }, "benchmark peer");
+                        t.setDaemon(true);
+                        t.start();
+                    }
+                }
+            }, "benchmark accept");
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+        }
+
+        protected abstract void handlePeer(Socket socket) throws IOException;
+
+        protected void connect(int connections) {
+            globals.get("connect").call(LuaValue.valueOf(server.getLocalPort()), LuaValue.valueOf(connections));
+        }
+
+        /**
+         * Index of the lua client for the next operation.
+         */
+        protected LuaValue nextClient(int connections) {
+            next++;
+            if (next > connections) {
+                next = 1;
+            }
+            return LuaValue.valueOf(next);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            globals.get("closeall").call();
+            server.close();
+            synchronized (peers) {
+                for (Socket s : peers) {
+                    s.close();
+                }
+                peers.clear();
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SendState extends AbstractState {
+
+        @Param({"blocking", "nio"})
+        public String engine;
+
+        @Param({"16", "1024", "65536", "1048576"})
+        public int size;
+
+        @Param({"1", "10", "100", "1000"})
+        public int connections;
+
+        public LuaValue send;
+
+        public LuaString message;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            setupLua(engine);
+            startAccepting();
+            connect(connections);
+            send = globals.get("send");
+            byte[] msg = new byte[size];
+            Arrays.fill(msg, (byte) 'a');
+            message = LuaString.valueOf(msg);
+        }
+
+        @Override
+        protected void handlePeer(Socket socket) throws IOException {
+            InputStream in = socket.getInputStream();
+            byte[] buf = new byte[0x10000];
+            while (in.read(buf) != -1) {
+                //Discard
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ReceiveState extends AbstractState {
+
+        @Param({"blocking", "nio"})
+        public String engine;
+
+        /**
+         * "*l" receives lines of size bytes (including the line feed), "n" receives exactly size bytes.
+         */
+        @Param({"*l", "n"})
+        public String pattern;
+
+        @Param({"16", "1024", "65536", "1048576"})
+        public int size;
+
+        @Param({"1", "10", "100", "1000"})
+        public int connections;
+
+        public LuaValue receive;
+
+        public LuaValue luaPattern;
+
+        private byte[] block;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            setupLua(engine);
+
+            byte[] msg = new byte[size];
+            Arrays.fill(msg, (byte) 'a');
+            if ("*l".equals(pattern)) {
+                msg[size - 1] = '\n';
+                luaPattern = LuaValue.valueOf("*l");
+            } else {
+                luaPattern = LuaValue.valueOf(size);
+            }
+
+            //Write several small messages at once so the peer is not the bottleneck.
+            int count = Math.max(1, 0x10000 / size);
+            block = new byte[count * size];
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(msg, 0, block, i * size, size);
+            }
+
+            startAccepting();
+            connect(connections);
+            receive = globals.get("receive");
+        }
+
+        @Override
+        protected void handlePeer(Socket socket) throws IOException {
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                out.write(block);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ReceiveAllState extends AbstractState {
+
+        @Param({"blocking", "nio"})
+        public String engine;
+
+        @Param({"16", "1024", "65536", "1048576"})
+        public int size;
+
+        public LuaValue receiveAll;
+
+        public LuaValue port;
+
+        private byte[] message;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            setupLua(engine);
+            message = new byte[size];
+            Arrays.fill(message, (byte) 'a');
+            startAccepting();
+            receiveAll = globals.get("receiveall");
+            port = LuaValue.valueOf(server.getLocalPort());
+        }
+
+        @Override
+        protected void handlePeer(Socket socket) throws IOException {
+            try {
+                socket.getOutputStream().write(message);
+            } finally {
+                socket.close();
+                synchronized (peers) {
+                    peers.remove(socket);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Varargs send(SendState state) {
+        return state.send.call(state.nextClient(state.connections), state.message);
+    }
+
+    @Benchmark
+    public Varargs receive(ReceiveState state) {
+        return state.receive.call(state.nextClient(state.connections), state.luaPattern);
+    }
+
+    @Benchmark
+    public int receiveAll(ReceiveAllState state) {
+        LuaValue res = state.receiveAll.call(state.port);
+        if (res.rawlen() != state.size) {
+            throw new LuaError("received " + res.rawlen() + " bytes instead of " + state.size);
+        }
+        return res.rawlen();
+    }
+}
@@ -0,0 +1,746 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.tcp.java;
+
+import io.github.alexanderschuetz97.luajsocket.tcp.java.SegmentPool.Segment;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Copy of the monitor based RingBuffer as it was before it was changed to a single producer single consumer design.
+ * Only used as baseline for RingBufferBenchmark.
+ */
+public class MonitorRingBuffer {
+
+    /**
+     * Capacity used if none is given.
+     */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final int SEGMENT_SIZE = SegmentPool.SEGMENT_SIZE;
+
+    private final SegmentPool pool;
+
+    private volatile int capacity;
+
+    //Only modified by the reader. (Or by the writer under segmentLock while the buffer is empty)
+    private Segment head;
+    private int headPos;
+
+    //Only modified under segmentLock
+    private Segment tail;
+    private int tailPos;
+
+    private volatile long totalReadCount = 0;
+    private volatile long totalWriteCount = 0;
+
+    private volatile boolean eof;
+    private volatile IOException exc;
+
+    private volatile boolean readerBlocked;
+
+    private final Object waitForReadableBytes = new Object();
+    private final Object waitForWriteableBytes = new Object();
+    private final Object waitForReader = new Object();
+    private final Object readMutex = new Object();
+    private final Object writeMutex = new Object();
+    private final Object segmentLock = new Object();
+
+    private volatile Listener listener;
+
+    public MonitorRingBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MonitorRingBuffer(int capacity) {
+        this(capacity, SegmentPool.getDefault());
+    }
+
+    public MonitorRingBuffer(int capacity, SegmentPool pool) {
+        this.pool = pool;
+        setCapacity(capacity);
+    }
+
+    /**
+     * Listener that is informed whenever bytes are put into or taken out of the buffer.
+     * Used by non blocking engines to know when to resume reading from or writing to a channel.
+     * Methods may be called while the buffer holds internal locks so they must not block.
+     */
+    public interface Listener {
+        /**
+         * Bytes were written into the buffer or the buffer reached eof.
+         */
+        void onBytesWritten();
+
+        /**
+         * Bytes were read from the buffer or the buffer reached eof.
+         */
+        void onBytesRead();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the maximum amount of bytes the buffer may hold. If the buffer currently holds more then the writer
+     * has to wait until the reader caught up.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        signalWriteable();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    protected void fireBytesWritten() {
+        Listener l = listener;
+        if (l != null) {
+            l.onBytesWritten();
+        }
+    }
+
+    protected void fireBytesRead() {
+        Listener l = listener;
+        if (l != null) {
+            l.onBytesRead();
+        }
+    }
+
+    protected void signalReadable() {
+        synchronized (waitForReadableBytes) {
+            waitForReadableBytes.notifyAll();
+        }
+        fireBytesWritten();
+    }
+
+    protected void signalWriteable() {
+        synchronized (waitForWriteableBytes) {
+            waitForWriteableBytes.notifyAll();
+        }
+        fireBytesRead();
+    }
+
+    protected int availableToRead() {
+        return (int) (totalWriteCount - totalReadCount);
+    }
+
+    protected int availableToWrite() {
+        return Math.max(0, capacity - availableToRead());
+    }
+
+    public boolean canWrite() {
+        return eof || availableToWrite() > 0;
+    }
+
+    public boolean canRead() {
+        return eof || availableToRead() > 0;
+    }
+
+    protected int waitForBytesToRead(int timeout) {
+        int av = availableToRead();
+        if (av > 0) {
+            return av;
+        }
+
+        try {
+        synchronized (waitForReadableBytes) {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (true) {
+                av = availableToRead();
+                if (av > 0) {
+                    return av;
+                }
+
+                if (eof) {
+                    return -1;
+                }
+
+                //A notification may belong to bytes that were already read so we wait until the timeout is really over.
+                long remaining = deadline - System.currentTimeMillis();
+                if (timeout == 0 || (timeout > 0 && remaining <= 0)) {
+                    return 0;
+                }
+
+                synchronized (waitForReader) {
+                    readerBlocked = true;
+                    waitForReader.notifyAll();
+                }
+
+                try {
+                    if (timeout > 0) {
+                        waitForReadableBytes.wait(remaining);
+                    } else {
+                        waitForReadableBytes.wait();
+                    }
+                } catch (InterruptedException e) {
+                    err(new InterruptedIOException());
+                    return -1;
+                }
+            }
+        }
+        } finally {
+            synchronized (waitForReader) {
+                readerBlocked = false;
+                waitForReader.notifyAll();
+            }
+        }
+    }
+
+    protected int waitForBytesToWrite(int timeout) {
+        if (eof) {
+            return -1;
+        }
+
+        int av = availableToWrite();
+        if (av > 0) {
+            return av;
+        }
+
+        synchronized (waitForWriteableBytes) {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (true) {
+                if (eof) {
+                    return -1;
+                }
+
+                av = availableToWrite();
+                if (av > 0) {
+                    return av;
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (timeout == 0 || (timeout > 0 && remaining <= 0)) {
+                    return 0;
+                }
+
+                try {
+                    if (timeout > 0) {
+                        waitForWriteableBytes.wait(remaining);
+                    } else {
+                        waitForWriteableBytes.wait();
+                    }
+                } catch (InterruptedException e) {
+                    err(new InterruptedIOException());
+                    return -1;
+                }
+            }
+        }
+    }
+
+    public boolean waitForEmpty(int timeout) {
+        synchronized (writeMutex) {
+            if (availableToRead() <= 0) {
+                return true;
+            }
+
+            if (timeout == 0) {
+                return false;
+            }
+
+            synchronized (waitForWriteableBytes) {
+                 if (availableToRead() <= 0) {
+                    return true;
+                 }
+
+                 if (eof) {
+                     return false;
+                 }
+
+                    try {
+                        if (timeout > 0) {
+                            waitForWriteableBytes.wait(timeout);
+                        } else {
+                            waitForWriteableBytes.wait();
+                        }
+                    } catch (InterruptedException e) {
+
+                    }
+                }
+
+            return availableToRead() <= 0;
+        }
+    }
+
+    /**
+     * Waits until a reader is blocked, waiting for the writer.
+     * This operation blocks the writer. (it should only be called by the writer...)
+     */
+    public boolean waitForReaderBlocked(int timeout) {
+        if (timeout == 0) {
+            return readerBlocked;
+        }
+
+        synchronized (writeMutex) {
+            synchronized (waitForReader) {
+                if (readerBlocked) {
+                    return true;
+                }
+
+                if (eof) {
+                    return false;
+                }
+
+                try {
+                    if (timeout > 0) {
+                        waitForReader.wait(timeout);
+                    } else {
+                        waitForReader.wait();
+                    }
+                } catch (InterruptedException e) {
+
+                }
+            }
+
+            return readerBlocked;
+        }
+    }
+
+    public boolean waitForEmptyBufferAndBlockedReader(int singleTimeout, int totalTimeout) {
+        synchronized (writeMutex) {
+            if (totalTimeout == 0) {
+                singleTimeout = 0;
+            }
+
+            if (singleTimeout == -1) {
+                singleTimeout = totalTimeout;
+            }
+
+            long start = System.currentTimeMillis();
+            if (!waitForEmpty(singleTimeout)) {
+                return false;
+            }
+
+
+            int timeout2 = singleTimeout;
+            if (totalTimeout > 0) {
+                int left = (int) (totalTimeout-(Math.max(0,System.currentTimeMillis()-start)));
+                if (left < 0) {
+                    timeout2 = 0;
+                } else {
+                    timeout2 = Math.min(singleTimeout, left);
+                }
+            }
+
+            return waitForReaderBlocked(timeout2);
+        }
+    }
+
+    //Reader side segment handling
+
+    /**
+     * Returns the amount of bytes that can be read from the head segment at headPos without crossing into the next segment.
+     * Must only be called by the reader after it checked that av bytes are available.
+     */
+    private int headReadable(int av) {
+        if (headPos == SEGMENT_SIZE) {
+            Segment old = head;
+            head = old.next;
+            headPos = 0;
+            pool.release(old);
+        }
+
+        return Math.min(av, SEGMENT_SIZE - headPos);
+    }
+
+    /**
+     * Marks count bytes from the head segment as read.
+     */
+    private void consumed(int count) {
+        headPos += count;
+        totalReadCount += count;
+        if (totalReadCount == totalWriteCount) {
+            releaseIfEmpty();
+        }
+        signalWriteable();
+    }
+
+    /**
+     * Gives all segments back to the pool if the buffer is empty.
+     */
+    private void releaseIfEmpty() {
+        synchronized (segmentLock) {
+            if (totalReadCount != totalWriteCount || head == null) {
+                return;
+            }
+
+            Segment s = head;
+            while (s != null) {
+                Segment next = s.next;
+                pool.release(s);
+                s = next;
+            }
+
+            head = null;
+            tail = null;
+            headPos = 0;
+            tailPos = 0;
+        }
+    }
+
+    /**
+     * Copies av bytes to the output and marks them as read.
+     */
+    private void copyOut(OutputStream output, int av) throws IOException {
+        while (av > 0) {
+            int r = headReadable(av);
+            output.write(head.data, headPos, r);
+            av -= r;
+            consumed(r);
+        }
+    }
+
+    //Writer side segment handling
+
+    /**
+     * Ensures the tail segment has space. Must hold segmentLock.
+     */
+    private void ensureTailSpace() {
+        if (tail == null) {
+            tail = pool.acquire();
+            tailPos = 0;
+            head = tail;
+            headPos = 0;
+            return;
+        }
+
+        if (tailPos == SEGMENT_SIZE) {
+            Segment next = pool.acquire();
+            tail.next = next;
+            tail = next;
+            tailPos = 0;
+        }
+    }
+
+    /**
+     * Copies count bytes into the buffer. Caller must have checked that there is space.
+     */
+    private void copyIn(byte[] wb, int off, int count) {
+        synchronized (segmentLock) {
+            int done = 0;
+            while (done < count) {
+                ensureTailSpace();
+                int c = Math.min(count - done, SEGMENT_SIZE - tailPos);
+                System.arraycopy(wb, off + done, tail.data, tailPos, c);
+                tailPos += c;
+                done += c;
+            }
+
+            totalWriteCount += count;
+        }
+    }
+
+    public void readLine(OutputStream output, int singleTimeout, int totalTimeout) throws IOException, TimeoutException {
+       synchronized (readMutex) {
+           long start = System.currentTimeMillis();
+
+           if (totalTimeout == 0) {
+               singleTimeout = 0;
+           }
+
+           do {
+               int av = waitForBytesToRead(singleTimeout);
+               if (av < 0) {
+                   if (exc != null) {
+                       throw exc;
+                   } else {
+                       throw new EOFException();
+                   }
+               }
+
+               if (av == 0) {
+                   throw new TimeoutException();
+               }
+
+               while (av > 0) {
+                   int r = headReadable(av);
+                   byte[] data = head.data;
+                   int begin = headPos;
+                   int end = begin + r;
+                   for (int i = begin; i < end; i++) {
+                       byte b = data[i];
+                       if (b != '\r' && b != '\n') {
+                           continue;
+                       }
+
+                       output.write(data, begin, i - begin);
+                       int used = (i - begin) + 1;
+                       av -= used;
+                       consumed(used);
+                       if (b == '\n') {
+                           return;
+                       }
+                       begin = i + 1;
+                   }
+
+                   if (begin < end) {
+                       output.write(data, begin, end - begin);
+                       av -= end - begin;
+                       consumed(end - begin);
+                   }
+               }
+           } while (totalTimeout <= 0 || System.currentTimeMillis() - start < totalTimeout);
+
+           throw new TimeoutException();
+       }
+    }
+
+    public void readAll(OutputStream output, int singleTimeout, int totalTimeout) throws IOException, TimeoutException {
+        synchronized (readMutex) {
+            long start = System.currentTimeMillis();
+            if (totalTimeout == 0) {
+                singleTimeout = 0;
+            }
+
+            do {
+                int av = waitForBytesToRead(singleTimeout);
+                if (av < 0) {
+                    if (exc != null) {
+                        throw exc;
+                    } else {
+                        return;
+                    }
+                }
+
+                if (av == 0) {
+                    throw new TimeoutException();
+                }
+
+                copyOut(output, av);
+            } while (totalTimeout <= 0 || System.currentTimeMillis() - start < totalTimeout);
+
+            throw new TimeoutException();
+        }
+    }
+
+    public int readBytes(OutputStream output, int timeout) throws IOException, TimeoutException {
+        synchronized (readMutex) {
+            int av = waitForBytesToRead(timeout);
+            if (av < 0) {
+                if (exc != null) {
+                    throw exc;
+                } else {
+                    return -1;
+                }
+            }
+
+            if (av == 0) {
+                throw new TimeoutException();
+            }
+
+            copyOut(output, av);
+            return av;
+        }
+    }
+
+    public void readBytes(OutputStream output, int count, int singleTimeout, int totalTimeout) throws IOException, TimeoutException {
+        if (count <= 0) {
+            return;
+        }
+
+        synchronized (readMutex) {
+            long start = System.currentTimeMillis();
+            if (totalTimeout == 0) {
+                singleTimeout = 0;
+            }
+
+            do {
+                if (count == 0) {
+                    return;
+                }
+
+                int av = waitForBytesToRead(singleTimeout);
+                if (av < 0) {
+                    if (exc != null) {
+                        throw exc;
+                    } else {
+                        throw new EOFException();
+                    }
+                }
+
+                if (av == 0) {
+                    throw new TimeoutException();
+                }
+
+                av = Math.min(av, count);
+                count-=av;
+                copyOut(output, av);
+            } while (totalTimeout <= 0 || System.currentTimeMillis() - start < totalTimeout);
+
+            if (count == 0) {
+                return;
+            }
+
+            throw new TimeoutException();
+        }
+    }
+
+    /**
+     * Reads as many bytes from the channel into the buffer as fit in the current segment.
+     * Never blocks if the channel is in non blocking mode.
+     * Returns the amount of bytes read, 0 if the buffer is full or the channel had no data and -1 on end of stream.
+     * End of stream is not propagated to the buffer, the caller must call eof().
+     */
+    public int write(ReadableByteChannel channel) throws IOException {
+        synchronized (writeMutex) {
+            if (eof) {
+                return -1;
+            }
+
+            int av = availableToWrite();
+            if (av <= 0) {
+                return 0;
+            }
+
+            int read;
+            synchronized (segmentLock) {
+                ensureTailSpace();
+                read = channel.read(ByteBuffer.wrap(tail.data, tailPos, Math.min(av, SEGMENT_SIZE - tailPos)));
+                if (read > 0) {
+                    tailPos += read;
+                    totalWriteCount += read;
+                }
+            }
+
+            if (read <= 0) {
+                //Dont hold on to a segment for nothing.
+                releaseIfEmpty();
+                return read;
+            }
+
+            signalReadable();
+            return read;
+        }
+    }
+
+    /**
+     * Writes as many bytes from the buffer into the channel as the channel accepts.
+     * Never blocks if the channel is in non blocking mode.
+     * Returns the amount of bytes written, 0 if the buffer is empty or the channel accepted nothing.
+     */
+    public int read(WritableByteChannel channel) throws IOException {
+        synchronized (readMutex) {
+            int total = 0;
+            while (true) {
+                int av = availableToRead();
+                if (av <= 0) {
+                    break;
+                }
+
+                int r = headReadable(av);
+                int written = channel.write(ByteBuffer.wrap(head.data, headPos, r));
+                if (written <= 0) {
+                    break;
+                }
+
+                total += written;
+                consumed(written);
+                if (written < r) {
+                    break;
+                }
+            }
+
+            return total;
+        }
+    }
+
+    public long getTotalWriteCount() {
+        return totalWriteCount;
+    }
+
+    public int write(byte[] wb, int wbstart, int count, int singleTimeout, int totalTimeout) throws IOException {
+        if (count < 0) {
+            return 0;
+        }
+        int written = 0;
+        synchronized (writeMutex) {
+            long start = System.currentTimeMillis();
+            if (totalTimeout == 0) {
+                singleTimeout = 0;
+            }
+
+            do {
+                int leftToWrite = count-written;
+                if (leftToWrite == 0) {
+                    return written;
+                }
+
+                int av = waitForBytesToWrite(singleTimeout);
+                if (av < 0) {
+                    if (exc != null) {
+                        throw exc;
+                    } else {
+                        throw new EOFException();
+                    }
+                }
+
+                if (av == 0) {
+                    return written;
+                }
+
+                av = Math.min(av, leftToWrite);
+                copyIn(wb, wbstart+written, av);
+                written+=av;
+                signalReadable();
+            } while (totalTimeout <= 0 || System.currentTimeMillis() - start < totalTimeout);
+
+            return written;
+        }
+    }
+
+    public void eof() {
+        eof = true;
+        signalReadable();
+        signalWriteable();
+        synchronized (waitForReader) {
+            waitForReader.notifyAll();
+        }
+    }
+
+    public boolean isEof() {
+        return eof;
+    }
+
+    public IOException getError() {
+        return exc;
+    }
+
+    public void err(IOException exc) {
+        eof = true;
+        this.exc = exc;
+        signalReadable();
+        signalWriteable();
+        synchronized (waitForReader) {
+            waitForReader.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.tcp.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Compares the single producer single consumer RingBuffer with the previous monitor based MonitorRingBuffer.
+ * One thread writes chunks of chunkSize bytes while another thread reads whatever is available.
+ * The score of the write method is the throughput in chunks.
+ * Timeouts are finite so neither side can hang when the iteration ends.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RingBufferBenchmark {
+
+    private static final int TIMEOUT = 10;
+
+    @State(Scope.Group)
+    public static class Buffers {
+
+        @Param({"16", "1024", "65536"})
+        public int chunkSize;
+
+        public RingBuffer spsc;
+
+        public MonitorRingBuffer monitor;
+
+        public byte[] chunk;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            spsc = new RingBuffer();
+            monitor = new MonitorRingBuffer();
+            chunk = new byte[chunkSize];
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            spsc.eof();
+            monitor.eof();
+        }
+    }
+
+    /**
+     * Discards everything, we only want to measure the buffer.
+     */
+    private static final OutputStream SINK = new OutputStream() {
+        @Override
+        public void write(int b) {
+
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+
+        }
+    };
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public int spscWrite(Buffers b) throws IOException {
+        return b.spsc.write(b.chunk, 0, b.chunk.length, TIMEOUT, TIMEOUT);
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public int spscRead(Buffers b) throws IOException {
+        try {
+            return b.spsc.readBytes(SINK, TIMEOUT);
+        } catch (TimeoutException e) {
+            return 0;
+        }
+    }
+
+    @Benchmark
+    @Group("monitor")
+    @GroupThreads(1)
+    public int monitorWrite(Buffers b) throws IOException {
+        return b.monitor.write(b.chunk, 0, b.chunk.length, TIMEOUT, TIMEOUT);
+    }
+
+    @Benchmark
+    @Group("monitor")
+    @GroupThreads(1)
+    public int monitorRead(Buffers b) throws IOException {
+        try {
+            return b.monitor.readBytes(SINK, TIMEOUT);
+        } catch (TimeoutException e) {
+            return 0;
+        }
+    }
+}
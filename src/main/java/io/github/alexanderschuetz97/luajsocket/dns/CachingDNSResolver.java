@@ -0,0 +1,260 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.dns;
+
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Resolver that caches the results of another resolver.
+ * Successful lookups are kept for ttl, failed lookups for negativeTtl.
+ * Concurrent lookups of the same host wait for a single lookup of the delegate.
+ * Ip literals are passed to the delegate without being cached.
+ */
+public class CachingDNSResolver implements DNSResolver {
+
+    public static final long DEFAULT_TTL = TimeUnit.SECONDS.toMillis(30);
+
+    public static final long DEFAULT_NEGATIVE_TTL = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Amount of hosts after which expired entries are removed.
+     */
+    private static final int MAX_ENTRIES = 4096;
+
+    private final DNSResolver delegate;
+
+    private final Executor executor;
+
+    private final Metrics metrics;
+
+    private final long ttlNanos;
+
+    private final long negativeTtlNanos;
+
+    private final ConcurrentHashMap<String, Lookup> cache = new ConcurrentHashMap<>();
+
+    public CachingDNSResolver(DNSResolver delegate, Executor executor, Metrics metrics) {
+        this(delegate, executor, metrics, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+    }
+
+    /**
+     * ttl and negativeTtl are in milliseconds. Prefetches run on the executor.
+     */
+    public CachingDNSResolver(DNSResolver delegate, Executor executor, Metrics metrics, long ttl, long negativeTtl) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtl);
+    }
+
+    @Override
+    public InetAddress resolve(String host) throws UnknownHostException {
+        if (SystemDNSResolver.isIpLiteral(host)) {
+            return delegate.resolve(host);
+        }
+
+        Lookup lookup = cache.get(host);
+        if (lookup != null && !lookup.isExpired()) {
+            metrics.getDnsHits().increment();
+            return lookup.await();
+        }
+
+        metrics.getDnsMisses().increment();
+        lookup = start(host, lookup);
+        //Runs the lookup in this thread unless another thread already started it.
+        lookup.run();
+        return lookup.await();
+    }
+
+    @Override
+    public InetAddress resolveNow(String host) {
+        if (SystemDNSResolver.isIpLiteral(host)) {
+            return delegate.resolveNow(host);
+        }
+
+        Lookup lookup = cache.get(host);
+        if (lookup == null || !lookup.isDone() || lookup.isExpired()) {
+            return null;
+        }
+
+        try {
+            InetAddress address = lookup.await();
+            metrics.getDnsHits().increment();
+            return address;
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void prefetch(String host) {
+        if (SystemDNSResolver.isIpLiteral(host)) {
+            return;
+        }
+
+        Lookup lookup = cache.get(host);
+        if (lookup != null && !lookup.isExpired()) {
+            return;
+        }
+
+        lookup = start(host, lookup);
+        if (lookup.claim()) {
+            metrics.getDnsMisses().increment();
+            executor.execute(lookup);
+        }
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Returns the lookup for the host that replaced the expired lookup, either a new one or one another thread added.
+     */
+    private Lookup start(String host, Lookup expired) {
+        if (cache.size() >= MAX_ENTRIES) {
+            evictExpired();
+        }
+
+        Lookup lookup = new Lookup(host);
+        while (true) {
+            if (expired == null) {
+                Lookup existing = cache.putIfAbsent(host, lookup);
+                if (existing == null) {
+                    return lookup;
+                }
+
+                if (!existing.isExpired()) {
+                    return existing;
+                }
+
+                expired = existing;
+                continue;
+            }
+
+            if (cache.replace(host, expired, lookup)) {
+                return lookup;
+            }
+
+            expired = cache.get(host);
+            if (expired != null && !expired.isExpired()) {
+                return expired;
+            }
+        }
+    }
+
+    private void evictExpired() {
+        Iterator<Lookup> iter = cache.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().isExpired()) {
+                iter.remove();
+            }
+        }
+
+        if (cache.size() >= MAX_ENTRIES) {
+            cache.clear();
+        }
+    }
+
+    private class Lookup extends FutureTask<InetAddress> {
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private volatile long expires;
+
+        Lookup(final String host) {
+            super(new Callable<InetAddress>() {
+                @Override
+                public InetAddress call() throws Exception {
+                    return delegate.resolve(host);
+                }
+            });
+        }
+
+        /**
+         * Returns true if nobody started the lookup yet. Running it twice is harmless, this only avoids queueing it twice.
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            claimed.set(true);
+            super.run();
+        }
+
+        @Override
+        protected void set(InetAddress address) {
+            expires = System.nanoTime() + ttlNanos;
+            super.set(address);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            expires = System.nanoTime() + negativeTtlNanos;
+            super.setException(t);
+        }
+
+        boolean isExpired() {
+            return isDone() && System.nanoTime() - expires > 0;
+        }
+
+        InetAddress await() throws UnknownHostException {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof UnknownHostException) {
+                            throw (UnknownHostException) cause;
+                        }
+                        UnknownHostException exc = new UnknownHostException(cause.getMessage());
+                        exc.initCause(cause);
+                        throw exc;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
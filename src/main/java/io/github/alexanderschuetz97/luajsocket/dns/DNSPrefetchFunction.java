@@ -0,0 +1,46 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.dns;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.Varargs;
+
+/**
+ * socket.dns.prefetch(host, ...)
+ * Starts resolving all given host names in the background so later connects and lookups find them in the cache.
+ * This is not part of luasocket.
+ */
+public class DNSPrefetchFunction extends AbstractLuaJSocketFunction {
+
+    public DNSPrefetchFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        DNSResolver resolver = luaJSocket.getDNSResolver();
+        for (int i = 1; i <= args.narg(); i++) {
+            resolver.prefetch(args.checkjstring(i));
+        }
+
+        return TRUE;
+    }
+}
@@ -0,0 +1,45 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves host names for socket.dns and for connecting/binding sockets.
+ * Set a custom resolver by overwriting LuaJSocketLib.createDNSResolver.
+ */
+public interface DNSResolver {
+
+    /**
+     * Resolves the host, waiting for the lookup if needed.
+     */
+    InetAddress resolve(String host) throws UnknownHostException;
+
+    /**
+     * Returns the address of the host if it is known without a lookup (ip literal or cached), null otherwise.
+     */
+    InetAddress resolveNow(String host);
+
+    /**
+     * Starts resolving the host in the background so a later resolve does not have to wait.
+     */
+    void prefetch(String host);
+}
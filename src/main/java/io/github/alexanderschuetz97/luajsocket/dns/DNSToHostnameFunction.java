@@ -27,11 +27,10 @@ import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Varargs;
 
-import java.net.InetAddress;
 import java.net.UnknownHostException;
 
 /**
- * This function will perform a standard ip address lookup using InetAddress.getByName.
+ * This function will perform a standard ip address lookup using the DNSResolver of the library.
  * It will never return any additional information as the luasocket spec sais it should
  * (but it doesn't even specify what those additional infos are...)
  * instead it always returns a empty table in its stead.
@@ -55,7 +54,7 @@ public class DNSToHostnameFunction extends AbstractLuaJSocketFunction {
             }
 
             try {
-                return varargsOf(valueOf(InetAddress.getByName(addr.checkjstring()).getCanonicalHostName()), new LuaTable());
+                return varargsOf(valueOf(luaJSocket.getDNSResolver().resolve(addr.checkjstring()).getCanonicalHostName()), new LuaTable());
             } catch (UnknownHostException e) {
                 return varargsOf(NIL, Util.stringToLuaString(e.getMessage()));
             }
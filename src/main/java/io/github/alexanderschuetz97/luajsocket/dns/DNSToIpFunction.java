@@ -30,7 +30,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 
 /**
- * This function will perform a standard ip address lookup using InetAddress.getByName.
+ * This function will perform a standard ip address lookup using the DNSResolver of the library.
  * It will never return any additional information as the luasocket spec sais it should
  * (but it doesn't even specify what those additional infos are...)
  * instead it always returns a empty table in its stead.
@@ -61,7 +61,7 @@ public class DNSToIpFunction extends AbstractLuaJSocketFunction {
         InetAddress address;
 
         try {
-            address = InetAddress.getByName(addr.checkjstring());
+            address = luaJSocket.getDNSResolver().resolve(addr.checkjstring());
         } catch (UnknownHostException e) {
             return varargsOf(NIL, Util.stringToLuaString(e.getMessage()));
         }
@@ -0,0 +1,74 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolver that uses InetAddress.getByName for every lookup. Only the JVM's own address cache applies.
+ */
+public class SystemDNSResolver implements DNSResolver {
+
+    @Override
+    public InetAddress resolve(String host) throws UnknownHostException {
+        return InetAddress.getByName(host);
+    }
+
+    @Override
+    public InetAddress resolveNow(String host) {
+        if (!isIpLiteral(host)) {
+            return null;
+        }
+
+        try {
+            return InetAddress.getByName(host);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void prefetch(String host) {
+        //Nothing to prefetch into.
+    }
+
+    /**
+     * Returns true if the host looks like an ipv4 or ipv6 address. Resolving those never performs a lookup.
+     */
+    public static boolean isIpLiteral(String host) {
+        if (host.isEmpty()) {
+            return false;
+        }
+
+        if (host.indexOf(':') >= 0) {
+            return true;
+        }
+
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
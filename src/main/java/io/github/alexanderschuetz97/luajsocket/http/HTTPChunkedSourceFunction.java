@@ -0,0 +1,134 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.http;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.ltn12.LTN12Source;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import io.github.alexanderschuetz97.luajsocket.util.ByteArrayOutputStreamWithBufferAccess;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * chunkedsource(sock, headers) returns the source for the "http-chunked" mode of socket.source.
+ * Every call returns the next chunk of the body, chunks larger than the requested size are returned in parts.
+ * The trailers are added to the headers table if it is a table.
+ */
+public class HTTPChunkedSourceFunction extends AbstractLuaJSocketFunction {
+
+    /**
+     * Most bytes of a chunk returned by a single call.
+     */
+    public static final int MAX_PART = 1024 * 1024;
+
+    static final LuaString INVALID = valueOf("invalid chunk size");
+
+    public HTTPChunkedSourceFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        LuaTable headers = args.arg(2).istable() ? args.checktable(2) : new LuaTable();
+        return new Source(HTTPReader.of(args.checknotnil(1)), headers);
+    }
+
+    static class Source extends LTN12Source {
+
+        private final HTTPReader reader;
+
+        private final LuaTable headers;
+
+        private final ByteArrayOutputStreamWithBufferAccess line = new ByteArrayOutputStreamWithBufferAccess(32);
+
+        //bytes of the current chunk that were not returned yet
+        private long remaining;
+
+        private boolean done;
+
+        //error while skipping the line feed after a chunk, returned by the next call
+        private LuaValue error;
+
+        Source(HTTPReader reader, LuaTable headers) {
+            super(MAX_PART);
+            this.reader = reader;
+            this.headers = headers;
+        }
+
+        @Override
+        public Varargs pull(int size) {
+            if (error != null) {
+                return varargsOf(NIL, error);
+            }
+
+            if (done) {
+                return NIL;
+            }
+
+            try {
+                if (remaining == 0) {
+                    line.reset();
+                    reader.readLine(line);
+                    long chunkSize = HTTPResponseParser.parseChunkSize(line.getBuffer(), line.size());
+                    if (chunkSize < 0) {
+                        return varargsOf(NIL, INVALID);
+                    }
+
+                    if (chunkSize == 0) {
+                        //the last chunk is followed by the trailers
+                        done = true;
+                        Varargs res = HTTPResponseParser.receiveHeaders(reader, headers);
+                        if (res.arg1().isnil()) {
+                            return res;
+                        }
+                        return NIL;
+                    }
+
+                    remaining = chunkSize;
+                }
+
+                int count = (int) Math.min(remaining, Math.max(1, size));
+                ByteArrayOutputStreamWithBufferAccess chunk = new ByteArrayOutputStreamWithBufferAccess(count);
+                reader.readBytes(chunk, count);
+                remaining -= count;
+                if (remaining == 0) {
+                    skipLine();
+                }
+                return LuaString.valueUsing(chunk.getBuffer(), 0, chunk.size());
+            } catch (HTTPReader.ReceiveException e) {
+                return varargsOf(NIL, e.getError());
+            }
+        }
+
+        /**
+         * Skips the line feed after a chunk. Errors are reported by the next call, this one already has its data.
+         */
+        private void skipLine() {
+            line.reset();
+            try {
+                reader.readLine(line);
+            } catch (HTTPReader.ReceiveException e) {
+                error = e.getError();
+            }
+        }
+    }
+}
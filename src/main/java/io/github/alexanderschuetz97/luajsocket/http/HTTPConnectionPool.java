@@ -0,0 +1,261 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.http;
+
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPClient;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
+import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPMasterUserdata;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Idle keep-alive connections of socket.http keyed by scheme, host and port.
+ * At most maxPerHost idle connections are kept per key, the oldest one is closed when another one is released.
+ * Connections idle for longer than idleTimeout are closed on the next take or release.
+ * A connection that received bytes or was closed by the peer while idle is stale and closed instead of reused.
+ */
+public class HTTPConnectionPool {
+
+    public static final int DEFAULT_MAX_PER_HOST = 8;
+
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private final Map<String, ArrayDeque<Idle>> idle = new HashMap<>();
+
+    private int maxPerHost = DEFAULT_MAX_PER_HOST;
+
+    private long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_TIMEOUT);
+
+    private int size;
+
+    private long hits;
+
+    private long misses;
+
+    private long stale;
+
+    private long evicted;
+
+    private static class Idle {
+        private final TCPMasterUserdata socket;
+        private final long since;
+
+        private Idle(TCPMasterUserdata socket, long since) {
+            this.socket = socket;
+            this.since = since;
+        }
+    }
+
+    public static String key(String scheme, String host, int port) {
+        return scheme + "://" + host + ":" + port;
+    }
+
+    /**
+     * Sets the limits of the pool. idleTimeout is in milliseconds. A maxPerHost of 0 disables the pool.
+     */
+    public void setLimits(int maxPerHost, long idleTimeout) {
+        List<TCPMasterUserdata> toClose = new ArrayList<>();
+        synchronized (this) {
+            this.maxPerHost = Math.max(0, maxPerHost);
+            this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, idleTimeout));
+            Iterator<ArrayDeque<Idle>> iterator = idle.values().iterator();
+            while (iterator.hasNext()) {
+                ArrayDeque<Idle> queue = iterator.next();
+                while (queue.size() > this.maxPerHost) {
+                    size--;
+                    evicted++;
+                    toClose.add(queue.pollLast().socket);
+                }
+                if (queue.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+            evictExpired(System.nanoTime(), toClose);
+        }
+        close(toClose);
+    }
+
+    public synchronized int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    public synchronized long getIdleTimeout() {
+        return TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos);
+    }
+
+    /**
+     * Returns the most recently released connection for the key that is still usable or null if there is none.
+     */
+    public TCPMasterUserdata take(String key) {
+        List<TCPMasterUserdata> toClose = new ArrayList<>();
+        TCPMasterUserdata result = null;
+        synchronized (this) {
+            long now = System.nanoTime();
+            evictExpired(now, toClose);
+            ArrayDeque<Idle> queue = idle.get(key);
+            while (queue != null && !queue.isEmpty()) {
+                Idle entry = queue.pollFirst();
+                size--;
+                if (isReusable(entry.socket)) {
+                    result = entry.socket;
+                    break;
+                }
+                stale++;
+                toClose.add(entry.socket);
+            }
+
+            if (queue != null && queue.isEmpty()) {
+                idle.remove(key);
+            }
+
+            if (result != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+
+        close(toClose);
+        return result;
+    }
+
+    /**
+     * Puts the connection back into the pool. Returns false if it was closed instead because it is not reusable
+     * or the pool for the key is full.
+     */
+    public boolean release(String key, TCPMasterUserdata socket) {
+        List<TCPMasterUserdata> toClose = new ArrayList<>();
+        boolean pooled = false;
+        synchronized (this) {
+            long now = System.nanoTime();
+            evictExpired(now, toClose);
+            if (maxPerHost > 0 && isReusable(socket)) {
+                ArrayDeque<Idle> queue = idle.get(key);
+                if (queue == null) {
+                    queue = new ArrayDeque<>();
+                    idle.put(key, queue);
+                }
+                while (queue.size() >= maxPerHost) {
+                    size--;
+                    evicted++;
+                    toClose.add(queue.pollLast().socket);
+                }
+                queue.addFirst(new Idle(socket, now));
+                size++;
+                pooled = true;
+            } else {
+                toClose.add(socket);
+            }
+        }
+
+        close(toClose);
+        return pooled;
+    }
+
+    /**
+     * Closes all idle connections.
+     */
+    public void clear() {
+        List<TCPMasterUserdata> toClose = new ArrayList<>();
+        synchronized (this) {
+            for (ArrayDeque<Idle> queue : idle.values()) {
+                for (Idle entry : queue) {
+                    toClose.add(entry.socket);
+                }
+            }
+            idle.clear();
+            size = 0;
+        }
+        close(toClose);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Connections that were closed by take because they received bytes or were closed by the peer while idle.
+     */
+    public synchronized long getStale() {
+        return stale;
+    }
+
+    /**
+     * Connections that were closed because they were idle for too long or the pool of their key was full.
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * A connection can be reused if it is connected and nothing was received on it. Anything received on an idle
+     * http connection is either the eof of the peer closing it or garbage.
+     */
+    protected boolean isReusable(TCPMasterUserdata socket) {
+        TCPMaster master = socket.getMaster();
+        TCPClient client = master.getClient();
+        return master.isOpen() && client != null && client.isIdle();
+    }
+
+    private void evictExpired(long now, List<TCPMasterUserdata> toClose) {
+        Iterator<ArrayDeque<Idle>> iterator = idle.values().iterator();
+        while (iterator.hasNext()) {
+            ArrayDeque<Idle> queue = iterator.next();
+            //The oldest connections are at the end.
+            while (!queue.isEmpty() && now - queue.peekLast().since >= idleTimeoutNanos) {
+                size--;
+                evicted++;
+                toClose.add(queue.pollLast().socket);
+            }
+            if (queue.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static void close(List<TCPMasterUserdata> sockets) {
+        for (TCPMasterUserdata socket : sockets) {
+            close(socket);
+        }
+    }
+
+    private static void close(TCPMasterUserdata socket) {
+        try {
+            socket.getMaster().close();
+        } catch (IOException e) {
+            //DC
+        }
+    }
+}
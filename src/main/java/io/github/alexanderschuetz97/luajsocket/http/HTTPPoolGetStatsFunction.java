@@ -0,0 +1,49 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.http;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.Varargs;
+
+/**
+ * getpool() returns a table with the limits and counters of the connection pool.
+ */
+public class HTTPPoolGetStatsFunction extends AbstractLuaJSocketFunction {
+
+    public HTTPPoolGetStatsFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        HTTPConnectionPool pool = luaJSocket.getHTTPConnectionPool();
+        LuaTable table = new LuaTable();
+        table.set("idle", valueOf(pool.size()));
+        table.set("hits", valueOf(pool.getHits()));
+        table.set("misses", valueOf(pool.getMisses()));
+        table.set("stale", valueOf(pool.getStale()));
+        table.set("evicted", valueOf(pool.getEvicted()));
+        table.set("maxperhost", valueOf(pool.getMaxPerHost()));
+        table.set("idletimeout", valueOf(pool.getIdleTimeout() / 1000d));
+        return table;
+    }
+}
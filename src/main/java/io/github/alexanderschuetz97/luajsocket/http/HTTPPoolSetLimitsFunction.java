@@ -0,0 +1,44 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.http;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.Varargs;
+
+/**
+ * setpool(maxperhost, idletimeout) sets how many idle connections are kept per host and for how many seconds.
+ * Omitted arguments keep their current value. A maxperhost of 0 disables the pool.
+ */
+public class HTTPPoolSetLimitsFunction extends AbstractLuaJSocketFunction {
+
+    public HTTPPoolSetLimitsFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        HTTPConnectionPool pool = luaJSocket.getHTTPConnectionPool();
+        int maxPerHost = args.optint(1, pool.getMaxPerHost());
+        long idleTimeout = args.isnil(2) ? pool.getIdleTimeout() : (long) (args.checkdouble(2) * 1000d);
+        pool.setLimits(maxPerHost, idleTimeout);
+        return ONE;
+    }
+}
@@ -0,0 +1,45 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.http;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPMasterUserdata;
+import org.luaj.vm2.Varargs;
+
+/**
+ * take(scheme, host, port) returns an idle connected tcp socket to the host or nil if the pool has none.
+ */
+public class HTTPPoolTakeFunction extends AbstractLuaJSocketFunction {
+
+    public HTTPPoolTakeFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        String key = HTTPConnectionPool.key(args.checkjstring(1), args.checkjstring(2), args.checkint(3));
+        TCPMasterUserdata socket = luaJSocket.getHTTPConnectionPool().take(key);
+        if (socket == null) {
+            return NIL;
+        }
+        return socket;
+    }
+}
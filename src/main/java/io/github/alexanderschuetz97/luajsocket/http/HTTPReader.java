@@ -0,0 +1,192 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.http;
+
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPClient;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
+import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPMasterUserdata;
+import io.github.alexanderschuetz97.luajsocket.util.ByteArrayOutputStreamWithBufferAccess;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reads lines and bytes of a http response from a socket.
+ * Tcp sockets of this library are read directly from their receive buffer,
+ * any other socket (for example one of LuaSec) with sock:receive().
+ */
+public abstract class HTTPReader {
+
+    /**
+     * readBytes presizes the output for at most this many bytes unless more are already received.
+     */
+    private static final int MAX_PRESIZE = 1024 * 1024;
+
+    /**
+     * Thrown if receiving failed. The error is what sock:receive() would have returned as second value.
+     */
+    public static class ReceiveException extends Exception {
+
+        private final LuaValue error;
+
+        public ReceiveException(LuaValue error) {
+            super(error.tojstring());
+            this.error = error;
+        }
+
+        public LuaValue getError() {
+            return error;
+        }
+    }
+
+    public static HTTPReader of(LuaValue sock) {
+        if (sock instanceof TCPMasterUserdata) {
+            return new TCP(((TCPMasterUserdata) sock).getMaster());
+        }
+
+        return new Lua(sock);
+    }
+
+    /**
+     * Reads from the receive buffer of the tcp master. Unlike of(LuaValue) this can be used by any thread.
+     */
+    public static HTTPReader of(TCPMaster master) {
+        return new TCP(master);
+    }
+
+    /**
+     * Appends the next line without its line feed and without carriage returns to the output.
+     */
+    public abstract void readLine(ByteArrayOutputStreamWithBufferAccess output) throws ReceiveException;
+
+    /**
+     * Appends the next count bytes to the output.
+     */
+    public abstract void readBytes(ByteArrayOutputStreamWithBufferAccess output, int count) throws ReceiveException;
+
+    /**
+     * Appends everything until the connection is closed to the output.
+     */
+    public abstract void readAll(ByteArrayOutputStreamWithBufferAccess output) throws ReceiveException;
+
+    private static class TCP extends HTTPReader {
+
+        private final TCPMaster master;
+
+        private TCP(TCPMaster master) {
+            this.master = master;
+        }
+
+        private TCPClient client() throws ReceiveException {
+            if (master.isClosed()) {
+                throw new ReceiveException(LuaValue.valueOf("closed"));
+            }
+
+            TCPClient client = master.getClient();
+            if (client == null) {
+                throw new ReceiveException(LuaValue.valueOf("Not a client."));
+            }
+
+            return client;
+        }
+
+        @Override
+        public void readLine(ByteArrayOutputStreamWithBufferAccess output) throws ReceiveException {
+            TCPClient client = client();
+            try {
+                client.readLine(output, master.getSettings().getSingleTimeout(), master.getSettings().getTotalTimeout());
+            } catch (EOFException e) {
+                throw new ReceiveException(LuaValue.valueOf("closed"));
+            } catch (IOException e) {
+                throw new ReceiveException(LuaValue.valueOf("error " + e.getMessage() + " " + e.getClass().getName()));
+            } catch (TimeoutException e) {
+                throw new ReceiveException(LuaValue.valueOf("timeout"));
+            }
+        }
+
+        @Override
+        public void readBytes(ByteArrayOutputStreamWithBufferAccess output, int count) throws ReceiveException {
+            TCPClient client = client();
+            //count comes from the peer, only presize for what may actually arrive
+            output.ensureCapacity(Math.min(count, Math.max(MAX_PRESIZE, client.availableToReceive())));
+            try {
+                client.readBytes(output, count, master.getSettings().getSingleTimeout(), master.getSettings().getTotalTimeout());
+            } catch (EOFException e) {
+                throw new ReceiveException(LuaValue.valueOf("closed"));
+            } catch (IOException e) {
+                throw new ReceiveException(LuaValue.valueOf("error " + e.getMessage() + " " + e.getClass().getName()));
+            } catch (TimeoutException e) {
+                throw new ReceiveException(LuaValue.valueOf("timeout"));
+            }
+        }
+
+        @Override
+        public void readAll(ByteArrayOutputStreamWithBufferAccess output) throws ReceiveException {
+            TCPClient client = client();
+            try {
+                client.readAll(output, master.getSettings().getSingleTimeout(), master.getSettings().getTotalTimeout());
+            } catch (EOFException e) {
+                throw new ReceiveException(LuaValue.valueOf("closed"));
+            } catch (IOException e) {
+                throw new ReceiveException(LuaValue.valueOf("error " + e.getMessage() + " " + e.getClass().getName()));
+            } catch (TimeoutException e) {
+                throw new ReceiveException(LuaValue.valueOf("timeout"));
+            }
+        }
+    }
+
+    private static class Lua extends HTTPReader {
+
+        private final LuaValue sock;
+
+        private Lua(LuaValue sock) {
+            this.sock = sock;
+        }
+
+        private void receive(ByteArrayOutputStreamWithBufferAccess output, LuaValue pattern) throws ReceiveException {
+            Varargs res = sock.invokemethod("receive", pattern);
+            if (res.arg1().isnil()) {
+                throw new ReceiveException(res.arg(2));
+            }
+
+            LuaString str = res.arg1().checkstring();
+            output.write(str.m_bytes, str.m_offset, str.m_length);
+        }
+
+        @Override
+        public void readLine(ByteArrayOutputStreamWithBufferAccess output) throws ReceiveException {
+            receive(output, LuaValue.valueOf("*l"));
+        }
+
+        @Override
+        public void readBytes(ByteArrayOutputStreamWithBufferAccess output, int count) throws ReceiveException {
+            receive(output, LuaValue.valueOf(count));
+        }
+
+        @Override
+        public void readAll(ByteArrayOutputStreamWithBufferAccess output) throws ReceiveException {
+            receive(output, LuaValue.valueOf("*a"));
+        }
+    }
+}
@@ -0,0 +1,595 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.http;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPClient;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
+import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPMasterUserdata;
+import io.github.alexanderschuetz97.luajsocket.util.ByteArrayOutputStreamWithBufferAccess;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * requestall(list, concurrency, timeout, deadline) performs plain http requests concurrently on the executor.
+ * Every entry of the list is a table with scheme, host, port, head (request line and headers), an optional body string,
+ * receivebody (false for HEAD requests) and keepalive. Up to concurrency requests run at the same time, connections are
+ * taken from and released to the keep-alive pool. timeout is the timeout of every socket operation in seconds.
+ * Returns a table with {body, code, headers, status} or {nil, error} for every request once all requests are done
+ * or the deadline in seconds has passed, requests that did not complete until then fail with "timeout".
+ *
+ * The workers only use java objects. The pool is only used and all lua values are only created by the calling thread,
+ * which returns once every worker has stopped.
+ */
+public class HTTPRequestAllFunction extends AbstractLuaJSocketFunction {
+
+    private static final LuaString TIMEOUT = valueOf("timeout");
+
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final byte[] CONNECTION = "connection".getBytes(StandardCharsets.ISO_8859_1);
+
+    public HTTPRequestAllFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        LuaTable list = args.checktable(1);
+        Request[] requests = new Request[list.length()];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new Request(list.get(i+1).checktable());
+        }
+
+        LuaTable results = new LuaTable(requests.length, 0);
+        if (requests.length == 0) {
+            return results;
+        }
+
+        int concurrency = Math.max(1, Math.min(args.optint(2, requests.length), requests.length));
+        double timeout = args.optdouble(3, -1);
+        double deadline = args.optdouble(4, -1);
+
+        Batch batch = new Batch(luaJSocket, requests, concurrency, timeout < 0 ? -1 : (int) (timeout * 1000));
+        Map<TCPMaster, TCPMasterUserdata> pooled = takePooled(batch, requests, concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            luaJSocket.execute(batch);
+        }
+
+        boolean interrupted = false;
+        try {
+            if (deadline < 0) {
+                batch.done.await();
+            } else if (!batch.done.await((long) (deadline * 1000), TimeUnit.MILLISECONDS)) {
+                batch.cancel("timeout");
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+            batch.cancel("interrupted");
+        }
+
+        if (batch.awaitStopped() || interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        releaseIdle(batch, pooled);
+        for (int i = 0; i < requests.length; i++) {
+            results.set(i+1, batch.results.get(i).toLua());
+        }
+        return results;
+    }
+
+    /**
+     * Takes the idle connections the requests can use from the pool and gives them to the batch.
+     * Returns the userdata of every taken connection by its master.
+     */
+    private Map<TCPMaster, TCPMasterUserdata> takePooled(Batch batch, Request[] requests, int concurrency) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Request request : requests) {
+            if (request.keepAlive) {
+                Integer count = counts.get(request.key);
+                counts.put(request.key, count == null ? 1 : count + 1);
+            }
+        }
+
+        HTTPConnectionPool pool = luaJSocket.getHTTPConnectionPool();
+        Map<TCPMaster, TCPMasterUserdata> pooled = new IdentityHashMap<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            for (int i = Math.min(entry.getValue(), concurrency); i > 0; i--) {
+                TCPMasterUserdata socket = pool.take(entry.getKey());
+                if (socket == null) {
+                    break;
+                }
+                pooled.put(socket.getMaster(), socket);
+                batch.idle(entry.getKey(), socket.getMaster());
+            }
+        }
+        return pooled;
+    }
+
+    /**
+     * Releases the connections the batch kept alive to the pool. Connections that were not taken from the pool get their userdata now.
+     */
+    private void releaseIdle(Batch batch, Map<TCPMaster, TCPMasterUserdata> pooled) {
+        HTTPConnectionPool pool = luaJSocket.getHTTPConnectionPool();
+        for (Map.Entry<String, ArrayDeque<TCPMaster>> entry : batch.idle.entrySet()) {
+            for (TCPMaster master : entry.getValue()) {
+                TCPMasterUserdata socket = pooled.get(master);
+                if (socket == null) {
+                    socket = (TCPMasterUserdata) luaJSocket.createTCP(master);
+                }
+                pool.release(entry.getKey(), socket);
+            }
+        }
+    }
+
+    private static class Request {
+        private final String host;
+        private final int port;
+        private final String key;
+        private final LuaString head;
+        private final LuaString body;
+        private final boolean receiveBody;
+        private final boolean keepAlive;
+
+        private Request(LuaTable table) {
+            host = table.get("host").checkjstring();
+            port = table.get("port").checkint();
+            key = HTTPConnectionPool.key(table.get("scheme").optjstring("http"), host, port);
+            head = table.get("head").checkstring();
+            body = table.get("body").optstring(null);
+            receiveBody = table.get("receivebody").optboolean(true);
+            keepAlive = table.get("keepalive").toboolean();
+        }
+    }
+
+    /**
+     * The outcome of a request. Converted to lua values by the calling thread.
+     */
+    private static class Response {
+        private final byte[] body;
+        private final int length;
+        private final int code;
+        //null for HTTP/0.9 responses
+        private final byte[] status;
+        private final List<byte[]> headers;
+        private final String error;
+
+        private Response(ByteArrayOutputStreamWithBufferAccess body, int code, byte[] status, List<byte[]> headers) {
+            this.body = body.getBuffer();
+            this.length = body.size();
+            this.code = code;
+            this.status = status;
+            this.headers = headers;
+            this.error = null;
+        }
+
+        private Response(String error) {
+            this.body = null;
+            this.length = 0;
+            this.code = 0;
+            this.status = null;
+            this.headers = null;
+            this.error = error;
+        }
+
+        private LuaValue toLua() {
+            if (error != null) {
+                return LuaValue.listOf(new LuaValue[]{NIL, valueOf(error)});
+            }
+
+            LuaString luaBody = LuaString.valueUsing(body, 0, length);
+            if (status == null) {
+                return LuaValue.listOf(new LuaValue[]{luaBody, valueOf(code)});
+            }
+
+            LuaTable luaHeaders = new LuaTable();
+            HTTPResponseParser.addHeaders(luaHeaders, headers);
+            return LuaValue.listOf(new LuaValue[]{luaBody, valueOf(code), luaHeaders, LuaString.valueUsing(status)});
+        }
+    }
+
+    /**
+     * Every worker of a batch runs this, it takes the next request until all requests are taken.
+     */
+    private static class Batch implements Runnable {
+
+        private final LuaJSocketLib luaJSocket;
+
+        private final Request[] requests;
+
+        private final int timeout;
+
+        private final AtomicInteger next = new AtomicInteger();
+
+        private final AtomicReferenceArray<Response> results;
+
+        //the connection each request currently uses and the socket it is connecting, closed if the batch is cancelled
+        private final AtomicReferenceArray<TCPMaster> masters;
+        private final AtomicReferenceArray<Socket> connecting;
+
+        //connections that are kept alive but not in use, by pool key
+        private final Map<String, ArrayDeque<TCPMaster>> idle = new HashMap<>();
+
+        private final CountDownLatch done;
+
+        private final CountDownLatch stopped;
+
+        private volatile boolean cancelled;
+
+        private Batch(LuaJSocketLib luaJSocket, Request[] requests, int workers, int timeout) {
+            this.luaJSocket = luaJSocket;
+            this.requests = requests;
+            this.timeout = timeout;
+            this.results = new AtomicReferenceArray<>(requests.length);
+            this.masters = new AtomicReferenceArray<>(requests.length);
+            this.connecting = new AtomicReferenceArray<>(requests.length);
+            this.done = new CountDownLatch(requests.length);
+            this.stopped = new CountDownLatch(workers);
+        }
+
+        @Override
+        public void run() {
+            try {
+                int i;
+                while (!cancelled && (i = next.getAndIncrement()) < requests.length) {
+                    Response result;
+                    try {
+                        result = request(i);
+                    } catch (HTTPReader.ReceiveException e) {
+                        result = new Response(e.getMessage());
+                    } catch (RuntimeException e) {
+                        result = new Response(String.valueOf(e.getMessage()));
+                    } catch (Error e) {
+                        //the request must complete even then, the calling thread waits for it
+                        result = new Response(String.valueOf(e));
+                    }
+                    complete(i, result);
+                }
+            } finally {
+                stopped.countDown();
+            }
+        }
+
+        private boolean complete(int i, Response result) {
+            if (!results.compareAndSet(i, null, result)) {
+                return false;
+            }
+
+            done.countDown();
+            return true;
+        }
+
+        /**
+         * Fails all requests that are not done with the error and closes the connections that are in use.
+         */
+        private void cancel(String error) {
+            cancelled = true;
+            for (int i = 0; i < requests.length; i++) {
+                complete(i, new Response(error));
+                TCPMaster master = masters.get(i);
+                if (master != null) {
+                    close(master);
+                }
+                Socket socket = connecting.get(i);
+                if (socket != null) {
+                    close(socket);
+                }
+            }
+        }
+
+        /**
+         * Waits until every worker returned. Returns true if the calling thread was interrupted meanwhile.
+         */
+        private boolean awaitStopped() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    stopped.await();
+                    return interrupted;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    cancel("interrupted");
+                }
+            }
+        }
+
+        private void idle(String key, TCPMaster master) {
+            synchronized (idle) {
+                ArrayDeque<TCPMaster> queue = idle.get(key);
+                if (queue == null) {
+                    queue = new ArrayDeque<>();
+                    idle.put(key, queue);
+                }
+                queue.push(master);
+            }
+        }
+
+        /**
+         * Returns the most recently used idle connection for the key that is still usable or null if there is none.
+         */
+        private TCPMaster takeIdle(String key) {
+            synchronized (idle) {
+                ArrayDeque<TCPMaster> queue = idle.get(key);
+                while (queue != null && !queue.isEmpty()) {
+                    TCPMaster master = queue.pop();
+                    TCPClient client = master.getClient();
+                    if (client != null && client.isIdle()) {
+                        return master;
+                    }
+                    close(master);
+                }
+                return null;
+            }
+        }
+
+        private Response request(int i) throws HTTPReader.ReceiveException {
+            Request request = requests[i];
+            if (request.keepAlive) {
+                TCPMaster master = takeIdle(request.key);
+                if (master != null) {
+                    try {
+                        return exchange(i, request, master);
+                    } catch (HTTPReader.ReceiveException e) {
+                        //the server may have closed the idle connection, try once more on a new one
+                        close(master);
+                    }
+                }
+            }
+
+            TCPMaster master = connect(i, request);
+            try {
+                return exchange(i, request, master);
+            } catch (HTTPReader.ReceiveException e) {
+                close(master);
+                throw e;
+            }
+        }
+
+        /**
+         * Connects a new master on this thread. The socket is closed if the batch is cancelled meanwhile.
+         */
+        private TCPMaster connect(int i, Request request) throws HTTPReader.ReceiveException {
+            if (cancelled) {
+                throw new HTTPReader.ReceiveException(TIMEOUT);
+            }
+
+            TCPMaster master = new TCPMaster(luaJSocket);
+            master.getSettings().setSingleTimeout(timeout);
+            master.getSettings().setNoDelay(true);
+            Socket socket = null;
+            boolean connected = false;
+            try {
+                InetAddress address = luaJSocket.getDNSResolver().resolve(request.host);
+                socket = master.createSocket();
+                connecting.set(i, socket);
+                if (cancelled) {
+                    throw new HTTPReader.ReceiveException(TIMEOUT);
+                }
+                socket.connect(new InetSocketAddress(address, request.port), master.getSettings().getConnectTimeout());
+                master.setClient(socket);
+                connected = true;
+                return master;
+            } catch (IOException e) {
+                throw new HTTPReader.ReceiveException(valueOf(String.valueOf(e.getMessage())));
+            } finally {
+                connecting.set(i, null);
+                if (!connected) {
+                    close(master);
+                    if (socket != null) {
+                        close(socket);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sends the request and receives the response. The master is kept alive or closed once the result is stored.
+         */
+        private Response exchange(int i, Request request, TCPMaster master) throws HTTPReader.ReceiveException {
+            masters.set(i, master);
+            if (cancelled) {
+                throw new HTTPReader.ReceiveException(TIMEOUT);
+            }
+
+            master.getSettings().setSingleTimeout(timeout);
+            send(master, request.head);
+            if (request.body != null) {
+                send(master, request.body);
+            }
+
+            HTTPReader reader = HTTPReader.of(master);
+            ByteArrayOutputStreamWithBufferAccess body = new ByteArrayOutputStreamWithBufferAccess(256);
+            ByteArrayOutputStreamWithBufferAccess line = new ByteArrayOutputStreamWithBufferAccess(64);
+            int code = HTTPResponseParser.readStatusLine(reader, line);
+            if (code == HTTPResponseParser.NO_STATUS_LINE) {
+                //HTTP/0.9, the body is everything until the connection is closed
+                body.write(line.getBuffer(), 0, line.size());
+                reader.readAll(body);
+                return finish(i, new Response(body, 200, null, null), request, master, false);
+            }
+
+            //ignore any 100-continue messages
+            while (code == 100) {
+                HTTPResponseParser.readHeaders(reader, new ArrayList<byte[]>());
+                line.reset();
+                code = HTTPResponseParser.readStatusLine(reader, line);
+            }
+            if (code < 0) {
+                throw new HTTPReader.ReceiveException(LuaString.valueOf(line.toByteArray()));
+            }
+
+            List<byte[]> headers = new ArrayList<>();
+            HTTPResponseParser.readHeaders(reader, headers);
+
+            boolean hasBody = request.receiveBody && code != 204 && code != 304 && (code < 100 || code >= 200);
+            boolean delimited = true;
+            if (hasBody) {
+                String transferEncoding = header(headers, TRANSFER_ENCODING);
+                int length = parseLength(header(headers, CONTENT_LENGTH));
+                if (transferEncoding != null && !"identity".equals(transferEncoding)) {
+                    readChunked(reader, body, headers);
+                } else if (length >= 0) {
+                    reader.readBytes(body, length);
+                } else {
+                    delimited = false;
+                    reader.readAll(body);
+                }
+            }
+
+            byte[] status = line.toByteArray();
+            Response response = new Response(body, code, status, headers);
+            return finish(i, response, request, master, request.keepAlive && delimited && isKeepAlive(status, headers));
+        }
+
+        private Response finish(int i, Response response, Request request, TCPMaster master, boolean keepAlive) {
+            masters.set(i, null);
+            boolean stored = complete(i, response);
+            if (!keepAlive || !stored) {
+                close(master);
+            } else {
+                idle(request.key, master);
+            }
+            return response;
+        }
+
+        private void send(TCPMaster master, LuaString data) throws HTTPReader.ReceiveException {
+            TCPClient client = master.getClient();
+            if (client == null || master.isClosed()) {
+                throw new HTTPReader.ReceiveException(valueOf("closed"));
+            }
+
+            try {
+                int l = client.write(data.m_bytes, data.m_offset, data.m_length, master.getSettings().getSingleTimeout(), master.getSettings().getTotalTimeout());
+                if (l != data.m_length) {
+                    throw new HTTPReader.ReceiveException(TIMEOUT);
+                }
+            } catch (IOException e) {
+                throw new HTTPReader.ReceiveException(valueOf(String.valueOf(e.getMessage())));
+            }
+        }
+
+        /**
+         * Reads a chunked body into the output. The trailers are added to the headers.
+         */
+        private static void readChunked(HTTPReader reader, ByteArrayOutputStreamWithBufferAccess body, List<byte[]> headers) throws HTTPReader.ReceiveException {
+            ByteArrayOutputStreamWithBufferAccess line = new ByteArrayOutputStreamWithBufferAccess(32);
+            while (true) {
+                line.reset();
+                reader.readLine(line);
+                long size = HTTPResponseParser.parseChunkSize(line.getBuffer(), line.size());
+                if (size < 0 || size > Integer.MAX_VALUE - body.size()) {
+                    throw new HTTPReader.ReceiveException(HTTPChunkedSourceFunction.INVALID);
+                }
+
+                if (size == 0) {
+                    HTTPResponseParser.readHeaders(reader, headers);
+                    return;
+                }
+
+                reader.readBytes(body, (int) size);
+                //the line feed after the chunk
+                line.reset();
+                reader.readLine(line);
+            }
+        }
+
+        /**
+         * Returns the value of the header, repeated headers joined with ", ", or null if there is none.
+         */
+        private static String header(List<byte[]> headers, byte[] name) {
+            String value = null;
+            for (int i = 0; i + 1 < headers.size(); i += 2) {
+                if (Arrays.equals(name, headers.get(i))) {
+                    String v = new String(headers.get(i + 1), StandardCharsets.ISO_8859_1);
+                    value = value == null ? v : value + ", " + v;
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Returns the content length or -1 if there is none or it is not a number.
+         */
+        private static int parseLength(String value) {
+            if (value == null) {
+                return -1;
+            }
+
+            try {
+                long length = Long.parseLong(value.trim());
+                return length < 0 || length > Integer.MAX_VALUE ? -1 : (int) length;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Same as shouldkeepalive in http.lua for a response whose body ended before the connection did.
+         */
+        private static boolean isKeepAlive(byte[] status, List<byte[]> headers) {
+            String connection = header(headers, CONNECTION);
+            connection = connection == null ? "" : connection.toLowerCase();
+            if (connection.contains("close")) {
+                return false;
+            }
+            return new String(status, StandardCharsets.ISO_8859_1).startsWith("HTTP/1.1") || connection.contains("keep-alive");
+        }
+
+        private static void close(TCPMaster master) {
+            try {
+                master.close();
+            } catch (IOException e) {
+                //DC
+            }
+        }
+
+        private static void close(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //DC
+            }
+        }
+    }
+}
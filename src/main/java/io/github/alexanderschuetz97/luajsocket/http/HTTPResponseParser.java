@@ -0,0 +1,246 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.http;
+
+import io.github.alexanderschuetz97.luajsocket.util.ByteArrayOutputStreamWithBufferAccess;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses the status line, the headers and the chunk size lines of a http response.
+ * Results and errors are returned the same way the lua functions of http.lua returned them.
+ */
+public class HTTPResponseParser {
+
+    private static final LuaString MALFORMED = LuaString.valueOf("malformed reponse headers");
+
+    private static final LuaString SEPARATOR = LuaString.valueOf(", ");
+
+    private static final byte[] HTTP = {'H', 'T', 'T', 'P', '/'};
+
+    /**
+     * Returned by readStatusLine for a HTTP/0.9 response.
+     */
+    public static final int NO_STATUS_LINE = -2;
+
+    private HTTPResponseParser() {
+
+    }
+
+    /**
+     * Returns the status code and the status line.
+     * If the response does not start with "HTTP/" it is a HTTP/0.9 response without status line,
+     * then false and the bytes read so far are returned. Returns nil and the error if receiving failed
+     * and nil and the status line if it contains no status code.
+     */
+    public static Varargs receiveStatusLine(HTTPReader reader) {
+        ByteArrayOutputStreamWithBufferAccess line = new ByteArrayOutputStreamWithBufferAccess(64);
+        int code;
+        try {
+            code = readStatusLine(reader, line);
+        } catch (HTTPReader.ReceiveException e) {
+            return LuaValue.varargsOf(LuaValue.NIL, e.getError());
+        }
+
+        LuaString status = LuaString.valueOf(line.toByteArray());
+        if (code == NO_STATUS_LINE) {
+            return LuaValue.varargsOf(LuaValue.FALSE, status);
+        }
+        if (code < 0) {
+            return LuaValue.varargsOf(LuaValue.NIL, status);
+        }
+
+        return LuaValue.varargsOf(LuaValue.valueOf(code), status);
+    }
+
+    /**
+     * Reads the status line into the output and returns the status code or -1 if the line contains none.
+     * Returns NO_STATUS_LINE if the response does not start with "HTTP/", the output then holds the bytes read so far.
+     */
+    public static int readStatusLine(HTTPReader reader, ByteArrayOutputStreamWithBufferAccess line) throws HTTPReader.ReceiveException {
+        reader.readBytes(line, HTTP.length);
+        if (line.size() != HTTP.length || !Arrays.equals(HTTP, Arrays.copyOf(line.getBuffer(), HTTP.length))) {
+            return NO_STATUS_LINE;
+        }
+        reader.readLine(line);
+        return parseStatusCode(line.getBuffer(), line.size());
+    }
+
+    /**
+     * Finds "HTTP/%d*%.%d* (%d%d%d)" in the line and returns the code or -1 if there is none.
+     */
+    static int parseStatusCode(byte[] line, int length) {
+        for (int start = 0; start + HTTP.length <= length; start++) {
+            int i = start;
+            int j = 0;
+            while (j < HTTP.length && line[i] == HTTP[j]) {
+                i++;
+                j++;
+            }
+            if (j < HTTP.length) {
+                continue;
+            }
+
+            while (i < length && isDigit(line[i])) {
+                i++;
+            }
+            if (i >= length || line[i++] != '.') {
+                continue;
+            }
+            while (i < length && isDigit(line[i])) {
+                i++;
+            }
+            if (i + 3 >= length || line[i] != ' ' || !isDigit(line[i+1]) || !isDigit(line[i+2]) || !isDigit(line[i+3])) {
+                continue;
+            }
+
+            return (line[i+1] - '0') * 100 + (line[i+2] - '0') * 10 + (line[i+3] - '0');
+        }
+
+        return -1;
+    }
+
+    /**
+     * Receives header lines until an empty line and adds them to the table.
+     * Names are lower case, folded values are unfolded and repeated headers are joined with ", ".
+     * Returns the table or nil and the error.
+     */
+    public static Varargs receiveHeaders(HTTPReader reader, LuaTable headers) {
+        List<byte[]> received = new ArrayList<>();
+        try {
+            readHeaders(reader, received);
+        } catch (HTTPReader.ReceiveException e) {
+            return LuaValue.varargsOf(LuaValue.NIL, e.getError());
+        }
+
+        addHeaders(headers, received);
+        return headers;
+    }
+
+    /**
+     * Receives header lines until an empty line and adds the lower case name and the unfolded value
+     * of every header to the list, one after another.
+     */
+    public static void readHeaders(HTTPReader reader, List<byte[]> headers) throws HTTPReader.ReceiveException {
+        ByteArrayOutputStreamWithBufferAccess line = new ByteArrayOutputStreamWithBufferAccess(128);
+        reader.readLine(line);
+        while (line.size() != 0) {
+            byte[] buf = line.getBuffer();
+            int len = line.size();
+            int colon = 0;
+            while (colon < len && buf[colon] != ':') {
+                colon++;
+            }
+            if (colon == len) {
+                throw new HTTPReader.ReceiveException(MALFORMED);
+            }
+
+            byte[] name = new byte[colon];
+            for (int i = 0; i < colon; i++) {
+                byte b = buf[i];
+                name[i] = b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+            }
+
+            int start = colon + 1;
+            while (start < len && isSpace(buf[start])) {
+                start++;
+            }
+            ByteArrayOutputStreamWithBufferAccess value = new ByteArrayOutputStreamWithBufferAccess(len - start);
+            value.write(buf, start, len - start);
+
+            //the value might be folded
+            line.reset();
+            reader.readLine(line);
+            while (line.size() != 0 && isSpace(line.getBuffer()[0])) {
+                value.write(line.getBuffer(), 0, line.size());
+                line.reset();
+                reader.readLine(line);
+            }
+
+            headers.add(name);
+            headers.add(value.toByteArray());
+        }
+    }
+
+    /**
+     * Adds the headers read by readHeaders to the table. Repeated headers are joined with ", ".
+     */
+    public static void addHeaders(LuaTable table, List<byte[]> headers) {
+        for (int i = 0; i + 1 < headers.size(); i += 2) {
+            LuaString key = LuaString.valueUsing(headers.get(i));
+            LuaValue v = LuaString.valueUsing(headers.get(i + 1));
+            LuaValue old = table.get(key);
+            if (old.toboolean()) {
+                v = old.concat(SEPARATOR).concat(v);
+            }
+            table.set(key, v);
+        }
+    }
+
+    /**
+     * Parses the size of a chunk of a chunked body. Extensions after ';' are ignored. Returns -1 if the size is invalid.
+     */
+    public static long parseChunkSize(byte[] line, int length) {
+        int end = 0;
+        while (end < length && line[end] != ';') {
+            end++;
+        }
+
+        int start = 0;
+        while (start < end && isSpace(line[start])) {
+            start++;
+        }
+        while (end > start && isSpace(line[end-1])) {
+            end--;
+        }
+
+        if (start == end || end - start > 15) {
+            return -1;
+        }
+
+        long size = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(line[i], 16);
+            if (digit < 0) {
+                return -1;
+            }
+            size = size * 16 + digit;
+        }
+
+        return size;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Same as %s in lua patterns.
+     */
+    private static boolean isSpace(byte b) {
+        return b == ' ' || (b >= '\t' && b <= '\r');
+    }
+}
@@ -19,20 +19,49 @@
 //
 package io.github.alexanderschuetz97.luajsocket.lib;
 
+import io.github.alexanderschuetz97.luajsocket.dns.CachingDNSResolver;
 import io.github.alexanderschuetz97.luajsocket.dns.DNSGetHostnameFunction;
+import io.github.alexanderschuetz97.luajsocket.dns.DNSPrefetchFunction;
+import io.github.alexanderschuetz97.luajsocket.dns.DNSResolver;
 import io.github.alexanderschuetz97.luajsocket.dns.DNSToHostnameFunction;
 import io.github.alexanderschuetz97.luajsocket.dns.DNSToIpFunction;
+import io.github.alexanderschuetz97.luajsocket.dns.SystemDNSResolver;
+import io.github.alexanderschuetz97.luajsocket.http.HTTPChunkedSourceFunction;
+import io.github.alexanderschuetz97.luajsocket.http.HTTPConnectionPool;
+import io.github.alexanderschuetz97.luajsocket.http.HTTPPoolClearFunction;
+import io.github.alexanderschuetz97.luajsocket.http.HTTPPoolGetStatsFunction;
+import io.github.alexanderschuetz97.luajsocket.http.HTTPPoolReleaseFunction;
+import io.github.alexanderschuetz97.luajsocket.http.HTTPPoolSetLimitsFunction;
+import io.github.alexanderschuetz97.luajsocket.http.HTTPPoolTakeFunction;
+import io.github.alexanderschuetz97.luajsocket.http.HTTPReceiveHeadersFunction;
+import io.github.alexanderschuetz97.luajsocket.http.HTTPReceiveStatusLineFunction;
+import io.github.alexanderschuetz97.luajsocket.http.HTTPRequestAllFunction;
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
+import io.github.alexanderschuetz97.luajsocket.ltn12.LTN12FileSinkFunction;
+import io.github.alexanderschuetz97.luajsocket.ltn12.LTN12FileSourceFunction;
+import io.github.alexanderschuetz97.luajsocket.ltn12.LTN12FilterChainFunction;
+import io.github.alexanderschuetz97.luajsocket.ltn12.LTN12PumpAllFunction;
+import io.github.alexanderschuetz97.luajsocket.ltn12.LTN12PumpStepFunction;
+import io.github.alexanderschuetz97.luajsocket.ltn12.LTN12SocketSourceFunction;
+import io.github.alexanderschuetz97.luajsocket.ltn12.LTN12StringSourceFunction;
+import io.github.alexanderschuetz97.luajsocket.ltn12.LTN12TableSinkFunction;
+import io.github.alexanderschuetz97.luajsocket.mime.MimeB64FilterFunction;
 import io.github.alexanderschuetz97.luajsocket.mime.MimeB64Function;
+import io.github.alexanderschuetz97.luajsocket.mime.MimeDeflateFilterFunction;
 import io.github.alexanderschuetz97.luajsocket.mime.MimeDotFunction;
 import io.github.alexanderschuetz97.luajsocket.mime.MimeEolFunction;
+import io.github.alexanderschuetz97.luajsocket.mime.MimeInflateFilterFunction;
 import io.github.alexanderschuetz97.luajsocket.mime.MimeQPFunction;
+import io.github.alexanderschuetz97.luajsocket.mime.MimeQPFilterFunction;
 import io.github.alexanderschuetz97.luajsocket.mime.MimeQPWrapFunction;
+import io.github.alexanderschuetz97.luajsocket.mime.MimeUnB64FilterFunction;
 import io.github.alexanderschuetz97.luajsocket.mime.MimeUnB64Function;
 import io.github.alexanderschuetz97.luajsocket.mime.MimeUnQPFunction;
 import io.github.alexanderschuetz97.luajsocket.mime.MimeWrapFunction;
 import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
 import io.github.alexanderschuetz97.luajsocket.socket.BindFunction;
 import io.github.alexanderschuetz97.luajsocket.socket.ConnectFunction;
+import io.github.alexanderschuetz97.luajsocket.socket.GetMetricsFunction;
 import io.github.alexanderschuetz97.luajsocket.socket.GetTimeFunction;
 import io.github.alexanderschuetz97.luajsocket.socket.NewTryFunction;
 import io.github.alexanderschuetz97.luajsocket.socket.ProtectFunction;
@@ -40,6 +69,8 @@ import io.github.alexanderschuetz97.luajsocket.socket.SelectFunction;
 import io.github.alexanderschuetz97.luajsocket.socket.SinkFunction;
 import io.github.alexanderschuetz97.luajsocket.socket.SkipFunction;
 import io.github.alexanderschuetz97.luajsocket.socket.SleepFunction;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.BlockingTCPEngine;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPEngine;
 import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
 import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMasterFinalizer;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPAcceptFunction;
@@ -48,12 +79,16 @@ import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPCloseFunction;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPConnectFunction;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPFunction;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPGetPeerNameFunction;
+import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPGetMetricsFunction;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPGetSockNameFunction;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPGetStatsFunction;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPListenFunction;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPMasterUserdata;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPReceiveFunction;
+import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPReceiveToFileFunction;
+import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPSendFileFunction;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPSendFunction;
+import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPSendVFunction;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPSetOptionFunction;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPSetStatsFunction;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPSetTimeoutFunction;
@@ -67,13 +102,17 @@ import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPGetSockNameFunction;
 import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPMasterUserdata;
 import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPReceiveFromFunction;
 import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPReceiveFunction;
+import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPReceiveManyFunction;
 import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPSendFunction;
+import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPSendManyFunction;
 import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPSendToFunction;
 import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPSetOptionFunction;
 import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPSetPeerNameFunction;
 import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPSetSockNameFunction;
 import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPSetTimeoutFunction;
 import io.github.alexanderschuetz97.luajsocket.util.ScriptLoader;
+import io.github.alexanderschuetz97.luajsocket.util.SocketSelector;
+import io.github.alexanderschuetz97.luajsocket.util.VirtualThreads;
 import org.luaj.vm2.Globals;
 import org.luaj.vm2.LuaError;
 import org.luaj.vm2.LuaString;
@@ -85,9 +124,16 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
 /**
- * Library that implements socket, socket.core, ltn12, socket.headers, socket.url, socket.tp, mime, mime.core, socket.http, socket.ftp, socket.smtp modules.
- * Load it by calling Globals.load(new LuaJSocketLib()).
+ * Library that implements socket, socket.core, ltn12, ltn12.core, socket.headers, socket.url, socket.tp, mime, mime.core, socket.http, socket.http.core, socket.ftp, socket.smtp modules.
+ * Load it by calling Globals.load(new LuaJSocketLib()), which returns the socket module.
+ * The socket module is required right away, all other modules are registered in package.preload
+ * and only created on their first require.
  * This library requires PackageLib to be loaded and Globals.compiler to be set.
+ *
+ * By default every tcp connection uses 2 blocking threads from the executor. To use a fixed amount of selector threads
+ * instead construct this library with a NioTCPEngine: Globals.load(new LuaJSocketLib(NioTCPEngine.getDefault())).
+ * On Java 21 or newer the blocking threads can be virtual threads instead:
+ * Globals.load(new LuaJSocketLib(new BlockingTCPEngine(), true)). Older JVMs fall back to the normal thread pool.
  */
 public class LuaJSocketLib extends TwoArgFunction {
 
@@ -95,8 +141,42 @@ public class LuaJSocketLib extends TwoArgFunction {
 
     protected static Executor DEFAULT_EXECUTOR;
 
+    protected static Executor VIRTUAL_EXECUTOR;
+
+    protected boolean virtualThreads;
+
     protected Executor executor;
 
+    protected TCPEngine tcpEngine;
+
+    protected DNSResolver dnsResolver;
+
+    protected HTTPConnectionPool httpConnectionPool;
+
+    protected final SocketSelector socketSelector = new SocketSelector();
+
+    protected final Metrics metrics = new Metrics();
+
+    public LuaJSocketLib() {
+
+    }
+
+    /**
+     * Constructs the library with the given engine for tcp sockets.
+     */
+    public LuaJSocketLib(TCPEngine tcpEngine) {
+        this.tcpEngine = tcpEngine;
+    }
+
+    /**
+     * Constructs the library with the given engine for tcp sockets.
+     * If virtualThreads is true and the JVM supports them, async java operations run on virtual threads.
+     */
+    public LuaJSocketLib(TCPEngine tcpEngine, boolean virtualThreads) {
+        this.tcpEngine = tcpEngine;
+        this.virtualThreads = virtualThreads;
+    }
+
     @Override
     public LuaValue call(LuaValue arg1, LuaValue arg2) {
         if (globals != null && globals != arg2) {
@@ -106,6 +186,15 @@ public class LuaJSocketLib extends TwoArgFunction {
         if (this.executor == null) {
             executor = getExecutor();
         }
+        if (this.tcpEngine == null) {
+            tcpEngine = createTCPEngine();
+        }
+        if (this.dnsResolver == null) {
+            dnsResolver = createDNSResolver();
+        }
+        if (this.httpConnectionPool == null) {
+            httpConnectionPool = createHTTPConnectionPool();
+        }
 
 
         LuaValue packageLib = globals.get("package");
@@ -113,26 +202,82 @@ public class LuaJSocketLib extends TwoArgFunction {
             throw new LuaError("PackageLib not loaded");
         }
 
-        LuaValue loaded = packageLib.get("loaded");
-        if (!loaded.istable()) {
+        LuaValue preload = packageLib.get("preload");
+        if (!preload.istable()) {
             throw new LuaError("PackageLib corrupted");
         }
 
-        loaded.set("socket.core", createSocketCore());
-        LuaValue socket = createSocket();
-        loaded.set("socket", socket);
-        loaded.set("ltn12", createLTN12());
-        loaded.set("socket.headers", createHeaders());
-        loaded.set("socket.url", createURL());
-        loaded.set("socket.tp", createTp());
-        loaded.set("mime.core", createMimeCore());
-        loaded.set("mime", createMime());
-        loaded.set("socket.http", createHttp());
-        loaded.set("socket.ftp", createFTP());
-        loaded.set("socket.smtp", createSMTP());
+        for (String module : MODULES) {
+            preload.set(module, new ModuleLoader(module));
+        }
+
+        //socket (and socket.core, which it requires) is loaded eagerly like before, the rest on demand.
+        return globals.get("require").call(LuaValue.valueOf("socket"));
+    }
+
+    /**
+     * Names of all modules this library registers in package.preload.
+     */
+    protected static final String[] MODULES = {"ltn12.core", "socket.core", "socket", "ltn12", "socket.headers",
+            "socket.url", "socket.tp", "mime.core", "mime", "socket.http.core", "socket.http", "socket.ftp", "socket.smtp"};
+
+    /**
+     * Creates the module with the given name. Called by require through package.preload.
+     */
+    protected LuaValue createModule(String module) {
+        switch (module) {
+            case "ltn12.core":
+                return createLTN12Core();
+            case "socket.core":
+                return createSocketCore();
+            case "socket":
+                return createSocket();
+            case "ltn12":
+                return createLTN12();
+            case "socket.headers":
+                return createHeaders();
+            case "socket.url":
+                return createURL();
+            case "socket.tp":
+                return createTp();
+            case "mime.core":
+                return createMimeCore();
+            case "mime":
+                return createMime();
+            case "socket.http.core":
+                return createHttpCore();
+            case "socket.http":
+                return createHttp();
+            case "socket.ftp":
+                return createFTP();
+            case "socket.smtp":
+                return createSMTP();
+            default:
+                throw new LuaError("module '" + module + "' not found");
+        }
+    }
+
+    /**
+     * package.preload entry that creates its module on the first require.
+     * The result is cached in package.loaded by require.
+     */
+    protected class ModuleLoader extends TwoArgFunction {
+
+        private final String module;
+
+        private LuaValue value;
 
+        protected ModuleLoader(String module) {
+            this.module = module;
+        }
 
-        return socket;
+        @Override
+        public LuaValue call(LuaValue arg1, LuaValue arg2) {
+            if (value == null) {
+                value = createModule(module);
+            }
+            return value;
+        }
     }
 
     /**
@@ -152,6 +297,13 @@ public class LuaJSocketLib extends TwoArgFunction {
      */
     protected Executor getExecutor() {
         synchronized (LuaJSocketLib.class) {
+            if (virtualThreads && VirtualThreads.isAvailable()) {
+                if (VIRTUAL_EXECUTOR == null) {
+                    VIRTUAL_EXECUTOR = VirtualThreads.newExecutor();
+                }
+                return VIRTUAL_EXECUTOR;
+            }
+
             if (DEFAULT_EXECUTOR == null) {
                 DEFAULT_EXECUTOR = Executors.newCachedThreadPool();
             }
@@ -160,6 +312,76 @@ public class LuaJSocketLib extends TwoArgFunction {
         return DEFAULT_EXECUTOR;
     }
 
+    /**
+     * Engine used for tcp sockets if none was passed to the constructor. Overwrite to replace it with your own engine.
+     * This method is only called once per instance. The result is cached.
+     */
+    protected TCPEngine createTCPEngine() {
+        return new BlockingTCPEngine();
+    }
+
+    /**
+     * Returns the engine used for tcp sockets.
+     */
+    public TCPEngine getTCPEngine() {
+        checkLoaded();
+        return tcpEngine;
+    }
+
+    /**
+     * Resolver used for socket.dns and for connecting and binding sockets. Overwrite to replace it with your own resolver.
+     * This method is only called once per instance. The result is cached.
+     */
+    protected DNSResolver createDNSResolver() {
+        return new CachingDNSResolver(new SystemDNSResolver(), executor, metrics);
+    }
+
+    /**
+     * Returns the resolver used for host names.
+     */
+    public DNSResolver getDNSResolver() {
+        checkLoaded();
+        return dnsResolver;
+    }
+
+    /**
+     * Pool of idle keep-alive connections used by socket.http. Overwrite to replace it with your own pool.
+     * This method is only called once per instance. The result is cached.
+     */
+    protected HTTPConnectionPool createHTTPConnectionPool() {
+        return new HTTPConnectionPool();
+    }
+
+    /**
+     * Returns the pool of idle keep-alive connections used by socket.http.
+     */
+    public HTTPConnectionPool getHTTPConnectionPool() {
+        checkLoaded();
+        return httpConnectionPool;
+    }
+
+    /**
+     * Returns the counters of all sockets created by this instance.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the selector all sockets created by this instance report their readiness to.
+     */
+    public SocketSelector getSocketSelector() {
+        return socketSelector;
+    }
+
+    /**
+     * Returns true if async java operations of this instance run on virtual threads.
+     */
+    public boolean isUsingVirtualThreads() {
+        checkLoaded();
+        return virtualThreads && executor == VIRTUAL_EXECUTOR;
+    }
+
     /**
      * Execute async task on the executor. Overwrite if you must, preferable overwrite createExecutor.
      * Task must be executed asynchronously. This method should never block.
@@ -186,12 +408,17 @@ public class LuaJSocketLib extends TwoArgFunction {
         checkLoaded();
         LuaTable mimeTable = new LuaTable();
         mimeTable.set("b64", createFunction(MimeB64Function.class));
+        mimeTable.set("b64filter", createFunction(MimeB64FilterFunction.class));
+        mimeTable.set("deflatefilter", createFunction(MimeDeflateFilterFunction.class));
         mimeTable.set("dot", createFunction(MimeDotFunction.class));
         mimeTable.set("eol", createFunction(MimeEolFunction.class));
+        mimeTable.set("inflatefilter", createFunction(MimeInflateFilterFunction.class));
         mimeTable.set("qp", createFunction(MimeQPFunction.class));
         mimeTable.set("wrp", createFunction(MimeWrapFunction.class));
+        mimeTable.set("qpfilter", createFunction(MimeQPFilterFunction.class));
         mimeTable.set("qpwrp", createFunction(MimeQPWrapFunction.class));
         mimeTable.set("unb64", createFunction(MimeUnB64Function.class));
+        mimeTable.set("unb64filter", createFunction(MimeUnB64FilterFunction.class));
         mimeTable.set("unqp", createFunction(MimeUnQPFunction.class));
         mimeTable.set("core", mimeTable);
         return mimeTable;
@@ -218,6 +445,25 @@ public class LuaJSocketLib extends TwoArgFunction {
         return loadLuaScript("http.lua");
     }
 
+    /**
+     * Create the keep-alive connection pool and response parsing functions used by http.lua.
+     * This is not part of luasocket.
+     */
+    protected LuaValue createHttpCore() {
+        checkLoaded();
+        LuaTable httpTable = new LuaTable();
+        httpTable.set("take", createFunction(HTTPPoolTakeFunction.class));
+        httpTable.set("release", createFunction(HTTPPoolReleaseFunction.class));
+        httpTable.set("setpool", createFunction(HTTPPoolSetLimitsFunction.class));
+        httpTable.set("getpool", createFunction(HTTPPoolGetStatsFunction.class));
+        httpTable.set("closeidle", createFunction(HTTPPoolClearFunction.class));
+        httpTable.set("receivestatusline", createFunction(HTTPReceiveStatusLineFunction.class));
+        httpTable.set("receiveheaders", createFunction(HTTPReceiveHeadersFunction.class));
+        httpTable.set("chunkedsource", createFunction(HTTPChunkedSourceFunction.class));
+        httpTable.set("requestall", createFunction(HTTPRequestAllFunction.class));
+        return httpTable;
+    }
+
     /**
      * load the tp.lua from luasocket.
      */
@@ -251,6 +497,24 @@ public class LuaJSocketLib extends TwoArgFunction {
         return loadLuaScript("ltn12.lua");
     }
 
+    /**
+     * Create the ltn12 pumps, filter chains, sources and sinks implemented in java. ltn12.lua and socket.lua use them.
+     * This is not part of luasocket.
+     */
+    protected LuaValue createLTN12Core() {
+        checkLoaded();
+        LuaTable ltn12Table = new LuaTable();
+        ltn12Table.set("pumpstep", createFunction(LTN12PumpStepFunction.class));
+        ltn12Table.set("pumpall", createFunction(LTN12PumpAllFunction.class));
+        ltn12Table.set("filterchain", createFunction(LTN12FilterChainFunction.class));
+        ltn12Table.set("stringsource", createFunction(LTN12StringSourceFunction.class));
+        ltn12Table.set("filesource", createFunction(LTN12FileSourceFunction.class));
+        ltn12Table.set("socketsource", createFunction(LTN12SocketSourceFunction.class));
+        ltn12Table.set("tablesink", createFunction(LTN12TableSinkFunction.class));
+        ltn12Table.set("filesink", createFunction(LTN12FileSinkFunction.class));
+        return ltn12Table;
+    }
+
 
 
     protected LuaValue createSocketCore() {
@@ -284,6 +548,7 @@ public class LuaJSocketLib extends TwoArgFunction {
         socketTable.set("skip", createFunction(SkipFunction.class));
         socketTable.set("sleep", createFunction(SleepFunction.class));
         socketTable.set("gettime", createFunction(GetTimeFunction.class));
+        socketTable.set("getmetrics", createFunction(GetMetricsFunction.class));
         socketTable.set("core", socketTable);
         return socketTable;
     }
@@ -296,13 +561,14 @@ public class LuaJSocketLib extends TwoArgFunction {
         dnsTable.set("gethostname", createFunction(DNSGetHostnameFunction.class));
         dnsTable.set("tohostname", createFunction(DNSToHostnameFunction.class));
         dnsTable.set("toip", createFunction(DNSToIpFunction.class));
+        dnsTable.set("prefetch", createFunction(DNSPrefetchFunction.class));
         return dnsTable;
     }
 
 
     public LuaValue createUDP() {
         checkLoaded();
-        UDPMasterUserdata master = new UDPMasterUserdata(new UDPMaster());
+        UDPMasterUserdata master = new UDPMasterUserdata(new UDPMaster(this));
         new UDPMasterFinalizer(master);
 
         master.setFunction("close", createFunction(UDPCloseFunction.class));
@@ -310,7 +576,9 @@ public class LuaJSocketLib extends TwoArgFunction {
         master.setFunction("getsockname", createFunction(UDPGetSockNameFunction.class));
         master.setFunction("receive", createFunction(UDPReceiveFunction.class));
         master.setFunction("receivefrom", createFunction(UDPReceiveFromFunction.class));
+        master.setFunction("receivemany", createFunction(UDPReceiveManyFunction.class));
         master.setFunction("send", createFunction(UDPSendFunction.class));
+        master.setFunction("sendmany", createFunction(UDPSendManyFunction.class));
         master.setFunction("sendto", createFunction(UDPSendToFunction.class));
         master.setFunction("setpeername", createFunction(UDPSetPeerNameFunction.class));
         master.setFunction("setsockname", createFunction(UDPSetSockNameFunction.class));
@@ -322,7 +590,16 @@ public class LuaJSocketLib extends TwoArgFunction {
 
     public LuaValue createTCP() {
         checkLoaded();
-        TCPMasterUserdata master = new TCPMasterUserdata(new TCPMaster(this));
+        return createTCP(new TCPMaster(this));
+    }
+
+    /**
+     * Creates the lua object of a tcp master that was created from java, for example one that was connected by http.requestall.
+     * Must be called from the lua thread.
+     */
+    public LuaValue createTCP(TCPMaster tcpMaster) {
+        checkLoaded();
+        TCPMasterUserdata master = new TCPMasterUserdata(tcpMaster);
 
         //This will self register on the reference queue.
         new TCPMasterFinalizer(master);
@@ -333,10 +610,14 @@ public class LuaJSocketLib extends TwoArgFunction {
         master.setFunction("connect", createFunction(TCPConnectFunction.class));
         master.setFunction("getpeername", createFunction(TCPGetPeerNameFunction.class));
         master.setFunction("getsockname", createFunction(TCPGetSockNameFunction.class));
+        master.setFunction("getmetrics", createFunction(TCPGetMetricsFunction.class));
         master.setFunction("getstats", createFunction(TCPGetStatsFunction.class));
         master.setFunction("listen", createFunction(TCPListenFunction.class));
         master.setFunction("receive", createFunction(TCPReceiveFunction.class));
+        master.setFunction("receivetofile", createFunction(TCPReceiveToFileFunction.class));
         master.setFunction("send", createFunction(TCPSendFunction.class));
+        master.setFunction("sendfile", createFunction(TCPSendFileFunction.class));
+        master.setFunction("sendv", createFunction(TCPSendVFunction.class));
         master.setFunction("setoption", createFunction(TCPSetOptionFunction.class));
         master.setFunction("setstats", createFunction(TCPSetStatsFunction.class));
         master.setFunction("settimeout", createFunction(TCPSetTimeoutFunction.class));
@@ -0,0 +1,60 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.ltn12;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * ltn12.core.filesource(handle, blocksize)
+ * Source for ltn12.source.file. Reads the handle with handle:read(n) and closes it at the end of the file.
+ */
+public class LTN12FileSourceFunction extends AbstractLuaJSocketFunction {
+
+    public LTN12FileSourceFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        return new Source(args.checknotnil(1), args.checkint(2));
+    }
+
+    static class Source extends LTN12Source {
+
+        private final LuaValue handle;
+
+        Source(LuaValue handle, int blockSize) {
+            super(blockSize);
+            this.handle = handle;
+        }
+
+        @Override
+        public Varargs pull(int size) {
+            LuaValue chunk = handle.method("read", valueOf(size));
+            if (!chunk.toboolean()) {
+                handle.method("close");
+            }
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.ltn12;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+
+/**
+ * ltn12.filter.chain(...)
+ * Chains filters together. Same algorithm as the one of ltn12.lua (thanks to Wim Couwenberg)
+ * but the state is kept in java.
+ */
+public class LTN12FilterChainFunction extends AbstractLuaJSocketFunction {
+
+    public LTN12FilterChainFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        int n = args.narg();
+        LuaValue[] filters = new LuaValue[Math.max(1, n)];
+        filters[0] = NIL;
+        for (int i = 0; i < n; i++) {
+            filters[i] = args.arg(i + 1);
+        }
+
+        return new Chain(filters, n);
+    }
+
+    static class Chain extends VarArgFunction {
+
+        private final LuaValue[] filters;
+
+        private final int n;
+
+        private int top = 1;
+
+        private int index = 1;
+
+        private LuaValue retry = EMPTYSTRING;
+
+        Chain(LuaValue[] filters, int n) {
+            this.filters = filters;
+            this.n = n;
+        }
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            LuaValue chunk = args.arg1();
+            if (!chunk.toboolean()) {
+                retry = chunk;
+            }
+
+            while (true) {
+                if (index == top) {
+                    chunk = filters[index - 1].call(chunk);
+                    if (EMPTYSTRING.raweq(chunk) || top == n) {
+                        return chunk;
+                    }
+
+                    if (chunk.toboolean()) {
+                        index++;
+                    } else {
+                        top++;
+                        index = top;
+                    }
+                    continue;
+                }
+
+                chunk = filters[index - 1].call(chunk.toboolean() ? chunk : EMPTYSTRING);
+                if (EMPTYSTRING.raweq(chunk)) {
+                    index--;
+                    chunk = retry;
+                } else if (chunk.toboolean()) {
+                    if (index == n) {
+                        return chunk;
+                    }
+                    index++;
+                } else {
+                    throw new LuaError("filter returned inappropriate nil");
+                }
+            }
+        }
+    }
+}
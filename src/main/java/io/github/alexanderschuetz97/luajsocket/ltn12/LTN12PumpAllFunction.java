@@ -0,0 +1,73 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.ltn12;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * ltn12.pump.all(src, snk, step)
+ * Pumps all data from a source to a sink. With the default step sources implemented in java
+ * are asked for chunks of up to {@link #PUMP_BLOCK_SIZE} bytes instead of their block size.
+ */
+public class LTN12PumpAllFunction extends AbstractLuaJSocketFunction {
+
+    public static final int PUMP_BLOCK_SIZE = 64 * 1024;
+
+    public LTN12PumpAllFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        LuaValue src = args.arg1();
+        LuaValue snk = args.arg(2);
+        LuaValue step = args.arg(3);
+        if (!src.toboolean() || !snk.toboolean()) {
+            throw new LuaError("assertion failed!");
+        }
+
+        boolean defaultStep = step.isnil() || step instanceof LTN12PumpStepFunction;
+        LTN12Source source = defaultStep ? LTN12Source.unwrap(src) : null;
+        int size = source == null ? 0 : Math.max(source.getBlockSize(), PUMP_BLOCK_SIZE);
+
+        while (true) {
+            Varargs res;
+            if (source != null) {
+                res = LTN12PumpStepFunction.step(source.pull(size), snk);
+            } else if (defaultStep) {
+                res = LTN12PumpStepFunction.step(src.invoke(), snk);
+            } else {
+                res = step.invoke(src, snk);
+            }
+
+            if (!res.arg1().toboolean()) {
+                LuaValue err = res.arg(2);
+                if (err.toboolean()) {
+                    return varargsOf(NIL, err);
+                }
+                return ONE;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.ltn12;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * ltn12.pump.step(src, snk)
+ * Pumps one chunk from the source to the sink.
+ */
+public class LTN12PumpStepFunction extends AbstractLuaJSocketFunction {
+
+    public LTN12PumpStepFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        return step(args.arg1().invoke(), args.arg(2));
+    }
+
+    /**
+     * Passes the result of a source to the sink. Returns 1 or nil and the error of the source or the sink.
+     */
+    static Varargs step(Varargs src, LuaValue snk) {
+        LuaValue chunk = src.arg1();
+        LuaValue srcErr = src.arg(2);
+        Varargs res = snk.invoke(chunk, srcErr);
+        if (chunk.toboolean() && res.arg1().toboolean()) {
+            return ONE;
+        }
+
+        return varargsOf(NIL, srcErr.toboolean() ? srcErr : res.arg(2));
+    }
+}
@@ -0,0 +1,130 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.ltn12;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
+import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPMasterUserdata;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * ltn12.core.socketsource(sock, mode, blocksize, length)
+ * Source for the "by-length" and "until-closed" modes of socket.source. Receives with sock:receive(n).
+ * If the socket is a tcp socket of this library and more bytes than asked for are already received
+ * a larger chunk is returned, at most as large as the size ltn12.pump.all asks for.
+ */
+public class LTN12SocketSourceFunction extends AbstractLuaJSocketFunction {
+
+    private static final LuaString CLOSED = valueOf("closed");
+
+    public LTN12SocketSourceFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        LuaValue sock = args.checknotnil(1);
+        String mode = args.checkjstring(2);
+        int blockSize = args.checkint(3);
+        switch (mode) {
+            case "by-length":
+                return new Source(sock, blockSize, Math.max(0, args.checklong(4)));
+            case "until-closed":
+                return new Source(sock, blockSize, -1);
+            default:
+                return argerror(2, "unknown socket source mode " + mode);
+        }
+    }
+
+    static class Source extends LTN12Source {
+
+        private final LuaValue sock;
+
+        //remaining bytes for by-length, -1 for until-closed
+        private long length;
+
+        private boolean done;
+
+        Source(LuaValue sock, int blockSize, long length) {
+            super(blockSize);
+            this.sock = sock;
+            this.length = length;
+        }
+
+        @Override
+        public Varargs pull(int size) {
+            if (length < 0) {
+                return untilClosed(size);
+            }
+
+            if (length == 0) {
+                return NIL;
+            }
+
+            Varargs res = sock.invokemethod("receive", valueOf(chunkSize(size)));
+            if (!res.arg(2).isnil()) {
+                return varargsOf(NIL, res.arg(2));
+            }
+
+            LuaValue chunk = res.arg1();
+            length = Math.max(0, length - chunk.length());
+            return chunk;
+        }
+
+        private Varargs untilClosed(int size) {
+            if (done) {
+                return NIL;
+            }
+
+            Varargs res = sock.invokemethod("receive", valueOf(chunkSize(size)));
+            LuaValue err = res.arg(2);
+            if (!err.toboolean()) {
+                return res.arg1();
+            }
+
+            if (CLOSED.raweq(err)) {
+                sock.method("close");
+                done = true;
+                return res.arg(3);
+            }
+
+            return varargsOf(NIL, err);
+        }
+
+        private int chunkSize(int size) {
+            int n = blockSize;
+            if (sock instanceof TCPMasterUserdata) {
+                TCPMaster master = ((TCPMasterUserdata) sock).getMaster();
+                if (master.isClient() && !master.isClosed()) {
+                    n = Math.max(n, Math.min(size, master.getClient().availableToReceive()));
+                }
+            }
+
+            if (length >= 0 && n > length) {
+                n = (int) length;
+            }
+
+            return n;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.ltn12;
+
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+
+/**
+ * Base class of the ltn12 sources implemented in java.
+ * Called from lua a source returns chunks of the block size it was created with.
+ * ltn12.pump.all calls {@link #pull(int)} directly and asks for larger chunks.
+ */
+public abstract class LTN12Source extends VarArgFunction {
+
+    protected final int blockSize;
+
+    protected LTN12Source(int blockSize) {
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        return pull(blockSize);
+    }
+
+    /**
+     * Returns the next chunk of at most size bytes or nil and an optional error at the end of the source.
+     */
+    public abstract Varargs pull(int size);
+
+    /**
+     * Returns the java source behind a source. Sources of socket.source are tables with the java source as __call.
+     * Returns null if the source is implemented in lua.
+     */
+    public static LTN12Source unwrap(LuaValue src) {
+        if (src instanceof LTN12Source) {
+            return (LTN12Source) src;
+        }
+
+        if (!src.istable()) {
+            return null;
+        }
+
+        LuaValue mt = src.getmetatable();
+        if (mt == null) {
+            return null;
+        }
+
+        LuaValue call = mt.rawget(CALL);
+        if (call instanceof LTN12Source) {
+            return (LTN12Source) call;
+        }
+
+        return null;
+    }
+}
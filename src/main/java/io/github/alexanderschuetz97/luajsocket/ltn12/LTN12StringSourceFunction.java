@@ -0,0 +1,65 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.ltn12;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.Varargs;
+
+/**
+ * ltn12.core.stringsource(s, blocksize)
+ * Source for ltn12.source.string. The chunks share the bytes of the string instead of copying them.
+ */
+public class LTN12StringSourceFunction extends AbstractLuaJSocketFunction {
+
+    public LTN12StringSourceFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        return new Source(args.checkstring(1), args.checkint(2));
+    }
+
+    static class Source extends LTN12Source {
+
+        private final LuaString str;
+
+        private int position;
+
+        Source(LuaString str, int blockSize) {
+            super(blockSize);
+            this.str = str;
+        }
+
+        @Override
+        public Varargs pull(int size) {
+            int len = Math.min(size, str.m_length - position);
+            if (len <= 0) {
+                return NIL;
+            }
+
+            LuaString chunk = LuaString.valueUsing(str.m_bytes, str.m_offset + position, len);
+            position += len;
+            return chunk;
+        }
+    }
+}
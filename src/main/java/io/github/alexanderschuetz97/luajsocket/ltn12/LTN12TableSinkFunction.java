@@ -0,0 +1,59 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.ltn12;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+
+/**
+ * ltn12.core.tablesink(t)
+ * Sink for ltn12.sink.table. Appends every chunk to the table.
+ */
+public class LTN12TableSinkFunction extends AbstractLuaJSocketFunction {
+
+    public LTN12TableSinkFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        return new Sink(args.checktable(1));
+    }
+
+    static class Sink extends VarArgFunction {
+
+        private final LuaTable table;
+
+        Sink(LuaTable table) {
+            this.table = table;
+        }
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            if (args.arg1().toboolean()) {
+                table.insert(0, args.arg1());
+            }
+            return ONE;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with exponential buckets. Bucket i counts durations below 2^i microseconds,
+ * the last bucket counts everything above 2^(BUCKETS-2) microseconds (about 33 seconds).
+ * Like StripedCounter every thread updates its own set of buckets.
+ */
+public class LatencyHistogram {
+
+    public static final int BUCKETS = 27;
+
+    /**
+     * Longs per stripe, a multiple of the cache line size that fits all buckets.
+     */
+    private static final int STRIDE = 32;
+
+    private final AtomicLongArray buckets;
+
+    private final int mask;
+
+    private final StripedCounter sum;
+
+    private final MaxGauge max = new MaxGauge();
+
+    public LatencyHistogram() {
+        this(StripedCounter.DEFAULT_STRIPES);
+    }
+
+    public LatencyHistogram(int stripes) {
+        int n = StripedCounter.stripesFor(stripes);
+        mask = n - 1;
+        buckets = new AtomicLongArray(n * STRIDE);
+        sum = new StripedCounter(n);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos / 1000));
+        buckets.getAndAdd(StripedCounter.stripe(mask) * STRIDE + bucket, 1);
+        sum.add(nanos);
+        max.update(nanos);
+    }
+
+    /**
+     * Exclusive upper bound of the bucket in microseconds. Long.MAX_VALUE for the last bucket.
+     */
+    public static long getUpperBoundMicros(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long getCount(int bucket) {
+        long count = 0;
+        for (int i = bucket; i < buckets.length(); i += STRIDE) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += getCount(i);
+        }
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sum.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        sum.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,48 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the largest value it was ever updated with.
+ */
+public class MaxGauge {
+
+    private final AtomicLong max = new AtomicLong();
+
+    public void update(long value) {
+        long current = max.get();
+        while (value > current) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+            current = max.get();
+        }
+    }
+
+    public long get() {
+        return max.get();
+    }
+
+    public void reset() {
+        max.set(0);
+    }
+}
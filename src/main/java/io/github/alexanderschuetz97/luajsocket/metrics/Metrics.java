@@ -0,0 +1,204 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Counters of all sockets created by one LuaJSocketLib instance.
+ * Per connection values are available from the TCPClient and TCPStats of each connection.
+ */
+public class Metrics {
+
+    public static final String SEND = "send";
+    public static final String SENDV = "sendv";
+    public static final String RECEIVE = "receive";
+    public static final String SENDFILE = "sendfile";
+    public static final String RECEIVETOFILE = "receivetofile";
+    public static final String ACCEPT = "accept";
+    public static final String CONNECT = "connect";
+
+    private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+    private final StripedCounter bytesSent = new StripedCounter();
+    private final StripedCounter bytesReceived = new StripedCounter();
+
+    private final StripedCounter receiveBlockedNanos = new StripedCounter();
+    private final StripedCounter sendBlockedNanos = new StripedCounter();
+
+    private final MaxGauge receiveBufferHighWater = new MaxGauge();
+    private final MaxGauge sendBufferHighWater = new MaxGauge();
+
+    private final StripedCounter connections = new StripedCounter();
+    private final StripedCounter servers = new StripedCounter();
+    private final StripedCounter threads = new StripedCounter();
+
+    private final StripedCounter dnsHits = new StripedCounter();
+    private final StripedCounter dnsMisses = new StripedCounter();
+
+    /**
+     * Returns the counters of the operation with the given name, creating them if needed.
+     */
+    public Operation getOperation(String name) {
+        Operation op = operations.get(name);
+        if (op != null) {
+            return op;
+        }
+
+        op = new Operation();
+        Operation existing = operations.putIfAbsent(name, op);
+        return existing != null ? existing : op;
+    }
+
+    /**
+     * All operations that were counted so far.
+     */
+    public Map<String, Operation> getOperations() {
+        return Collections.unmodifiableMap(operations);
+    }
+
+    public StripedCounter getBytesSent() {
+        return bytesSent;
+    }
+
+    public StripedCounter getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Time lua spent waiting for bytes to receive.
+     */
+    public StripedCounter getReceiveBlockedNanos() {
+        return receiveBlockedNanos;
+    }
+
+    /**
+     * Time lua spent waiting for space in full send buffers.
+     */
+    public StripedCounter getSendBlockedNanos() {
+        return sendBlockedNanos;
+    }
+
+    /**
+     * Most bytes ever held by a single receive buffer.
+     */
+    public MaxGauge getReceiveBufferHighWater() {
+        return receiveBufferHighWater;
+    }
+
+    /**
+     * Most bytes ever held by a single send buffer.
+     */
+    public MaxGauge getSendBufferHighWater() {
+        return sendBufferHighWater;
+    }
+
+    /**
+     * Open tcp connections.
+     */
+    public StripedCounter getConnections() {
+        return connections;
+    }
+
+    /**
+     * Open tcp server sockets.
+     */
+    public StripedCounter getServers() {
+        return servers;
+    }
+
+    /**
+     * Blocking jobs that currently occupy a thread of the executor.
+     */
+    public StripedCounter getThreads() {
+        return threads;
+    }
+
+    /**
+     * Lookups answered by the dns cache, including lookups that waited for a lookup already in progress.
+     */
+    public StripedCounter getDnsHits() {
+        return dnsHits;
+    }
+
+    /**
+     * Lookups that had to ask the dns.
+     */
+    public StripedCounter getDnsMisses() {
+        return dnsMisses;
+    }
+
+    /**
+     * Resets all counters. The amount of open connections, servers and threads is kept.
+     */
+    public void reset() {
+        for (Operation op : operations.values()) {
+            op.reset();
+        }
+        bytesSent.reset();
+        bytesReceived.reset();
+        receiveBlockedNanos.reset();
+        sendBlockedNanos.reset();
+        receiveBufferHighWater.reset();
+        sendBufferHighWater.reset();
+        dnsHits.reset();
+        dnsMisses.reset();
+    }
+
+    /**
+     * Counters of a single operation such as send or receive.
+     */
+    public static class Operation {
+
+        private final StripedCounter calls = new StripedCounter();
+        private final StripedCounter timeouts = new StripedCounter();
+        private final StripedCounter errors = new StripedCounter();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        public StripedCounter getCalls() {
+            return calls;
+        }
+
+        public StripedCounter getTimeouts() {
+            return timeouts;
+        }
+
+        public StripedCounter getErrors() {
+            return errors;
+        }
+
+        /**
+         * Duration of the calls that succeeded.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public void reset() {
+            calls.reset();
+            timeouts.reset();
+            errors.reset();
+            latency.reset();
+        }
+    }
+}
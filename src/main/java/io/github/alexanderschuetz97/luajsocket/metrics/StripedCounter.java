@@ -0,0 +1,101 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that spreads updates of different threads over several cells so they do not contend on one cache line.
+ * Reading the value sums up all cells. Serves the same purpose as LongAdder which is not available in Java 7.
+ */
+public class StripedCounter {
+
+    /**
+     * Longs per cell so every cell is on its own 64 byte cache line.
+     */
+    static final int PAD = 8;
+
+    /**
+     * Number of cells used if none is given.
+     */
+    public static final int DEFAULT_STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray cells;
+
+    private final int mask;
+
+    public StripedCounter() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public StripedCounter(int stripes) {
+        int n = stripesFor(stripes);
+        mask = n - 1;
+        cells = new AtomicLongArray(n * PAD);
+    }
+
+    /**
+     * Smallest power of 2 that is at least the given amount, at most 64.
+     */
+    static int stripesFor(int count) {
+        int n = 1;
+        while (n < count && n < 64) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    /**
+     * Index of the stripe of the current thread.
+     */
+    static int stripe(int mask) {
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public void add(long value) {
+        cells.getAndAdd(stripe(mask) * PAD, value);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void decrement() {
+        add(-1);
+    }
+
+    /**
+     * Returns the sum of all cells. Concurrent updates may or may not be included.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PAD) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += PAD) {
+            cells.set(i, 0);
+        }
+    }
+}
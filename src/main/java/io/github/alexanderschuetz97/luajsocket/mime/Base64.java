@@ -0,0 +1,260 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.mime;
+
+import org.luaj.vm2.LuaString;
+
+import static io.github.alexanderschuetz97.luajsocket.util.Util.B64TABLE_REVERSE;
+import static io.github.alexanderschuetz97.luajsocket.util.Util.BASE64_TABLE;
+
+/**
+ * Base64 encoding and decoding of byte arrays and streaming encoders/decoders that keep the bytes of an
+ * incomplete group between chunks.
+ *
+ * Groups are converted as a whole: 3 bytes are combined into one 24 bit int which is written as two 12 bit halves
+ * with a table that holds both characters of each half. Decoding combines 4 table lookups into one int and only
+ * falls back to looking at single characters if one of them is not part of the alphabet.
+ */
+public final class Base64 {
+
+    /**
+     * Both base64 characters of every 12 bit value, high character first.
+     */
+    private static final byte[] PAIRS = new byte[2 << 12];
+
+    static {
+        for (int i = 0; i < 1 << 12; i++) {
+            PAIRS[i << 1] = BASE64_TABLE[i >> 6];
+            PAIRS[(i << 1) + 1] = BASE64_TABLE[i & 0x3f];
+        }
+    }
+
+    private Base64() {
+    }
+
+    /**
+     * Length of the padded encoding of len bytes.
+     */
+    public static int encodedLength(int len) {
+        return (len + 2) / 3 * 4;
+    }
+
+    /**
+     * Encodes the given amount of complete 3 byte groups. Returns the index in dst after the last written character.
+     */
+    public static int encodeGroups(byte[] src, int off, int groups, byte[] dst, int dstOff) {
+        for (int g = 0; g < groups; g++) {
+            int v = (src[off] & 0xff) << 16 | (src[off + 1] & 0xff) << 8 | (src[off + 2] & 0xff);
+            off += 3;
+            int hi = (v >>> 12) << 1;
+            int lo = (v & 0xfff) << 1;
+            dst[dstOff] = PAIRS[hi];
+            dst[dstOff + 1] = PAIRS[hi + 1];
+            dst[dstOff + 2] = PAIRS[lo];
+            dst[dstOff + 3] = PAIRS[lo + 1];
+            dstOff += 4;
+        }
+
+        return dstOff;
+    }
+
+    /**
+     * Encodes the last 1 or 2 bytes of an input and pads them with '='. Returns the index after the last written character.
+     */
+    public static int encodeTail(int byte0, int byte1, int len, byte[] dst, int dstOff) {
+        dst[dstOff] = BASE64_TABLE[byte0 >> 2];
+        if (len == 1) {
+            dst[dstOff + 1] = BASE64_TABLE[(byte0 << 4) & 0x3f];
+            dst[dstOff + 2] = '=';
+        } else {
+            dst[dstOff + 1] = BASE64_TABLE[(byte0 << 4) & 0x3f | (byte1 >> 4)];
+            dst[dstOff + 2] = BASE64_TABLE[(byte1 << 2) & 0x3f];
+        }
+        dst[dstOff + 3] = '=';
+        return dstOff + 4;
+    }
+
+    /**
+     * Encodes the bytes with padding.
+     */
+    public static byte[] encode(byte[] src, int off, int len) {
+        byte[] dst = new byte[encodedLength(len)];
+        int groups = len / 3;
+        int cursor = encodeGroups(src, off, groups, dst, 0);
+        int rem = len - groups * 3;
+        if (rem != 0) {
+            int byte0 = src[off + groups * 3] & 0xff;
+            int byte1 = rem == 2 ? src[off + groups * 3 + 1] & 0xff : 0;
+            encodeTail(byte0, byte1, rem, dst, cursor);
+        }
+        return dst;
+    }
+
+    /**
+     * Streaming encoder. Bytes that do not complete a group are kept until the next chunk or until finish.
+     */
+    public static class Encoder implements Codec {
+
+        private int carry0;
+        private int carry1;
+        private int carryLen;
+
+        @Override
+        public LuaString update(byte[] src, int off, int len) {
+            int total = carryLen + len;
+            int groups = total / 3;
+            byte[] dst = new byte[groups * 4];
+            int dstOff = 0;
+
+            if (carryLen != 0 && groups > 0) {
+                //Complete the carried group with the first bytes of the chunk.
+                int need = 3 - carryLen;
+                int byte1 = carryLen == 2 ? carry1 : src[off] & 0xff;
+                int byte2 = src[off + need - 1] & 0xff;
+                int v = carry0 << 16 | byte1 << 8 | byte2;
+                int hi = (v >>> 12) << 1;
+                int lo = (v & 0xfff) << 1;
+                dst[0] = PAIRS[hi];
+                dst[1] = PAIRS[hi + 1];
+                dst[2] = PAIRS[lo];
+                dst[3] = PAIRS[lo + 1];
+                dstOff = 4;
+                off += need;
+                len -= need;
+                groups--;
+                carryLen = 0;
+            }
+
+            encodeGroups(src, off, groups, dst, dstOff);
+            off += groups * 3;
+            len -= groups * 3;
+            for (int i = 0; i < len; i++) {
+                if (carryLen == 0) {
+                    carry0 = src[off + i] & 0xff;
+                } else {
+                    carry1 = src[off + i] & 0xff;
+                }
+                carryLen++;
+            }
+
+            return LuaString.valueUsing(dst);
+        }
+
+        @Override
+        public LuaString finish() {
+            if (carryLen == 0) {
+                return LuaString.valueOf("");
+            }
+
+            byte[] dst = new byte[4];
+            encodeTail(carry0, carry1, carryLen, dst, 0);
+            carryLen = 0;
+            return LuaString.valueUsing(dst);
+        }
+    }
+
+    /**
+     * Streaming decoder. Characters that do not complete a group are kept until the next chunk.
+     * Characters that are not part of the alphabet (such as line breaks) are skipped and padding ends a group.
+     */
+    public static class Decoder implements Codec {
+
+        private int acc;
+        private int accLen;
+
+        @Override
+        public LuaString update(byte[] src, int off, int len) {
+            byte[] dst = new byte[(accLen + len) / 4 * 3 + 2];
+            int dstOff = 0;
+            int end = off + len;
+            int[] table = B64TABLE_REVERSE;
+
+            while (off < end) {
+                if (accLen == 0) {
+                    //Whole groups of valid characters, the common case.
+                    while (off + 4 <= end) {
+                        int v = table[src[off] & 0xff] << 18 | table[src[off + 1] & 0xff] << 12
+                                | table[src[off + 2] & 0xff] << 6 | table[src[off + 3] & 0xff];
+                        if (v < 0) {
+                            break;
+                        }
+
+                        dst[dstOff] = (byte) (v >> 16);
+                        dst[dstOff + 1] = (byte) (v >> 8);
+                        dst[dstOff + 2] = (byte) v;
+                        dstOff += 3;
+                        off += 4;
+                    }
+
+                    if (off >= end) {
+                        break;
+                    }
+                }
+
+                int c = src[off++] & 0xff;
+                int d = table[c];
+                if (d < 0) {
+                    if (c == '=') {
+                        dstOff = flushPadded(dst, dstOff);
+                    }
+                    continue;
+                }
+
+                acc = acc << 6 | d;
+                if (++accLen == 4) {
+                    dst[dstOff] = (byte) (acc >> 16);
+                    dst[dstOff + 1] = (byte) (acc >> 8);
+                    dst[dstOff + 2] = (byte) acc;
+                    dstOff += 3;
+                    acc = 0;
+                    accLen = 0;
+                }
+            }
+
+            return LuaString.valueUsing(dst, 0, dstOff);
+        }
+
+        /**
+         * Writes the bytes of a group that was ended by padding.
+         */
+        private int flushPadded(byte[] dst, int dstOff) {
+            if (accLen == 2) {
+                dst[dstOff++] = (byte) (acc >> 4);
+            } else if (accLen == 3) {
+                dst[dstOff++] = (byte) (acc >> 10);
+                dst[dstOff++] = (byte) (acc >> 2);
+            }
+
+            acc = 0;
+            accLen = 0;
+            return dstOff;
+        }
+
+        /**
+         * An incomplete group that was not padded is decoded as if it was.
+         */
+        @Override
+        public LuaString finish() {
+            byte[] dst = new byte[2];
+            int len = flushPadded(dst, 0);
+            return LuaString.valueUsing(dst, 0, len);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.mime;
+
+import org.luaj.vm2.LuaString;
+
+/**
+ * Common interface of the streaming encoders and decoders used by the mime filters.
+ */
+public interface Codec {
+
+    /**
+     * Converts all complete groups of the carried data and the chunk. The rest is carried to the next call.
+     */
+    LuaString update(byte[] src, int off, int len);
+
+    /**
+     * Converts the carried data at the end of the input and resets the codec.
+     */
+    LuaString finish();
+}
@@ -0,0 +1,74 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.mime;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+
+/**
+ * mime.b64filter()
+ * Returns a new ltn12 filter that base64 encodes a stream. Unlike ltn12.filter.cycle(mime.b64, "") the bytes that do not
+ * complete a group are kept in java, so each chunk is encoded with a single allocation for its result.
+ * This is not part of luasocket. mime.encode("base64") uses it.
+ */
+public class MimeB64FilterFunction extends AbstractLuaJSocketFunction {
+
+    public MimeB64FilterFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        return new Filter(new Base64.Encoder());
+    }
+
+    /**
+     * ltn12 filter around a streaming codec. A nil chunk returns the rest of the stream, after that nil is returned.
+     */
+    static class Filter extends VarArgFunction {
+
+        private final Codec codec;
+
+        private boolean finished;
+
+        Filter(Codec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            if (args.isnil(1)) {
+                if (finished) {
+                    return NIL;
+                }
+
+                finished = true;
+                return codec.finish();
+            }
+
+            LuaString chunk = args.checkstring(1);
+            finished = false;
+            return codec.update(chunk.m_bytes, chunk.m_offset, chunk.m_length);
+        }
+    }
+}
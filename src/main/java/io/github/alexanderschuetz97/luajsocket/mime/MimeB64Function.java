@@ -56,65 +56,17 @@ public class MimeB64Function extends AbstractLuaJSocketFunction {
 
 
 
-    private static byte[] b64simple(byte[] buf, int off, int len) {
-        int targetLen = len;
-        int mod = targetLen%3;
-        if (mod != 0) {
-            targetLen+=3-mod;
-        }
-
-        targetLen /=3;
-        int groups = mod == 0 ? targetLen : targetLen-1;
-        targetLen *=4;
-        byte[] target = new byte[targetLen];
-
-        int srcCursor = off;
-        int targetCursor = 0;
-        for (int g = 0; g < groups; g++) {
-            int byte0 = buf[srcCursor++] & 0xff;
-            int byte1 = buf[srcCursor++] & 0xff;
-            int byte2 = buf[srcCursor++] & 0xff;
-            target[targetCursor++] = BASE64_TABLE[(byte0 >> 2)];
-            target[targetCursor++] = BASE64_TABLE[(byte0 << 4)&0x3f | (byte1 >> 4)];
-            target[targetCursor++] = BASE64_TABLE[(byte1 << 2)&0x3f | (byte2 >> 6)];
-            target[targetCursor++] = BASE64_TABLE[byte2 & 0x3f];
-        }
-
-        if (mod == 0) {
-            return target;
-        }
-
-        int byte0 = buf[srcCursor++] & 0xff;
-        target[targetCursor++] = BASE64_TABLE[(byte0 >> 2)];
-        if (mod == 1) {
-            target[targetCursor++] = BASE64_TABLE[((byte0 << 4) & 0x3f)];
-            target[targetCursor++] = '=';
-            target[targetCursor] = '=';
-            return target;
-        }
-
-        int byte1 = buf[srcCursor] & 0xff;
-        target[targetCursor++] = BASE64_TABLE[((byte0 << 4)&0x3f | (byte1 >> 4))];
-        target[targetCursor++] = BASE64_TABLE[((byte1 << 2)&0x3f)];
-        target[targetCursor] = '=';
-        return target;
-    }
-
-    private static byte[][] b64advanced(byte[] buf1, int off1, int len1, byte[] buf2, int off2, int len2) {
-        int targetLen = len1+len2;
-        int mod = targetLen%3;
-        if (mod != 0) {
-            targetLen-=mod;
-        }
-
-        targetLen /=3;
-        int groups = targetLen;
-        targetLen *=4;
-        byte[] target = new byte[targetLen];
+    private static Varargs b64advanced(byte[] buf1, int off1, int len1, byte[] buf2, int off2, int len2) {
+        int total = len1+len2;
+        int mod = total%3;
+        int groups = total/3;
+        byte[] target = new byte[groups*4];
 
         int srcCursor = 0;
         int targetCursor = 0;
-        for (int g = 0; g < groups; g++) {
+        int g = 0;
+        //Groups that contain bytes of the first string.
+        for (; g < groups && srcCursor < len1; g++) {
             int byte0 = (srcCursor >= len1 ? buf2[(srcCursor++)-len1+off2] : buf1[(srcCursor++)+off1]) & 0xff;
             int byte1 = (srcCursor >= len1 ? buf2[(srcCursor++)-len1+off2] : buf1[(srcCursor++)+off1]) & 0xff;
             int byte2 = (srcCursor >= len1 ? buf2[(srcCursor++)-len1+off2] : buf1[(srcCursor++)+off1]) & 0xff;
@@ -124,8 +76,12 @@ public class MimeB64Function extends AbstractLuaJSocketFunction {
             target[targetCursor++] = BASE64_TABLE[ (byte2 & 0x3f)];
         }
 
+        Base64.encodeGroups(buf2, srcCursor-len1+off2, groups-g, target, targetCursor);
+        srcCursor += (groups-g)*3;
+
         if (mod == 0) {
-            return new byte[][]{target, null};
+            //The empty rest is returned so ltn12.filter.cycle keeps a string as context.
+            return varargsOf(LuaString.valueUsing(target), EMPTYSTRING);
         }
 
         byte[] left = new byte[mod];
@@ -133,7 +89,7 @@ public class MimeB64Function extends AbstractLuaJSocketFunction {
             left[i] = (srcCursor >= len1 ? buf2[(srcCursor++)-len1+off2] : buf1[(srcCursor++)+off1]);
         }
 
-        return new byte[][]{target, left};
+        return varargsOf(LuaString.valueUsing(target), LuaString.valueUsing(left));
     }
 
     @Override
@@ -141,14 +97,9 @@ public class MimeB64Function extends AbstractLuaJSocketFunction {
         LuaString arg1 = args.arg1().checkstring(1);
         LuaString arg2 = args.arg(2).optstring(EMPTYSTRING);
         if (arg2.m_length == 0) {
-            return valueOf(b64simple(arg1.m_bytes, arg1.m_offset, arg1.m_length));
-        }
-
-        byte[][] res = b64advanced(arg1.m_bytes, arg1.m_offset, arg1.m_length, arg2.m_bytes, arg2.m_offset, arg2.m_length);
-        if (res[1] == null) {
-            return LuaString.valueUsing(res[0]);
+            return LuaString.valueUsing(Base64.encode(arg1.m_bytes, arg1.m_offset, arg1.m_length));
         }
 
-        return varargsOf(LuaString.valueUsing(res[0]), LuaString.valueUsing(res[1]));
+        return b64advanced(arg1.m_bytes, arg1.m_offset, arg1.m_length, arg2.m_bytes, arg2.m_offset, arg2.m_length);
     }
 }
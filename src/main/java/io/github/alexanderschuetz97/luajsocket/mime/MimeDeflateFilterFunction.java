@@ -0,0 +1,97 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.mime;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+
+import java.util.zip.Deflater;
+
+/**
+ * mime.deflatefilter(format, level)
+ * Returns a new ltn12 filter that compresses a stream. format is "gzip" (default) or "deflate" (zlib),
+ * level is the compression level from 0 to 9. Every call returns at most ZipCodec.WINDOW bytes.
+ * This is not part of luasocket. mime.encode("gzip") and mime.encode("deflate") use it.
+ */
+public class MimeDeflateFilterFunction extends AbstractLuaJSocketFunction {
+
+    public MimeDeflateFilterFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        int level = args.optint(2, Deflater.DEFAULT_COMPRESSION);
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            argerror(2, "invalid compression level");
+        }
+        return new Filter(new ZipCodec.Compressor(isGzip(args), level));
+    }
+
+    static boolean isGzip(Varargs args) {
+        String format = args.optjstring(1, "gzip");
+        switch (format) {
+            case "gzip":
+                return true;
+            case "deflate":
+                return false;
+            default:
+                argerror(1, "unknown format " + format);
+                return false;
+        }
+    }
+
+    /**
+     * ltn12 filter around a zip codec. A nil chunk returns the rest of the stream part by part, after that nil is returned.
+     */
+    static class Filter extends VarArgFunction {
+
+        private final ZipCodec codec;
+
+        private boolean finished;
+
+        Filter(ZipCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            if (args.isnil(1)) {
+                if (finished) {
+                    return NIL;
+                }
+
+                LuaString rest = codec.finish();
+                if (rest == null) {
+                    finished = true;
+                    return NIL;
+                }
+                return rest;
+            }
+
+            LuaString chunk = args.checkstring(1);
+            finished = false;
+            return codec.update(chunk.m_bytes, chunk.m_offset, chunk.m_length);
+        }
+    }
+}
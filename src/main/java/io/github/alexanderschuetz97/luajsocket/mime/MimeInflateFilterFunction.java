@@ -0,0 +1,42 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.mime;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.Varargs;
+
+/**
+ * mime.inflatefilter(format)
+ * Returns a new ltn12 filter that decompresses a "gzip" (default) or "deflate" stream. Every call returns at most
+ * ZipCodec.WINDOW bytes, invalid or truncated data raises an error.
+ * This is not part of luasocket. mime.decode("gzip") and mime.decode("deflate") use it.
+ */
+public class MimeInflateFilterFunction extends AbstractLuaJSocketFunction {
+
+    public MimeInflateFilterFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        return new MimeDeflateFilterFunction.Filter(new ZipCodec.Decompressor(MimeDeflateFilterFunction.isGzip(args)));
+    }
+}
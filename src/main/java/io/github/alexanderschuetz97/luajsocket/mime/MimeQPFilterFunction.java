@@ -0,0 +1,48 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.mime;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
+import org.luaj.vm2.Varargs;
+
+import static io.github.alexanderschuetz97.luajsocket.util.Util.CRLF_BYTES;
+
+/**
+ * mime.qpfilter([mode])
+ * Returns a new ltn12 filter with the same output as
+ * ltn12.filter.chain(mime.normalize(), mime.encode("quoted-printable", mode), mime.wrap("quoted-printable"))
+ * but encodes each chunk in a single pass in java. See {@link QuotedPrintableEncoder}.
+ * This is not part of luasocket.
+ */
+public class MimeQPFilterFunction extends AbstractLuaJSocketFunction {
+
+    private static final byte[] BINARY_MARKER = new byte[]{'=', '0', 'D', '=', '0', 'A'};
+
+    public MimeQPFilterFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        byte[] marker = "binary".equals(args.optjstring(1, null)) ? BINARY_MARKER : CRLF_BYTES;
+        return new MimeB64FilterFunction.Filter(new QuotedPrintableEncoder(marker));
+    }
+}
@@ -36,6 +36,8 @@ import static io.github.alexanderschuetz97.luajsocket.util.Util.*;
  * I have decided not to question this, but this is what the luasocket equivalent function does. In addition to normal QP encoding it appears the luasocket encoding has some sort of a bug
  * the string ' a' translates to '=20a=' even tho it should translate to ' a'. This is not really an issue as i expect most decoders should be able to handle this but its still not according to spec.
  * This function once again behaves like the luasocket one and keeps this 'bug' (if it even is a bug, i just couldn't find the RFC for QP mentioning the necessity for this).
+ * A CR at the end or the start of a multi byte character that is cut off is also returned as part of the second string
+ * so the result of a stream does not depend on the size of its chunks.
  */
 public class MimeQPFunction extends AbstractLuaJSocketFunction {
 
@@ -83,6 +85,11 @@ public class MimeQPFunction extends AbstractLuaJSocketFunction {
                 continue;
             }
 
+            //The LF of a CRLF may be in the next chunk.
+            if (c == '\r' && i+1 == cbuf.length && !s2lv.isnil()) {
+                break;
+            }
+
             if (c == '=') {
                 baos.write(EQUALS_FOR_QP_ENCODING);
                 continue;
@@ -101,7 +108,12 @@ public class MimeQPFunction extends AbstractLuaJSocketFunction {
             }
 
             if (c < '!' || c > '~') {
-                forcedBytes = utf8Length(c)-1;
+                int len = utf8Length(c);
+                //Keep a character whose remaining bytes are in the next chunk so they are encoded the same way.
+                if (i+len > cbuf.length && !s2lv.isnil()) {
+                    break;
+                }
+                forcedBytes = len-1;
                 baos.write(HEX_FOR_QP_ENCODING[unsignedByte(c)]);
                 continue;
             }
@@ -25,108 +25,67 @@ import io.github.alexanderschuetz97.luajsocket.util.ByteArrayOutputStreamWithBuf
 import org.luaj.vm2.LuaString;
 import org.luaj.vm2.Varargs;
 
+import static io.github.alexanderschuetz97.luajsocket.util.Util.CRLF_BYTES;
 import static io.github.alexanderschuetz97.luajsocket.util.Util.CRLF_BYTES_QP;
 
 /**
  * Function that chops a QP encoding string into lines of either 76 characters or a given length without breaking the encoding.
+ * Line breaks of the input are kept as CRLF and reset the line length, a soft line break is added before an encoded byte
+ * if it would no longer fit in the line. At the end of the stream a soft line break is added if the last line is not empty.
+ * The first return value is the number of characters still left in the current line, so the output only depends on
+ * the concatenated input and not on how it was split into chunks.
  * This function follows the standard concatenation pattern for stream processing in luasocket.
  * This is explained in {@link MimeB64Function}
  */
 public class MimeQPWrapFunction extends AbstractLuaJSocketFunction {
+
+    private static final LuaString EQCRLF = LuaString.valueOf(CRLF_BYTES_QP);
+
     public MimeQPWrapFunction(LuaJSocketLib env) {
         super(env);
     }
 
     @Override
     public Varargs invoke(Varargs args) {
-        int n = args.checkint(1);
+        int left = args.checkint(1);
+        int length = args.optint(3, 76);
         if (args.isnoneornil(2)) {
-            return varargsOf(NIL, valueOf(n));
-        }
-        n--;
-        if (n < 0) {
-            n = 0;
+            return varargsOf(left < length ? EQCRLF : NIL, valueOf(length));
         }
 
         LuaString str = args.checkstring(2);
 
         if (str.m_length == 0) {
-            return varargsOf(str, valueOf(n));
+            return varargsOf(str, valueOf(left));
         }
 
-        int maxlenFL = args.optint(3, 76);
-
-        int maxlen = maxlenFL;
-        maxlen--;
-        //Pretty sure this is unintended behavior of luasocket, the second return value gets negative with this...
-        if (maxlen <= 0) {
-            //The actual maximum in this case.
-            maxlen = 1;
-        }
-
-        ByteArrayOutputStreamWithBufferAccess baos = new ByteArrayOutputStreamWithBufferAccess(str.m_length+16);
+        ByteArrayOutputStreamWithBufferAccess baos = new ByteArrayOutputStreamWithBufferAccess(str.m_length + str.m_length / 16 + 16);
         for (int i = 0; i < str.m_length; i++) {
             byte b = str.m_bytes[i+str.m_offset];
-            if (b == '\r') {
-                continue;
-            }
-            baos.write(b);
-        }
-
-        byte[] cbuf = baos.toByteArray();
-        baos.reset();
-
-        int copied = 0;
-        int tc = Math.min(n, cbuf.length);
-        for (int i = 0; i < tc; i++) {
-            byte b = cbuf[i];
-            if (b == '=' && maxlen > 2 && tc-i < 3) {
-                break;
-            }
-            copied++;
-            if (b == '\r') {
-                continue;
-            }
-            if (b == '\n') {
-                copied = i+1;
-                break;
-            }
-            baos.write(b);
-        }
-
-        if (copied == cbuf.length) {
-            return varargsOf(LuaString.valueUsing(baos.getBuffer(), 0, baos.size()), valueOf(n-copied));
-        }
-
-        outer: while(copied < cbuf.length) {
-            baos.write(CRLF_BYTES_QP);
-            tc = Math.min(cbuf.length-copied, maxlen);
-            int off = copied;
-            for (int i = 0; i < tc; i++) {
-                byte b = cbuf[off+i];
-                if (b == '=' && maxlen > 2 && tc-i < 3) {
-                    copied+=i;
-                    continue outer;
-                }
-
-                if (b == '\r') {
+            switch (b) {
+                case '\r':
+                    continue;
+                case '\n':
+                    baos.write(CRLF_BYTES);
+                    left = length;
                     continue;
-                }
-                if (b == '\n') {
-                    copied +=i+1;
-                    if (copied == cbuf.length) {
+                case '=':
+                    if (left <= 3) {
                         baos.write(CRLF_BYTES_QP);
-                        break outer;
+                        left = length;
+                    }
+                    break;
+                default:
+                    if (left <= 1) {
+                        baos.write(CRLF_BYTES_QP);
+                        left = length;
                     }
-                    continue outer;
-                }
-
-                baos.write(b);
-
             }
-            copied+=tc;
+
+            baos.write(b);
+            left--;
         }
 
-        return varargsOf(LuaString.valueUsing(baos.getBuffer(), 0, baos.size()), valueOf(maxlenFL-tc));
+        return varargsOf(LuaString.valueUsing(baos.getBuffer(), 0, baos.size()), valueOf(left));
     }
 }
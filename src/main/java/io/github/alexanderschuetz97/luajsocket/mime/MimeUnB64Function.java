@@ -40,6 +40,10 @@ public class MimeUnB64Function extends AbstractLuaJSocketFunction {
     }
 
     public byte[] decode(byte[] bytes) {
+        if (bytes.length == 0) {
+            return bytes;
+        }
+
         int groups = bytes.length / 4;
         int targetLength = groups*3;
         int missing = 0;
@@ -99,7 +103,7 @@ public class MimeUnB64Function extends AbstractLuaJSocketFunction {
                     baos.write('=');
                     continue;
                 }
-                if (l >= B64TABLE_REVERSE.length || B64TABLE_REVERSE[l] == null) {
+                if (B64TABLE_REVERSE[l] < 0) {
                     return NIL_NIL;
                 }
                 baos.write(b);
@@ -125,7 +129,7 @@ public class MimeUnB64Function extends AbstractLuaJSocketFunction {
                 baos.write('=');
                 continue;
             }
-            if (l >= B64TABLE_REVERSE.length || B64TABLE_REVERSE[l] == null) {
+            if (B64TABLE_REVERSE[l] < 0) {
                 return NIL_NIL;
             }
             idx++;
@@ -140,7 +144,7 @@ public class MimeUnB64Function extends AbstractLuaJSocketFunction {
                 baos.write('=');
                 continue;
             }
-            if (l >= B64TABLE_REVERSE.length || B64TABLE_REVERSE[l] == null) {
+            if (B64TABLE_REVERSE[l] < 0) {
                 return NIL_NIL;
             }
             idx++;
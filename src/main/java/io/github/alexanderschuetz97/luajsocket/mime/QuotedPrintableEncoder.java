@@ -0,0 +1,300 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.mime;
+
+import org.luaj.vm2.LuaString;
+
+import java.util.Arrays;
+
+import static io.github.alexanderschuetz97.luajsocket.util.Util.HEX_FOR_QP_ENCODING;
+import static io.github.alexanderschuetz97.luajsocket.util.Util.unsignedByte;
+import static io.github.alexanderschuetz97.luajsocket.util.Util.utf8Length;
+
+/**
+ * Streaming encoder that does the work of mime.normalize(), mime.encode("quoted-printable") and mime.wrap("quoted-printable")
+ * in a single pass. Every input byte goes through the three stages as a small state machine and the wrapped result
+ * is written to one output buffer, so a chunk only allocates the string that is returned.
+ *
+ * The output is the same as the one of the chain of {@link MimeEolFunction}, {@link MimeQPFunction} and {@link MimeQPWrapFunction}.
+ * The encoding stage has to look at up to 2 following bytes to decide how to encode a CR or a space/tab,
+ * these are kept until the next chunk or until finish.
+ */
+public class QuotedPrintableEncoder implements Codec {
+
+    /**
+     * Line length of mime.wrap("quoted-printable").
+     */
+    public static final int LINE_LENGTH = 76;
+
+    private final byte[] marker;
+
+    //state of normalize
+    private int eolState;
+
+    //state of encode
+    private final byte[] pending = new byte[3];
+    private int pendingLen;
+    private int forcedBytes;
+    private boolean quotedEnd;
+
+    //state of wrap
+    private int left = LINE_LENGTH;
+
+    private byte[] out = new byte[256];
+    private int outLen;
+
+    /**
+     * @param marker written for every line break of the input, CRLF or "=0D=0A" for binary mode.
+     */
+    public QuotedPrintableEncoder(byte[] marker) {
+        this.marker = marker;
+    }
+
+    @Override
+    public LuaString update(byte[] src, int off, int len) {
+        outLen = 0;
+        ensure(len + (len >> 2) + 16);
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            byte b = src[i];
+            switch (b) {
+                case '\r':
+                    if (eolState == '\n') {
+                        eolState = 0;
+                        continue;
+                    }
+                    lineBreak();
+                    eolState = eolState == '\r' ? 0 : '\r';
+                    continue;
+                case '\n':
+                    if (eolState == '\r') {
+                        eolState = 0;
+                        continue;
+                    }
+                    lineBreak();
+                    eolState = eolState == '\n' ? 0 : '\n';
+                    continue;
+                default:
+                    eolState = 0;
+                    if (pendingLen == 0 && forcedBytes == 0 && isPlain(src, i, end)) {
+                        //fast path for runs of bytes that are not encoded
+                        int j = i + 1;
+                        while (j < end && isPlain(src, j, end)) {
+                            j++;
+                        }
+                        wrapRun(src, i, j - i);
+                        i = j - 1;
+                        continue;
+                    }
+                    pending[pendingLen++] = b;
+                    encode(false);
+            }
+        }
+
+        return LuaString.valueOf(out, 0, outLen);
+    }
+
+    @Override
+    public LuaString finish() {
+        outLen = 0;
+        ensure(16);
+        encode(true);
+        if (quotedEnd) {
+            wrap((byte) '=');
+        }
+        if (left < LINE_LENGTH) {
+            wrapSoftBreak();
+        }
+
+        LuaString result = LuaString.valueOf(out, 0, outLen);
+        eolState = 0;
+        pendingLen = 0;
+        forcedBytes = 0;
+        quotedEnd = false;
+        left = LINE_LENGTH;
+        return result;
+    }
+
+    /**
+     * Normalized line break, this is always CRLF for the encoding stage.
+     */
+    private void lineBreak() {
+        if (pendingLen > 1) {
+            pending[pendingLen++] = '\r';
+            encode(false);
+            pending[pendingLen++] = '\n';
+            encode(false);
+            return;
+        }
+
+        pending[pendingLen++] = '\r';
+        pending[pendingLen++] = '\n';
+        encode(false);
+    }
+
+    /**
+     * Encodes the pending bytes as far as possible. If end is false bytes that depend on the following bytes are kept.
+     */
+    private void encode(boolean end) {
+        int i = 0;
+        while (i < pendingLen) {
+            byte c = pending[i];
+            if (forcedBytes > 0) {
+                wrapQuoted(c);
+                forcedBytes--;
+                i++;
+                continue;
+            }
+
+            if (c == '\r') {
+                if (i + 1 < pendingLen) {
+                    if (pending[i + 1] == '\n') {
+                        for (byte m : marker) {
+                            wrap(m);
+                        }
+                        i += 2;
+                        continue;
+                    }
+                } else if (!end) {
+                    break;
+                }
+            }
+
+            if (c == '=') {
+                wrapQuoted(c);
+                i++;
+                continue;
+            }
+
+            if (c == '\t' || c == ' ') {
+                if (pendingLen - i > 2) {
+                    wrapPlain(c);
+                    i++;
+                    continue;
+                }
+                if (!end) {
+                    break;
+                }
+                quotedEnd = true;
+            }
+
+            if (c < '!' || c > '~') {
+                forcedBytes = utf8Length(c) - 1;
+                wrapQuoted(c);
+                i++;
+                continue;
+            }
+
+            wrapPlain(c);
+            i++;
+        }
+
+        pendingLen -= i;
+        if (i > 0 && pendingLen > 0) {
+            System.arraycopy(pending, i, pending, 0, pendingLen);
+        }
+    }
+
+    /**
+     * True if the byte is written as it is when nothing is pending. A space or tab is only known to be followed by
+     * 2 more bytes if there are 2 more bytes in the chunk.
+     */
+    private static boolean isPlain(byte[] src, int i, int end) {
+        byte b = src[i];
+        if (b == ' ' || b == '\t') {
+            return i + 2 < end;
+        }
+        return b > ' ' && b <= '~' && b != '=';
+    }
+
+    /**
+     * Wrap stage for bytes that need no encoding, copies as much as fits into the current line at once.
+     */
+    private void wrapRun(byte[] src, int off, int len) {
+        while (len > 0) {
+            if (left <= 1) {
+                wrapSoftBreak();
+            }
+            int n = Math.min(len, left - 1);
+            ensure(n);
+            System.arraycopy(src, off, out, outLen, n);
+            outLen += n;
+            left -= n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void wrapPlain(byte b) {
+        if (left <= 1) {
+            wrapSoftBreak();
+        }
+        ensure(1);
+        out[outLen++] = b;
+        left--;
+    }
+
+    private void wrapQuoted(byte b) {
+        byte[] hex = HEX_FOR_QP_ENCODING[unsignedByte(b)];
+        wrap(hex[0]);
+        wrapPlain(hex[1]);
+        wrapPlain(hex[2]);
+    }
+
+    /**
+     * Wrap stage for a single encoded byte.
+     */
+    private void wrap(byte b) {
+        switch (b) {
+            case '\r':
+                return;
+            case '\n':
+                ensure(2);
+                out[outLen++] = '\r';
+                out[outLen++] = '\n';
+                left = LINE_LENGTH;
+                return;
+            case '=':
+                if (left <= 3) {
+                    wrapSoftBreak();
+                }
+                ensure(1);
+                out[outLen++] = b;
+                left--;
+                return;
+            default:
+                wrapPlain(b);
+        }
+    }
+
+    private void wrapSoftBreak() {
+        ensure(3);
+        out[outLen++] = '=';
+        out[outLen++] = '\r';
+        out[outLen++] = '\n';
+        left = LINE_LENGTH;
+    }
+
+    private void ensure(int additional) {
+        if (outLen + additional > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, outLen + additional));
+        }
+    }
+}
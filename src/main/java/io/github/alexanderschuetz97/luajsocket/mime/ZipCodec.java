@@ -0,0 +1,420 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.mime;
+
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Streaming gzip and deflate (zlib) codecs used by mime.deflatefilter and mime.inflatefilter.
+ * A call returns at most WINDOW bytes. Output that did not fit stays in the Deflater/Inflater and is returned by the
+ * next call, ltn12 sinks and chains keep calling a filter with "" until it returns "" so no body is ever held in memory.
+ */
+public abstract class ZipCodec {
+
+    /**
+     * Most bytes returned by a single call.
+     */
+    public static final int WINDOW = 64 * 1024;
+
+    private static final int GZIP_MAGIC0 = 0x1f;
+    private static final int GZIP_MAGIC1 = 0x8b;
+    private static final int GZIP_HEADER_LENGTH = 10;
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final byte[] NO_INPUT = new byte[0];
+
+    protected final byte[] window = new byte[WINDOW];
+
+    protected final boolean gzip;
+
+    //input that was not consumed yet
+    protected byte[] buf;
+    protected int off;
+    protected int len;
+
+    protected ZipCodec(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    protected void append(byte[] src, int off, int len) {
+        if (this.len == 0) {
+            //lua strings are immutable, no need to copy
+            this.buf = src;
+            this.off = off;
+            this.len = len;
+            return;
+        }
+
+        byte[] joined = new byte[this.len + len];
+        System.arraycopy(this.buf, this.off, joined, 0, this.len);
+        System.arraycopy(src, off, joined, this.len, len);
+        this.buf = joined;
+        this.off = 0;
+        this.len = joined.length;
+    }
+
+    protected void consume(int count) {
+        off += count;
+        len -= count;
+        if (len == 0) {
+            buf = null;
+            off = 0;
+        }
+    }
+
+    /**
+     * Adds the chunk to the input and returns the next part of the output or "" if more input is needed.
+     */
+    public abstract LuaString update(byte[] src, int off, int len);
+
+    /**
+     * Returns the next part of the rest of the output or null once everything was returned. The codec is reset then.
+     */
+    public abstract LuaString finish();
+
+    /**
+     * Compresses a stream.
+     */
+    public static class Compressor extends ZipCodec {
+
+        private final int level;
+
+        //created on first use and ended once the stream is complete
+        private Deflater deflater;
+
+        private final CRC32 crc = new CRC32();
+
+        private boolean headerWritten;
+
+        private boolean finishing;
+
+        public Compressor(boolean gzip, int level) {
+            super(gzip);
+            this.level = level;
+        }
+
+        @Override
+        public LuaString update(byte[] src, int off, int len) {
+            if (len > 0) {
+                append(src, off, len);
+                if (gzip) {
+                    crc.update(src, off, len);
+                }
+            }
+
+            return output(deflate());
+        }
+
+        @Override
+        public LuaString finish() {
+            if (!finishing) {
+                finishing = true;
+                deflater().finish();
+            }
+
+            if (!deflater.finished()) {
+                return output(deflate());
+            }
+
+            if (gzip && headerWritten) {
+                byte[] trailer = new byte[GZIP_TRAILER_LENGTH];
+                writeIntLE(trailer, 0, (int) crc.getValue());
+                writeIntLE(trailer, 4, (int) deflater.getBytesRead());
+                headerWritten = false;
+                return LuaString.valueUsing(trailer);
+            }
+
+            deflater.end();
+            deflater = null;
+            crc.reset();
+            headerWritten = false;
+            finishing = false;
+            return null;
+        }
+
+        private Deflater deflater() {
+            if (deflater == null) {
+                deflater = new Deflater(level, gzip);
+            }
+            return deflater;
+        }
+
+        /**
+         * Feeds the input that was not consumed yet to the deflater. The deflater only keeps a reference to the
+         * last input it was given, so input it did not consume is kept here until a later call consumes it.
+         */
+        private int deflate() {
+            Deflater deflater = deflater();
+            if (len > 0) {
+                deflater.setInput(buf, off, len);
+            }
+            long read = deflater.getBytesRead();
+            int n = deflater.deflate(window);
+            if (len > 0) {
+                consume((int) (deflater.getBytesRead() - read));
+            }
+            return n;
+        }
+
+        private LuaString output(int n) {
+            if (!gzip || headerWritten) {
+                return n == 0 ? LuaValue.EMPTYSTRING : LuaString.valueOf(window, 0, n);
+            }
+
+            headerWritten = true;
+            byte[] out = new byte[GZIP_HEADER_LENGTH + n];
+            out[0] = (byte) GZIP_MAGIC0;
+            out[1] = (byte) GZIP_MAGIC1;
+            out[2] = Deflater.DEFLATED;
+            //OS unknown, all other fields are zero
+            out[9] = (byte) 0xff;
+            System.arraycopy(window, 0, out, GZIP_HEADER_LENGTH, n);
+            return LuaString.valueUsing(out);
+        }
+    }
+
+    /**
+     * Decompresses a stream. For the deflate format both zlib streams and raw deflate streams are accepted,
+     * since some servers send the latter. Concatenated gzip members are decompressed one after another.
+     */
+    public static class Decompressor extends ZipCodec {
+
+        private static final int HEADER = 0;
+        private static final int BODY = 1;
+        private static final int TRAILER = 2;
+        private static final int DONE = 3;
+
+        private Inflater inflater;
+
+        private final CRC32 crc = new CRC32();
+
+        private int state = HEADER;
+
+        //at least one complete gzip member was decompressed
+        private boolean complete;
+
+        private boolean receivedInput;
+
+        public Decompressor(boolean gzip) {
+            super(gzip);
+        }
+
+        @Override
+        public LuaString update(byte[] src, int off, int len) {
+            if (len > 0) {
+                receivedInput = true;
+                append(src, off, len);
+            }
+            return next();
+        }
+
+        @Override
+        public LuaString finish() {
+            LuaString out = next();
+            if (out.m_length > 0) {
+                return out;
+            }
+
+            boolean ok = !receivedInput || state == DONE || (complete && state == HEADER && len == 0);
+            reset();
+            if (!ok) {
+                throw new LuaError("incomplete compressed data");
+            }
+            return null;
+        }
+
+        private LuaString next() {
+            while (true) {
+                switch (state) {
+                    case HEADER:
+                        if (!readHeader()) {
+                            return LuaValue.EMPTYSTRING;
+                        }
+                        state = BODY;
+                        continue;
+                    case BODY:
+                        int n;
+                        inflater.setInput(buf == null ? NO_INPUT : buf, off, len);
+                        try {
+                            n = inflater.inflate(window);
+                        } catch (DataFormatException e) {
+                            reset();
+                            throw new LuaError("invalid compressed data");
+                        }
+                        if (inflater.needsDictionary()) {
+                            reset();
+                            throw new LuaError("invalid compressed data");
+                        }
+                        consume(len - inflater.getRemaining());
+                        if (gzip) {
+                            crc.update(window, 0, n);
+                        }
+                        if (inflater.finished()) {
+                            state = gzip ? TRAILER : DONE;
+                        }
+                        if (n > 0) {
+                            return LuaString.valueOf(window, 0, n);
+                        }
+                        if (state == BODY) {
+                            return LuaValue.EMPTYSTRING;
+                        }
+                        continue;
+                    case TRAILER:
+                        if (len < GZIP_TRAILER_LENGTH) {
+                            return LuaValue.EMPTYSTRING;
+                        }
+                        if (readIntLE(buf, off) != (int) crc.getValue() || readIntLE(buf, off + 4) != (int) inflater.getBytesWritten()) {
+                            reset();
+                            throw new LuaError("invalid compressed data");
+                        }
+                        consume(GZIP_TRAILER_LENGTH);
+                        complete = true;
+                        state = HEADER;
+                        continue;
+                    default:
+                        //data after the end of the stream is ignored
+                        consume(len);
+                        return LuaValue.EMPTYSTRING;
+                }
+            }
+        }
+
+        /**
+         * Consumes the gzip header or detects the kind of deflate stream. Returns false if more input is needed.
+         */
+        private boolean readHeader() {
+            if (!gzip) {
+                if (len < 2) {
+                    return false;
+                }
+                int cmf = buf[off] & 0xff;
+                int flg = buf[off + 1] & 0xff;
+                boolean zlib = (cmf & 0x0f) == Deflater.DEFLATED && ((cmf << 8) | flg) % 31 == 0;
+                inflater = new Inflater(!zlib);
+                return true;
+            }
+
+            int length = gzipHeaderLength(buf, off, len);
+            if (length == -1) {
+                return false;
+            }
+
+            if (length < 0) {
+                if (complete) {
+                    //some servers pad gzip bodies, ignore what follows the last member
+                    consume(len);
+                    return false;
+                }
+                reset();
+                throw new LuaError("invalid gzip header");
+            }
+
+            consume(length);
+            if (inflater == null) {
+                inflater = new Inflater(true);
+            } else {
+                inflater.reset();
+            }
+            crc.reset();
+            return true;
+        }
+
+        private void reset() {
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+            crc.reset();
+            state = HEADER;
+            complete = false;
+            receivedInput = false;
+            buf = null;
+            off = 0;
+            len = 0;
+        }
+    }
+
+    /**
+     * Returns the length of the gzip header at the start of the data, -1 if it is incomplete and -2 if it is invalid.
+     */
+    static int gzipHeaderLength(byte[] buf, int off, int len) {
+        if (len < GZIP_HEADER_LENGTH) {
+            return len > 0 && (buf[off] & 0xff) != GZIP_MAGIC0 ? -2 : -1;
+        }
+
+        if ((buf[off] & 0xff) != GZIP_MAGIC0 || (buf[off + 1] & 0xff) != GZIP_MAGIC1 || buf[off + 2] != Deflater.DEFLATED) {
+            return -2;
+        }
+
+        int flags = buf[off + 3] & 0xff;
+        int p = GZIP_HEADER_LENGTH;
+        if ((flags & FEXTRA) != 0) {
+            if (len < p + 2) {
+                return -1;
+            }
+            p += 2 + ((buf[off + p] & 0xff) | (buf[off + p + 1] & 0xff) << 8);
+        }
+
+        if ((flags & FNAME) != 0) {
+            p = skipZeroTerminated(buf, off, len, p);
+        }
+
+        if ((flags & FCOMMENT) != 0) {
+            p = skipZeroTerminated(buf, off, len, p);
+        }
+
+        if ((flags & FHCRC) != 0) {
+            p += 2;
+        }
+
+        return p > len ? -1 : p;
+    }
+
+    private static int skipZeroTerminated(byte[] buf, int off, int len, int p) {
+        while (p < len && buf[off + p] != 0) {
+            p++;
+        }
+        //past the end if the terminator is missing
+        return p + 1;
+    }
+
+    private static void writeIntLE(byte[] buf, int off, int value) {
+        buf[off] = (byte) value;
+        buf[off + 1] = (byte) (value >>> 8);
+        buf[off + 2] = (byte) (value >>> 16);
+        buf[off + 3] = (byte) (value >>> 24);
+    }
+
+    private static int readIntLE(byte[] buf, int off) {
+        return (buf[off] & 0xff) | (buf[off + 1] & 0xff) << 8 | (buf[off + 2] & 0xff) << 16 | (buf[off + 3] & 0xff) << 24;
+    }
+}
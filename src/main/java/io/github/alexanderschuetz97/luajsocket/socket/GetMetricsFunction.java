@@ -0,0 +1,107 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.socket;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.metrics.LatencyHistogram;
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+import java.util.Map;
+
+/**
+ * Returns a table with the counters of all sockets of this library.
+ * Durations are in seconds. If the first argument is true the counters are reset after they were read.
+ */
+public class GetMetricsFunction extends AbstractLuaJSocketFunction {
+
+    public GetMetricsFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        Metrics metrics = luaJSocket.getMetrics();
+        LuaTable table = new LuaTable();
+        table.set("bytessent", valueOf(metrics.getBytesSent().sum()));
+        table.set("bytesreceived", valueOf(metrics.getBytesReceived().sum()));
+        table.set("receiveblocked", seconds(metrics.getReceiveBlockedNanos().sum()));
+        table.set("sendblocked", seconds(metrics.getSendBlockedNanos().sum()));
+        table.set("receivebuffermax", valueOf(metrics.getReceiveBufferHighWater().get()));
+        table.set("sendbuffermax", valueOf(metrics.getSendBufferHighWater().get()));
+        table.set("connections", valueOf(metrics.getConnections().sum()));
+        table.set("servers", valueOf(metrics.getServers().sum()));
+        table.set("threads", valueOf(metrics.getThreads().sum()));
+        table.set("dnshits", valueOf(metrics.getDnsHits().sum()));
+        table.set("dnsmisses", valueOf(metrics.getDnsMisses().sum()));
+
+        LuaTable operations = new LuaTable();
+        for (Map.Entry<String, Metrics.Operation> e : metrics.getOperations().entrySet()) {
+            Metrics.Operation op = e.getValue();
+            LuaTable opTable = new LuaTable();
+            opTable.set("calls", valueOf(op.getCalls().sum()));
+            opTable.set("timeouts", valueOf(op.getTimeouts().sum()));
+            opTable.set("errors", valueOf(op.getErrors().sum()));
+            opTable.set("latency", histogram(op.getLatency()));
+            operations.set(e.getKey(), opTable);
+        }
+        table.set("operations", operations);
+
+        if (args.optboolean(1, false)) {
+            metrics.reset();
+        }
+
+        return table;
+    }
+
+    /**
+     * count, sum and max of the histogram and a list of all non empty buckets as {le = upper bound, count = n}.
+     */
+    protected LuaTable histogram(LatencyHistogram histogram) {
+        LuaTable table = new LuaTable();
+        LuaTable buckets = new LuaTable();
+        long count = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long c = histogram.getCount(i);
+            if (c == 0) {
+                continue;
+            }
+
+            count += c;
+            long bound = LatencyHistogram.getUpperBoundMicros(i);
+            LuaTable bucket = new LuaTable();
+            bucket.set("le", bound == Long.MAX_VALUE ? valueOf(Double.POSITIVE_INFINITY) : valueOf(bound / 1000000d));
+            bucket.set("count", valueOf(c));
+            buckets.set(buckets.length() + 1, bucket);
+        }
+
+        table.set("count", valueOf(count));
+        table.set("sum", seconds(histogram.getSumNanos()));
+        table.set("max", seconds(histogram.getMaxNanos()));
+        table.set("buckets", buckets);
+        return table;
+    }
+
+    protected static LuaValue seconds(long nanos) {
+        return valueOf(nanos / 1000000000d);
+    }
+}
@@ -20,9 +20,11 @@ package io.github.alexanderschuetz97.luajsocket.socket;
 //
 
 import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
-import io.github.alexanderschuetz97.luajsocket.tcp.java.SelectCondition;
 import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
 import io.github.alexanderschuetz97.luajsocket.tcp.lua.TCPMasterUserdata;
+import io.github.alexanderschuetz97.luajsocket.udp.java.UDPMaster;
+import io.github.alexanderschuetz97.luajsocket.udp.lua.UDPMasterUserdata;
+import io.github.alexanderschuetz97.luajsocket.util.Selectable;
 import io.github.alexanderschuetz97.luajsocket.util.Util;
 import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
@@ -30,9 +32,9 @@ import org.luaj.vm2.Varargs;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 /**
  * This function takes 2 tables as parameters and a optional timeout.
@@ -44,6 +46,10 @@ import java.util.Set;
  * This function returns when any of the sockets can perform its desired operation without blocking or if the timeout elapses.
  * The function returns a table which contains all ready socket objects (multiple may be ready) and is linked both with
  * number indices and the socket objects itself (to allow for faster checking if a specific socket is ready)
+ *
+ * The sockets are not registered for each call. They report their readiness to the SocketSelector of the library
+ * themselves so waiting only costs time proportional to the amount of ready sockets. Multiple coroutines may select
+ * on the same socket at the same time.
  */
 public class SelectFunction extends AbstractLuaJSocketFunction {
 
@@ -56,52 +62,68 @@ public class SelectFunction extends AbstractLuaJSocketFunction {
     public Varargs invoke(Varargs args) {
         Collection<LuaValue> recvt = Util.tableToArrayListIPairs(args.arg1());
         Collection<LuaValue> sendt = Util.tableToArrayListIPairs(args.arg(2));
-        int timeout = args.optint(3, -1);
+        double timeoutSeconds = args.optdouble(3, -1);
 
         //Timeout is in seconds...
-        if (timeout > 0) {
-            timeout*=1000;
-        }
+        int timeout = timeoutSeconds < 0 ? -1 : (int) (timeoutSeconds * 1000);
 
         LuaTable resultReadyForWrite = new LuaTable();
         LuaTable resultReadyForRead = new LuaTable();
 
-        Set<TCPMaster> readReady = new LinkedHashSet<>();
-        Set<TCPMaster> writeReady = new LinkedHashSet<>();
-
-        List<TCPMasterUserdata> readReadyUserdata = new ArrayList<>();
-        List<TCPMasterUserdata> writeReadyUserdata = new ArrayList<>();
+        Map<Selectable, LuaValue> readCandidates = new LinkedHashMap<>();
+        Map<Selectable, LuaValue> writeCandidates = new LinkedHashMap<>();
 
         for (LuaValue v : recvt) {
-            if (!(v instanceof TCPMasterUserdata)) {
+            if (v instanceof UDPMasterUserdata) {
+                UDPMaster udpMaster = ((UDPMasterUserdata) v).getMaster();
+                if (!udpMaster.isOpen()) {
+                    continue;
+                }
+
+                udpMaster.onSelect();
+                readCandidates.put(udpMaster, v);
                 continue;
             }
-            TCPMasterUserdata tcpMaster = ((TCPMasterUserdata) v);
-            if (!tcpMaster.getMaster().isOpen()) {
+
+            if (!(v instanceof TCPMasterUserdata)) {
                 continue;
             }
-
-            if (readReady.add(tcpMaster.getMaster())) {
-                readReadyUserdata.add(tcpMaster);
+            TCPMaster tcpMaster = ((TCPMasterUserdata) v).getMaster();
+            if (!tcpMaster.isOpen()) {
+                continue;
             }
 
+            tcpMaster.onSelect();
+            tcpMaster.onSelectRead();
+            readCandidates.put(tcpMaster, v);
         }
 
         for (LuaValue v : sendt) {
+            if (v instanceof UDPMasterUserdata) {
+                UDPMaster udpMaster = ((UDPMasterUserdata) v).getMaster();
+                if (!udpMaster.isOpen()) {
+                    continue;
+                }
+
+                udpMaster.onSelect();
+                writeCandidates.put(udpMaster, v);
+                continue;
+            }
+
             if (!(v instanceof TCPMasterUserdata)) {
                 continue;
             }
-            TCPMasterUserdata tcpMaster = ((TCPMasterUserdata) v);
-            if (!tcpMaster.getMaster().isClient()) {
+            TCPMaster tcpMaster = ((TCPMasterUserdata) v).getMaster();
+            //Sockets that are still connecting become writeable once connecting is done.
+            if (tcpMaster.isClosed() || (!tcpMaster.isClient() && tcpMaster.getPendingConnect() == null)) {
                 continue;
             }
 
-            if (writeReady.add(tcpMaster.getMaster())) {
-                writeReadyUserdata.add(tcpMaster);
-            }
+            tcpMaster.onSelect();
+            writeCandidates.put(tcpMaster, v);
         }
 
-        if (readReady.isEmpty() && writeReady.isEmpty()) {
+        if (readCandidates.isEmpty() && writeCandidates.isEmpty()) {
             if (timeout < 0) {
                 return varargsOf(resultReadyForRead, resultReadyForWrite, NIL);
             }
@@ -111,56 +133,28 @@ public class SelectFunction extends AbstractLuaJSocketFunction {
                 return varargsOf(resultReadyForRead, resultReadyForWrite, NIL);
             }
 
-            return varargsOf(resultReadyForWrite, resultReadyForRead, valueOf("timeout"));
+            return varargsOf(resultReadyForRead, resultReadyForWrite, valueOf("timeout"));
         }
 
-        SelectCondition condition = new SelectCondition(readReady, writeReady);
-        condition.init();
-        boolean selected = condition.awaitSelection(timeout);
-        condition.clear();
-        if (!selected) {
-            return varargsOf(resultReadyForWrite, resultReadyForRead, valueOf("timeout"));
+        List<Selectable> readReady = new ArrayList<>();
+        List<Selectable> writeReady = new ArrayList<>();
+        if (!luaJSocket.getSocketSelector().select(readCandidates.keySet(), writeCandidates.keySet(), readReady, writeReady, timeout)) {
+            return varargsOf(resultReadyForRead, resultReadyForWrite, valueOf("timeout"));
         }
 
-        int i;
-        i = 1;
-        for (TCPMasterUserdata tcpMasterUserdata : readReadyUserdata) {
-            TCPMaster tcpMaster = tcpMasterUserdata.getMaster();
-            if (tcpMaster.isClient()) {
-                if (!tcpMaster.getClient().readReady()) {
-                    continue;
-                }
-            }
-
-            if (tcpMaster.isServer()) {
-                if (!tcpMaster.getServer().acceptReady()) {
-                    continue;
-                }
-            }
-
-
-
-            resultReadyForRead.set(i, tcpMasterUserdata);
-            resultReadyForRead.set(tcpMasterUserdata, tcpMasterUserdata);
-            i++;
-        }
+        fillResult(resultReadyForRead, readReady, readCandidates);
+        fillResult(resultReadyForWrite, writeReady, writeCandidates);
 
-        i = 1;
-        for (TCPMasterUserdata tcpMasterUserdata : writeReadyUserdata) {
-            TCPMaster tcpMaster = tcpMasterUserdata.getMaster();
-            if (tcpMaster.isClient()) {
-                if (!tcpMaster.getClient().writeReady()) {
-                    continue;
-                }
-            }
+        return varargsOf(resultReadyForRead, resultReadyForWrite, NIL);
+    }
 
-            resultReadyForWrite.set(i, tcpMasterUserdata);
-            resultReadyForWrite.set(tcpMasterUserdata, tcpMasterUserdata);
+    private static void fillResult(LuaTable result, List<Selectable> ready, Map<Selectable, LuaValue> candidates) {
+        int i = 1;
+        for (Selectable selectable : ready) {
+            LuaValue userdata = candidates.get(selectable);
+            result.set(i, userdata);
+            result.set(userdata, userdata);
             i++;
         }
-
-
-
-        return varargsOf(resultReadyForRead, resultReadyForWrite, NIL);
     }
 }
@@ -0,0 +1,85 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.tcp.java;
+
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Default engine. Uses 2 blocking jobs (read and write) per client and 1 blocking accept job per server.
+ * Connecting also happens in a blocking job.
+ * The jobs are executed on the executor of LuaJSocketLib.
+ */
+public class BlockingTCPEngine implements TCPEngine {
+
+    @Override
+    public Socket createSocket() {
+        return new Socket();
+    }
+
+    @Override
+    public ServerSocket createServerSocket() throws IOException {
+        return new ServerSocket();
+    }
+
+    @Override
+    public void connect(final PendingConnect connect) {
+        connect.getMaster().execute(new Runnable() {
+            @Override
+            public void run() {
+                Metrics metrics = connect.getMaster().getMetrics();
+                metrics.getThreads().increment();
+                IOException error = null;
+                try {
+                    connect.getSocket().connect(connect.getAddress(), connect.getTimeout());
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    metrics.getThreads().decrement();
+                }
+
+                connect.complete(error);
+            }
+        });
+    }
+
+    @Override
+    public void start(TCPClient client) throws IOException {
+        client.startBlockingJobs();
+    }
+
+    @Override
+    public void start(TCPServer server) {
+        server.startAcceptWorker();
+    }
+
+    @Override
+    public void closed(TCPClient client) {
+        //The jobs notice this themselves.
+    }
+
+    @Override
+    public void closed(TCPServer server) {
+        //The worker is interrupted by the server.
+    }
+}
@@ -0,0 +1,600 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.tcp.java;
+
+import org.luaj.vm2.LuaError;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Engine that performs all socket io on a small fixed amount of selector threads.
+ * Unlike the BlockingTCPEngine the amount of threads does not grow with the amount of connections.
+ *
+ * Each connection is assigned to one selector loop. The loop reads from the channel directly into the read RingBuffer
+ * of the client as long as it has space and drains the write RingBuffer into the channel while it has data.
+ */
+public class NioTCPEngine implements TCPEngine {
+
+    private static NioTCPEngine DEFAULT;
+
+    private final SelectorLoop[] loops;
+
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    /**
+     * Returns a shared engine with one selector loop per available processor.
+     */
+    public static synchronized NioTCPEngine getDefault() {
+        if (DEFAULT == null) {
+            DEFAULT = new NioTCPEngine(Runtime.getRuntime().availableProcessors());
+        }
+
+        return DEFAULT;
+    }
+
+    public NioTCPEngine(int loopCount) {
+        if (loopCount < 1) {
+            throw new IllegalArgumentException("loopCount must be at least 1");
+        }
+
+        loops = new SelectorLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new SelectorLoop(i);
+        }
+
+        for (SelectorLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return SocketChannel.open().socket();
+    }
+
+    @Override
+    public ServerSocket createServerSocket() throws IOException {
+        return ServerSocketChannel.open().socket();
+    }
+
+    @Override
+    public void connect(PendingConnect connect) throws IOException {
+        SocketChannel channel = connect.getSocket().getChannel();
+        if (channel == null) {
+            throw new IOException("Socket was not created by NioTCPEngine");
+        }
+
+        channel.configureBlocking(false);
+        if (channel.connect(connect.getAddress())) {
+            connect.complete(null);
+            return;
+        }
+
+        SelectorLoop loop = nextLoop();
+        loop.execute(new ConnectHandler(loop, connect, channel));
+    }
+
+    @Override
+    public void start(TCPClient client) throws IOException {
+        SocketChannel channel = client.getSocket().getChannel();
+        if (channel == null) {
+            throw new IOException("Socket was not created by NioTCPEngine");
+        }
+
+        channel.configureBlocking(false);
+
+        //A channel connected by a ConnectHandler stays with the loop it was connected on.
+        SelectorLoop loop = null;
+        SelectionKey key = null;
+        for (SelectorLoop l : loops) {
+            SelectionKey k = channel.keyFor(l.selector);
+            if (k != null && k.isValid()) {
+                loop = l;
+                key = k;
+                break;
+            }
+        }
+
+        ClientHandler handler = new ClientHandler(loop == null ? nextLoop() : loop, client, channel, key);
+        client.getReadBuffer().setListener(handler);
+        client.getWriteBuffer().setListener(handler);
+        handler.loop.execute(handler);
+    }
+
+    @Override
+    public void start(TCPServer server) throws IOException {
+        ServerSocketChannel channel = server.getSocket().getChannel();
+        if (channel == null) {
+            throw new IOException("ServerSocket was not created by NioTCPEngine");
+        }
+
+        channel.configureBlocking(false);
+        ServerHandler handler = new ServerHandler(nextLoop(), server, channel);
+        server.setAcceptListener(handler);
+        handler.loop.execute(handler);
+    }
+
+    @Override
+    public void closed(TCPClient client) {
+        wakeup();
+    }
+
+    @Override
+    public void closed(TCPServer server) {
+        wakeup();
+    }
+
+    protected SelectorLoop nextLoop() {
+        return loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    /**
+     * Wakes up all selector loops. Closing a registered channel only releases the file descriptor once the
+     * selector it is registered with has performed another select.
+     */
+    protected void wakeup() {
+        for (SelectorLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    interface Handler {
+        void handle(SelectionKey key);
+    }
+
+    /**
+     * Thread that owns one selector. Registration and interest changes are only done by this thread,
+     * other threads submit tasks via execute.
+     */
+    protected static class SelectorLoop implements Runnable {
+
+        private final Selector selector;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        //Tasks that run once their deadline passed. Only used by the loop thread.
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+
+        private final Thread thread;
+
+        SelectorLoop(int index) {
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                throw new LuaError(e);
+            }
+
+            thread = new Thread(this, "luajsocket nio loop " + index);
+            thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Runs the task on the loop thread once delay milliseconds passed. Must be called by the loop thread.
+         */
+        void schedule(Runnable task, long delay) {
+            timers.add(new Timer(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay), task));
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException exc) {
+                        //DC.
+                    }
+                }
+
+                try {
+                    Timer next = timers.peek();
+                    if (next == null) {
+                        selector.select();
+                    } else {
+                        long wait = next.deadline - System.nanoTime();
+                        if (wait > 0) {
+                            //select(0) would wait forever
+                            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                        } else {
+                            selector.selectNow();
+                        }
+                    }
+                } catch (IOException e) {
+                    continue;
+                }
+
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    try {
+                        ((Handler) key.attachment()).handle(key);
+                    } catch (CancelledKeyException exc) {
+                        //Channel was closed.
+                    } catch (RuntimeException exc) {
+                        //DC.
+                    }
+                }
+
+                runTimers();
+            }
+        }
+
+        private void runTimers() {
+            long now = System.nanoTime();
+            Timer timer;
+            while ((timer = timers.peek()) != null && timer.deadline - now <= 0) {
+                timers.poll();
+                try {
+                    timer.task.run();
+                } catch (RuntimeException exc) {
+                    //DC.
+                }
+            }
+        }
+    }
+
+    private static class Timer implements Comparable<Timer> {
+
+        //System.nanoTime() value, only compared by subtraction
+        private final long deadline;
+
+        private final Runnable task;
+
+        private Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer o) {
+            return Long.signum(deadline - o.deadline);
+        }
+    }
+
+    /**
+     * Connects a SocketChannel with the RingBuffers of a TCPClient.
+     * Running this handler (un)registers the interest ops according to the state of the buffers.
+     */
+    protected static class ClientHandler implements Handler, Runnable, RingBuffer.Listener {
+
+        private final SelectorLoop loop;
+
+        private final TCPClient client;
+
+        private final SocketChannel channel;
+
+        private final RingBuffer readBuffer;
+
+        private final RingBuffer writeBuffer;
+
+        private final AtomicBoolean updateQueued = new AtomicBoolean();
+
+        private SelectionKey key;
+
+        private boolean readEof;
+
+        private boolean writeDone;
+
+        ClientHandler(SelectorLoop loop, TCPClient client, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.client = client;
+            this.channel = channel;
+            this.key = key;
+            this.readBuffer = client.getReadBuffer();
+            this.writeBuffer = client.getWriteBuffer();
+        }
+
+        @Override
+        public void onBytesWritten() {
+            requestUpdate();
+        }
+
+        @Override
+        public void onBytesRead() {
+            requestUpdate();
+        }
+
+        private void requestUpdate() {
+            if (loop.inLoop()) {
+                //handle() will update once it is done.
+                return;
+            }
+
+            if (updateQueued.compareAndSet(false, true)) {
+                loop.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            updateQueued.set(false);
+            if (key != null && key.attachment() != this) {
+                key.attach(this);
+            }
+
+            if (key == null) {
+                try {
+                    key = channel.register(loop.selector, 0, this);
+                } catch (IOException | RuntimeException e) {
+                    readBuffer.err(e instanceof IOException ? (IOException) e : new IOException(e));
+                    writeBuffer.err(readBuffer.getError());
+                    finishWrite();
+                    client.getMaster().notifyReadReady();
+                    return;
+                }
+            }
+
+            update();
+        }
+
+        @Override
+        public void handle(SelectionKey key) {
+            if (key.isReadable()) {
+                doRead();
+            }
+
+            if (key.isValid() && key.isWritable()) {
+                doWrite();
+            }
+
+            update();
+        }
+
+        private void doRead() {
+            try {
+                while (true) {
+                    int read = readBuffer.write(channel);
+                    if (read < 0) {
+                        readEof = true;
+                        readBuffer.eof();
+                        client.getMaster().notifyReadReady();
+                        return;
+                    }
+
+                    if (read == 0) {
+                        return;
+                    }
+
+                    client.getMaster().notifyReadReady();
+                }
+            } catch (IOException e) {
+                readEof = true;
+                readBuffer.err(e);
+                client.getMaster().notifyReadReady();
+            }
+        }
+
+        private void doWrite() {
+            try {
+                if (writeBuffer.read(channel) > 0) {
+                    client.getMaster().notifyWriteReady();
+                }
+            } catch (IOException e) {
+                writeBuffer.err(e);
+                finishWrite();
+            }
+        }
+
+        private void finishWrite() {
+            if (writeDone) {
+                return;
+            }
+            writeDone = true;
+            client.signalWriteDone();
+        }
+
+        private void update() {
+            if (!key.isValid()) {
+                readEof = true;
+                finishWrite();
+                return;
+            }
+
+            int ops = 0;
+            if (!readEof) {
+                if (readBuffer.isEof()) {
+                    readEof = true;
+                } else if (readBuffer.availableToWrite() > 0) {
+                    ops |= SelectionKey.OP_READ;
+                }
+            }
+
+            if (!writeDone) {
+                if (writeBuffer.getError() != null) {
+                    finishWrite();
+                } else if (writeBuffer.availableToRead() > 0) {
+                    ops |= SelectionKey.OP_WRITE;
+                } else if (writeBuffer.isEof()) {
+                    finishWrite();
+                }
+            }
+
+            key.interestOps(ops);
+        }
+    }
+
+    /**
+     * Finishes connecting a SocketChannel. The key is kept with interest 0 so the ClientHandler can take it over.
+     * Gives up once the timeout of the PendingConnect passed.
+     */
+    protected static class ConnectHandler implements Handler, Runnable {
+
+        private final SelectorLoop loop;
+
+        private final PendingConnect connect;
+
+        private final SocketChannel channel;
+
+        ConnectHandler(SelectorLoop loop, PendingConnect connect, SocketChannel channel) {
+            this.loop = loop;
+            this.connect = connect;
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            final SelectionKey key;
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_CONNECT, this);
+            } catch (IOException | RuntimeException e) {
+                connect.complete(e instanceof IOException ? (IOException) e : new IOException(e));
+                return;
+            }
+
+            if (connect.getTimeout() > 0) {
+                loop.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (connect.isDone()) {
+                            return;
+                        }
+                        key.cancel();
+                        //Same message as a timed out Socket.connect of the BlockingTCPEngine.
+                        connect.complete(new SocketTimeoutException("connect timed out"));
+                    }
+                }, connect.getTimeout());
+            }
+        }
+
+        @Override
+        public void handle(SelectionKey key) {
+            if (!key.isConnectable()) {
+                return;
+            }
+
+            try {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+            } catch (IOException e) {
+                key.cancel();
+                connect.complete(e);
+                return;
+            }
+
+            key.interestOps(0);
+            connect.complete(null);
+        }
+    }
+
+    /**
+     * Accepts connections from a ServerSocketChannel and hands them to the TCPServer one at a time.
+     * Running this handler resumes accepting once lua took the previous connection.
+     */
+    protected static class ServerHandler implements Handler, Runnable {
+
+        private final SelectorLoop loop;
+
+        private final TCPServer server;
+
+        private final ServerSocketChannel channel;
+
+        private SelectionKey key;
+
+        ServerHandler(SelectorLoop loop, TCPServer server, ServerSocketChannel channel) {
+            this.loop = loop;
+            this.server = server;
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            if (!loop.inLoop()) {
+                //Lua took a connection.
+                loop.execute(this);
+                return;
+            }
+
+            if (key == null) {
+                try {
+                    key = channel.register(loop.selector, SelectionKey.OP_ACCEPT, this);
+                } catch (IOException e) {
+                    server.offerAccepted(e);
+                }
+                return;
+            }
+
+            if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_ACCEPT);
+            }
+        }
+
+        @Override
+        public void handle(SelectionKey key) {
+            if (!key.isAcceptable()) {
+                return;
+            }
+
+            Object accepted;
+            try {
+                SocketChannel socketChannel = channel.accept();
+                if (socketChannel == null) {
+                    return;
+                }
+                accepted = socketChannel.socket();
+            } catch (IOException e) {
+                accepted = e;
+            }
+
+            //Stop accepting until lua took this one.
+            key.interestOps(0);
+            if (!server.offerAccepted(accepted)) {
+                key.interestOps(SelectionKey.OP_ACCEPT);
+                if (accepted instanceof Socket) {
+                    try {
+                        ((Socket) accepted).close();
+                    } catch (IOException e) {
+                        //DC.
+                    }
+                }
+            }
+        }
+    }
+}
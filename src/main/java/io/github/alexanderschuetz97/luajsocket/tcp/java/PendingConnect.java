@@ -0,0 +1,144 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.tcp.java;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connect that is performed by the engine in the background.
+ * Once it completes successfully the master becomes a client. Either way the master is reported as ready to write.
+ */
+public class PendingConnect {
+
+    private final TCPMaster master;
+
+    private final Socket socket;
+
+    private final SocketAddress requestedAddress;
+
+    private volatile SocketAddress address;
+
+    private final int timeout;
+
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private volatile IOException error;
+
+    PendingConnect(TCPMaster master, Socket socket, SocketAddress address, int timeout) {
+        this.master = master;
+        this.socket = socket;
+        this.requestedAddress = address;
+        this.address = address;
+        this.timeout = timeout;
+    }
+
+    public TCPMaster getMaster() {
+        return master;
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the address passed to startConnect, before its host name was resolved.
+     */
+    public SocketAddress getRequestedAddress() {
+        return requestedAddress;
+    }
+
+    /**
+     * Timeout in milliseconds the engine uses for the connect itself, 0 means no timeout.
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Replaces the address once its host name was resolved.
+     */
+    void setAddress(SocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Called by the engine once the socket is connected (error is null) or connecting failed.
+     * Only the first call has an effect.
+     */
+    public void complete(IOException error) {
+        if (!completed.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (error == null) {
+            try {
+                master.connected(socket);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        if (error != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //DC.
+            }
+        }
+
+        this.error = error;
+        done.countDown();
+        master.notifyWriteReady();
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Returns the reason connecting failed or null if it succeeded or is not yet done.
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Waits for the connect to complete. Negative timeout means wait forever. Returns false on timeout.
+     */
+    public boolean await(int timeout) throws InterruptedException {
+        if (timeout < 0) {
+            done.await();
+            return true;
+        }
+
+        return done.await(timeout, TimeUnit.MILLISECONDS);
+    }
+}
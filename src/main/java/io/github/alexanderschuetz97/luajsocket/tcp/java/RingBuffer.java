@@ -19,62 +19,239 @@
 //
 package io.github.alexanderschuetz97.luajsocket.tcp.java;
 
+import io.github.alexanderschuetz97.luajsocket.tcp.java.SegmentPool.Segment;
+
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Ring buffer for TCP connections that implements the luasocket timeout mechanics..
+ *
+ * The memory of the buffer is a chain of segments taken from a SegmentPool. Segments are only taken when data is
+ * written and given back as soon as they were read, so the buffer grows up to its capacity while the reader
+ * falls behind and holds no memory at all while it is empty.
+ *
+ * There is exactly one thread writing and one thread reading at any given time. Both sides only communicate via
+ * volatile counters and a thread that has to wait parks itself until the other side unparks it.
  */
 public class RingBuffer {
 
-    private final byte[] buffer = new byte[4096];
+    /**
+     * Capacity used if none is given.
+     */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final int SEGMENT_SIZE = SegmentPool.SEGMENT_SIZE;
+
+    private final SegmentPool pool;
+
+    private volatile int capacity;
 
-    private volatile int readPos = 0;
-    private volatile int writePos = 0;
+    //Only modified by the reader. (Or by the writer while the buffer is empty and the segments are released)
+    private Segment head;
+    private int headPos;
 
+    //Only modified by the writer. (Or by the reader while the buffer is empty and the segments are released)
+    private Segment tail;
+    private int tailPos;
+
+    private volatile long totalReadCount = 0;
     private volatile long totalWriteCount = 0;
 
+    /**
+     * Bytes up to this count are visible to the reader. Lags behind totalWriteCount while the buffer is corked.
+     */
+    private volatile long publishedWriteCount = 0;
+
+    private volatile boolean corked;
+
+    //Only modified by the writer.
+    private volatile long highWaterMark;
+
+    //Time spent in waitForBytesToRead and waitForBytesToWrite. Only modified by the reader or writer respectively.
+    private volatile long readBlockedNanos;
+    private volatile long writeBlockedNanos;
+
     private volatile boolean eof;
     private volatile IOException exc;
 
     private volatile boolean readerBlocked;
 
-    private final Object waitForReadableBytes = new Object();
-    private final Object waitForWriteableBytes = new Object();
-    private final Object waitForReader = new Object();
-    private final Object readMutex = new Object();
-    private final Object writeMutex = new Object();
+    private volatile Thread parkedReader;
+    private volatile Thread parkedWriter;
 
-    protected int availableToRead() {
-        int rp = readPos;
-        int wp = writePos;
-        if (rp > wp) {
-            return (buffer.length-rp)+wp;
+    private static final int SEGMENTS_IDLE = 0;
+    private static final int SEGMENTS_WRITING = 1;
+    private static final int SEGMENTS_RELEASING = 2;
+
+    /**
+     * Guards the segment chain against being released by the reader while the writer appends to it.
+     */
+    private final AtomicInteger segmentState = new AtomicInteger(SEGMENTS_IDLE);
+
+    /**
+     * Used by the waitForEmpty and waitForReaderBlocked methods. Only notified when someone waits on it.
+     */
+    private final Object stateMonitor = new Object();
+    private final AtomicInteger stateMonitorWaiters = new AtomicInteger();
+
+    //Only held for the duration of a single read or write call to ensure there is only one reader and writer.
+    //Locks instead of monitors so a virtual thread waiting for bytes does not pin its carrier thread.
+    private final ReentrantLock readMutex = new ReentrantLock();
+    private final ReentrantLock writeMutex = new ReentrantLock();
+
+    private volatile Listener listener;
+
+    public RingBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RingBuffer(int capacity) {
+        this(capacity, SegmentPool.getDefault());
+    }
+
+    public RingBuffer(int capacity, SegmentPool pool) {
+        this.pool = pool;
+        setCapacity(capacity);
+    }
+
+    /**
+     * Listener that is informed whenever bytes are put into or taken out of the buffer.
+     * Used by non blocking engines to know when to resume reading from or writing to a channel.
+     * Methods may be called while the buffer holds internal locks so they must not block.
+     */
+    public interface Listener {
+        /**
+         * Bytes were written into the buffer or the buffer reached eof.
+         */
+        void onBytesWritten();
+
+        /**
+         * Bytes were read from the buffer or the buffer reached eof.
+         */
+        void onBytesRead();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the maximum amount of bytes the buffer may hold. If the buffer currently holds more then the writer
+     * has to wait until the reader caught up.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        signalWriteable();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    protected void fireBytesWritten() {
+        Listener l = listener;
+        if (l != null) {
+            l.onBytesWritten();
         }
+    }
+
+    protected void fireBytesRead() {
+        Listener l = listener;
+        if (l != null) {
+            l.onBytesRead();
+        }
+    }
 
-        if (wp > rp) {
-            return wp-rp;
+    protected void signalReadable() {
+        Thread t = parkedReader;
+        if (t != null) {
+            LockSupport.unpark(t);
         }
+        signalStateMonitor();
+        fireBytesWritten();
+    }
 
-        return 0;
+    protected void signalWriteable() {
+        Thread t = parkedWriter;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+        signalStateMonitor();
+        fireBytesRead();
+    }
+
+    private void signalStateMonitor() {
+        if (stateMonitorWaiters.get() > 0) {
+            synchronized (stateMonitor) {
+                stateMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void setReaderBlocked(boolean blocked) {
+        if (readerBlocked == blocked) {
+            return;
+        }
+        readerBlocked = blocked;
+        signalStateMonitor();
+    }
+
+    protected int availableToRead() {
+        return (int) (publishedWriteCount - totalReadCount);
+    }
+
+    /**
+     * Bytes in the buffer including those not yet published because the buffer is corked.
+     */
+    protected int buffered() {
+        return (int) (totalWriteCount - totalReadCount);
     }
 
     protected int availableToWrite() {
-        int rp = readPos;
-        int wp = writePos;
+        return Math.max(0, capacity - buffered());
+    }
 
-        if (rp > wp) {
-            return (rp-wp)-1;
+    /**
+     * While the buffer is corked written bytes are not visible to the reader until flush is called,
+     * the buffer is uncorked, the buffer runs full or eof is reached.
+     */
+    public void setCorked(boolean corked) {
+        this.corked = corked;
+        if (!corked) {
+            flush();
         }
+    }
+
+    public boolean isCorked() {
+        return corked;
+    }
 
-        if (wp > rp) {
-            return ((buffer.length-wp)+rp)-1;
+    /**
+     * Makes all written bytes visible to the reader.
+     */
+    public void flush() {
+        if (publishedWriteCount == totalWriteCount) {
+            return;
         }
 
-        return buffer.length-1;
+        //Only the writer modifies totalWriteCount so this does not race with itself.
+        publishedWriteCount = totalWriteCount;
+        signalReadable();
     }
 
     public boolean canWrite() {
@@ -91,48 +268,56 @@ public class RingBuffer {
             return av;
         }
 
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeout));
+        Thread current = Thread.currentThread();
+        boolean parked = false;
         try {
-        synchronized (waitForReadableBytes) {
-            av = availableToRead();
-            if (av > 0) {
-                return av;
-            }
+            while (true) {
+                av = availableToRead();
+                if (av > 0) {
+                    return av;
+                }
 
-            if (eof) {
-                return -1;
-            }
+                if (eof) {
+                    //Bytes may have been written just before eof.
+                    av = availableToRead();
+                    return av > 0 ? av : -1;
+                }
 
-            if (timeout == 0) {
-                return 0;
-            }
+                if (timeout == 0) {
+                    return 0;
+                }
 
-            synchronized (waitForReader) {
-                readerBlocked = true;
-                waitForReader.notifyAll();
-            }
+                long remaining = deadline - System.nanoTime();
+                if (timeout > 0 && remaining <= 0) {
+                    return 0;
+                }
 
-            try {
+                parkedReader = current;
+                setReaderBlocked(true);
+                //The writer may have published bytes before it could see parkedReader.
+                if (availableToRead() > 0 || eof) {
+                    continue;
+                }
+
+                parked = true;
                 if (timeout > 0) {
-                    waitForReadableBytes.wait(timeout);
+                    LockSupport.parkNanos(this, remaining);
                 } else {
-                    waitForReadableBytes.wait();
+                    LockSupport.park(this);
                 }
-            } catch (InterruptedException e) {
-                err(new InterruptedIOException());
-                return -1;
-            }
 
-            av = availableToRead();
-            if (av > 0) {
-                return av;
+                if (Thread.interrupted()) {
+                    err(new InterruptedIOException());
+                    return -1;
+                }
             }
-
-            return eof ? -1 : 0;
-        }
         } finally {
-            synchronized (waitForReader) {
-                readerBlocked = false;
-                waitForReader.notifyAll();
+            parkedReader = null;
+            setReaderBlocked(false);
+            if (parked) {
+                readBlockedNanos += System.nanoTime() - start;
             }
         }
     }
@@ -147,72 +332,103 @@ public class RingBuffer {
             return av;
         }
 
-        synchronized (waitForWriteableBytes) {
-            if (eof) {
-                return -1;
-            }
+        //The buffer is full, if it is corked the reader has to see the bytes or we would wait forever.
+        flush();
 
-            av = availableToWrite();
-            if (av > 0) {
-                return av;
-            }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeout));
+        Thread current = Thread.currentThread();
+        boolean parked = false;
+        try {
+            while (true) {
+                if (eof) {
+                    return -1;
+                }
 
+                av = availableToWrite();
+                if (av > 0) {
+                    return av;
+                }
 
+                if (timeout == 0) {
+                    return 0;
+                }
 
-            if (timeout == 0) {
-                return 0;
-            }
+                long remaining = deadline - System.nanoTime();
+                if (timeout > 0 && remaining <= 0) {
+                    return 0;
+                }
 
-            try {
+                parkedWriter = current;
+                if (availableToWrite() > 0 || eof) {
+                    continue;
+                }
+
+                parked = true;
                 if (timeout > 0) {
-                    waitForWriteableBytes.wait(timeout);
+                    LockSupport.parkNanos(this, remaining);
                 } else {
-                    waitForWriteableBytes.wait();
+                    LockSupport.park(this);
                 }
-            } catch (InterruptedException e) {
-                err(new InterruptedIOException());
-                return -1;
-            }
 
-            if (eof) {
-                return -1;
+                if (Thread.interrupted()) {
+                    err(new InterruptedIOException());
+                    return -1;
+                }
+            }
+        } finally {
+            parkedWriter = null;
+            if (parked) {
+                writeBlockedNanos += System.nanoTime() - start;
             }
-
-            return availableToWrite();
         }
     }
 
-    public boolean waitForEmpty(int timeout) {
-        synchronized (writeMutex) {
-            if (availableToRead() <= 0) {
-                return true;
-            }
-
-            if (timeout == 0) {
-                return false;
-            }
+    /**
+     * Waits on the state monitor until the condition is true, the buffer is eof or the timeout elapsed.
+     */
+    private boolean awaitState(int timeout, boolean waitForEmpty) {
+        long deadline = System.currentTimeMillis() + timeout;
+        stateMonitorWaiters.incrementAndGet();
+        try {
+            synchronized (stateMonitor) {
+                while (true) {
+                    boolean done = waitForEmpty ? buffered() <= 0 : readerBlocked;
+                    if (done) {
+                        return true;
+                    }
 
-            synchronized (waitForWriteableBytes) {
-                 if (availableToRead() <= 0) {
-                    return true;
-                 }
+                    if (eof) {
+                        return false;
+                    }
 
-                 if (eof) {
-                     return false;
-                 }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (timeout == 0 || (timeout > 0 && remaining <= 0)) {
+                        return false;
+                    }
 
                     try {
                         if (timeout > 0) {
-                            waitForReadableBytes.wait(timeout);
+                            stateMonitor.wait(remaining);
                         } else {
-                            waitForReadableBytes.wait();
+                            stateMonitor.wait();
                         }
                     } catch (InterruptedException e) {
-
+                        return false;
                     }
                 }
+            }
+        } finally {
+            stateMonitorWaiters.decrementAndGet();
+        }
+    }
 
-            return availableToRead() <= 0;
+    public boolean waitForEmpty(int timeout) {
+        writeMutex.lock();
+        try {
+            return awaitState(timeout, true);
+        } finally {
+            writeMutex.unlock();
         }
     }
 
@@ -225,33 +441,17 @@ public class RingBuffer {
             return readerBlocked;
         }
 
-        synchronized (writeMutex) {
-            synchronized (waitForReader) {
-                if (readerBlocked) {
-                    return true;
-                }
-
-                if (eof) {
-                    return false;
-                }
-
-                try {
-                    if (timeout > 0) {
-                        waitForReader.wait(timeout);
-                    } else {
-                        waitForReader.wait();
-                    }
-                } catch (InterruptedException e) {
-
-                }
-            }
-
-            return readerBlocked;
+        writeMutex.lock();
+        try {
+            return awaitState(timeout, false);
+        } finally {
+            writeMutex.unlock();
         }
     }
 
     public boolean waitForEmptyBufferAndBlockedReader(int singleTimeout, int totalTimeout) {
-        synchronized (writeMutex) {
+        writeMutex.lock();
+        try {
             if (totalTimeout == 0) {
                 singleTimeout = 0;
             }
@@ -277,11 +477,242 @@ public class RingBuffer {
             }
 
             return waitForReaderBlocked(timeout2);
+        } finally {
+            writeMutex.unlock();
+        }
+    }
+
+    //Reader side segment handling
+
+    /**
+     * Returns the amount of bytes that can be read from the head segment at headPos without crossing into the next segment.
+     * Must only be called by the reader after it checked that av bytes are available.
+     */
+    private int headReadable(int av) {
+        if (headPos == SEGMENT_SIZE) {
+            Segment old = head;
+            head = old.next;
+            headPos = 0;
+            pool.release(old);
+        }
+
+        return Math.min(av, SEGMENT_SIZE - headPos);
+    }
+
+    /**
+     * Marks count bytes from the head segment as read.
+     */
+    private void consumed(int count) {
+        headPos += count;
+        totalReadCount += count;
+        if (totalReadCount == totalWriteCount) {
+            releaseIfEmpty();
+        }
+        signalWriteable();
+    }
+
+    /**
+     * Gives all segments back to the pool if the buffer is empty.
+     * Does nothing if the writer is currently appending, the writer checks again once it is done.
+     */
+    private void releaseIfEmpty() {
+        if (!segmentState.compareAndSet(SEGMENTS_IDLE, SEGMENTS_RELEASING)) {
+            return;
+        }
+
+        try {
+            if (totalReadCount != totalWriteCount || head == null) {
+                return;
+            }
+
+            Segment s = head;
+            while (s != null) {
+                Segment next = s.next;
+                pool.release(s);
+                s = next;
+            }
+
+            head = null;
+            tail = null;
+            headPos = 0;
+            tailPos = 0;
+        } finally {
+            segmentState.set(SEGMENTS_IDLE);
+        }
+    }
+
+    /**
+     * Copies av bytes to the output and marks them as read.
+     */
+    private void copyOut(OutputStream output, int av) throws IOException {
+        while (av > 0) {
+            int r = headReadable(av);
+            output.write(head.data, headPos, r);
+            av -= r;
+            consumed(r);
+        }
+    }
+
+    //Writer side segment handling
+
+    /**
+     * Must be called by the writer before it touches the segment chain.
+     */
+    private void beginAppend() {
+        while (!segmentState.compareAndSet(SEGMENTS_IDLE, SEGMENTS_WRITING)) {
+            //Only the reader can hold it and releasing the segments is short.
+            Thread.yield();
+        }
+    }
+
+    private void endAppend() {
+        segmentState.set(SEGMENTS_IDLE);
+        //The reader may have emptied the buffer while we held the chain.
+        if (totalReadCount == totalWriteCount) {
+            releaseIfEmpty();
+        }
+    }
+
+    /**
+     * Ensures the tail segment has space. Must only be called between beginAppend and endAppend.
+     */
+    private void ensureTailSpace() {
+        if (tail == null) {
+            tail = pool.acquire();
+            tailPos = 0;
+            head = tail;
+            headPos = 0;
+            return;
+        }
+
+        if (tailPos == SEGMENT_SIZE) {
+            Segment next = pool.acquire();
+            tail.next = next;
+            tail = next;
+            tailPos = 0;
+        }
+    }
+
+    private void updateHighWaterMark() {
+        long buffered = totalWriteCount - totalReadCount;
+        if (buffered > highWaterMark) {
+            highWaterMark = buffered;
+        }
+    }
+
+    /**
+     * Most bytes that were ever held by this buffer at once.
+     */
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Total time readers spent waiting for bytes.
+     */
+    public long getReadBlockedNanos() {
+        return readBlockedNanos;
+    }
+
+    /**
+     * Total time writers spent waiting for space.
+     */
+    public long getWriteBlockedNanos() {
+        return writeBlockedNanos;
+    }
+
+    /**
+     * Copies count bytes into the buffer. Caller must have checked that there is space.
+     */
+    private void copyIn(byte[] wb, int off, int count) {
+        beginAppend();
+        try {
+            int done = 0;
+            while (done < count) {
+                ensureTailSpace();
+                int c = Math.min(count - done, SEGMENT_SIZE - tailPos);
+                System.arraycopy(wb, off + done, tail.data, tailPos, c);
+                tailPos += c;
+                done += c;
+            }
+
+            totalWriteCount += count;
+            updateHighWaterMark();
+            if (!corked) {
+                publishedWriteCount = totalWriteCount;
+            }
+        } finally {
+            endAppend();
+        }
+    }
+
+    /**
+     * Reads up to count bytes from the channel into the buffer. Caller must have checked that there is space.
+     * Returns the amount of bytes read, 0 if the channel had no more bytes.
+     */
+    private int copyIn(ReadableByteChannel channel, int count) throws IOException {
+        beginAppend();
+        try {
+            int done = 0;
+            while (done < count) {
+                ensureTailSpace();
+                int r = channel.read(ByteBuffer.wrap(tail.data, tailPos, Math.min(count - done, SEGMENT_SIZE - tailPos)));
+                if (r <= 0) {
+                    break;
+                }
+                tailPos += r;
+                done += r;
+            }
+
+            totalWriteCount += done;
+            updateHighWaterMark();
+            if (!corked) {
+                publishedWriteCount = totalWriteCount;
+            }
+            return done;
+        } finally {
+            endAppend();
+        }
+    }
+
+    /**
+     * Returns the length of the next line including its line feed if the whole line is already in the buffer.
+     * Otherwise returns the amount of bytes that can be read without waiting.
+     */
+    public int peekLineLength() {
+        readMutex.lock();
+        try {
+            int av = availableToRead();
+            Segment s = head;
+            int pos = headPos;
+            int len = 0;
+            while (len < av) {
+                if (pos == SEGMENT_SIZE) {
+                    s = s.next;
+                    pos = 0;
+                }
+
+                int end = pos + Math.min(av - len, SEGMENT_SIZE - pos);
+                byte[] data = s.data;
+                for (int i = pos; i < end; i++) {
+                    if (data[i] == '\n') {
+                        return len + (i - pos) + 1;
+                    }
+                }
+
+                len += end - pos;
+                pos = end;
+            }
+
+            return av;
+        } finally {
+            readMutex.unlock();
         }
     }
 
     public void readLine(OutputStream output, int singleTimeout, int totalTimeout) throws IOException, TimeoutException {
-       synchronized (readMutex) {
+       readMutex.lock();
+       try {
            long start = System.currentTimeMillis();
 
            if (totalTimeout == 0) {
@@ -303,37 +734,43 @@ public class RingBuffer {
                }
 
                while (av > 0) {
-                   byte b = buffer[readPos];
-                   int inc = readPos + 1;
-                   if (inc >= buffer.length) {
-                       inc = 0;
-                   }
-                   readPos = inc;
+                   int r = headReadable(av);
+                   byte[] data = head.data;
+                   int begin = headPos;
+                   int end = begin + r;
+                   for (int i = begin; i < end; i++) {
+                       byte b = data[i];
+                       if (b != '\r' && b != '\n') {
+                           continue;
+                       }
 
-                   av--;
-                   if (b == '\r') {
-                       continue;
-                   }
-                   if (b == '\n') {
-                       synchronized (waitForWriteableBytes) {
-                           waitForWriteableBytes.notifyAll();
+                       output.write(data, begin, i - begin);
+                       int used = (i - begin) + 1;
+                       av -= used;
+                       consumed(used);
+                       if (b == '\n') {
+                           return;
                        }
-                       return;
+                       begin = i + 1;
                    }
-                   output.write(b);
-               }
 
-               synchronized (waitForWriteableBytes) {
-                   waitForWriteableBytes.notifyAll();
+                   if (begin < end) {
+                       output.write(data, begin, end - begin);
+                       av -= end - begin;
+                       consumed(end - begin);
+                   }
                }
            } while (totalTimeout <= 0 || System.currentTimeMillis() - start < totalTimeout);
 
            throw new TimeoutException();
+       } finally {
+           readMutex.unlock();
        }
     }
 
     public void readAll(OutputStream output, int singleTimeout, int totalTimeout) throws IOException, TimeoutException {
-        synchronized (readMutex) {
+        readMutex.lock();
+        try {
             long start = System.currentTimeMillis();
             if (totalTimeout == 0) {
                 singleTimeout = 0;
@@ -353,33 +790,18 @@ public class RingBuffer {
                     throw new TimeoutException();
                 }
 
-                if (readPos+av <= buffer.length) {
-                    output.write(buffer, readPos, av);
-                    readPos+=av;
-                    synchronized (waitForWriteableBytes) {
-                        waitForWriteableBytes.notifyAll();
-                    }
-                    continue;
-                }
-                int firstRead = buffer.length-readPos;
-                output.write(buffer, readPos, firstRead);
-                int sr = av-firstRead;
-                if (sr > 0) {
-                    output.write(buffer, 0, sr);
-                }
-                readPos = sr;
-                synchronized (waitForWriteableBytes) {
-                    waitForWriteableBytes.notifyAll();
-                }
-
+                copyOut(output, av);
             } while (totalTimeout <= 0 || System.currentTimeMillis() - start < totalTimeout);
 
             throw new TimeoutException();
+        } finally {
+            readMutex.unlock();
         }
     }
 
     public int readBytes(OutputStream output, int timeout) throws IOException, TimeoutException {
-        synchronized (readMutex) {
+        readMutex.lock();
+        try {
             int av = waitForBytesToRead(timeout);
             if (av < 0) {
                 if (exc != null) {
@@ -393,30 +815,10 @@ public class RingBuffer {
                 throw new TimeoutException();
             }
 
-
-            if (readPos+av < buffer.length) {
-                output.write(buffer, readPos, av);
-                readPos+=av;
-
-                synchronized (waitForWriteableBytes) {
-                    waitForWriteableBytes.notifyAll();
-                }
-
-                return av;
-            }
-
-            int firstRead = buffer.length-readPos;
-            output.write(buffer, readPos, firstRead);
-            int sr = av-firstRead;
-            if (sr > 0) {
-                output.write(buffer, 0, sr);
-            }
-            readPos = sr;
-            synchronized (waitForWriteableBytes) {
-                waitForWriteableBytes.notifyAll();
-            }
-
+            copyOut(output, av);
             return av;
+        } finally {
+            readMutex.unlock();
         }
     }
 
@@ -425,7 +827,8 @@ public class RingBuffer {
             return;
         }
 
-        synchronized (readMutex) {
+        readMutex.lock();
+        try {
             long start = System.currentTimeMillis();
             if (totalTimeout == 0) {
                 singleTimeout = 0;
@@ -451,26 +854,7 @@ public class RingBuffer {
 
                 av = Math.min(av, count);
                 count-=av;
-
-                if (readPos+av < buffer.length) {
-                    output.write(buffer, readPos, av);
-                    readPos+=av;
-                    synchronized (waitForWriteableBytes) {
-                        waitForWriteableBytes.notifyAll();
-                    }
-                    continue;
-                }
-                int firstRead = buffer.length-readPos;
-                output.write(buffer, readPos, firstRead);
-                int sr = av-firstRead;
-                if (sr > 0) {
-                    output.write(buffer, 0, sr);
-                }
-                readPos = sr;
-                synchronized (waitForWriteableBytes) {
-                    waitForWriteableBytes.notifyAll();
-                }
-
+                copyOut(output, av);
             } while (totalTimeout <= 0 || System.currentTimeMillis() - start < totalTimeout);
 
             if (count == 0) {
@@ -478,9 +862,131 @@ public class RingBuffer {
             }
 
             throw new TimeoutException();
+        } finally {
+            readMutex.unlock();
+        }
+    }
+
+    /**
+     * Reads as many bytes from the channel into the buffer as fit in the current segment.
+     * Never blocks if the channel is in non blocking mode.
+     * Returns the amount of bytes read, 0 if the buffer is full or the channel had no data and -1 on end of stream.
+     * End of stream is not propagated to the buffer, the caller must call eof().
+     */
+    public int write(ReadableByteChannel channel) throws IOException {
+        writeMutex.lock();
+        try {
+            if (eof) {
+                return -1;
+            }
+
+            int av = availableToWrite();
+            if (av <= 0) {
+                return 0;
+            }
+
+            int read;
+            beginAppend();
+            try {
+                ensureTailSpace();
+                read = channel.read(ByteBuffer.wrap(tail.data, tailPos, Math.min(av, SEGMENT_SIZE - tailPos)));
+                if (read > 0) {
+                    tailPos += read;
+                    totalWriteCount += read;
+                    updateHighWaterMark();
+                    publishedWriteCount = totalWriteCount;
+                }
+            } finally {
+                //Dont hold on to a segment for nothing if the channel had no data.
+                endAppend();
+            }
+
+            if (read <= 0) {
+                return read;
+            }
+
+            signalReadable();
+            return read;
+        } finally {
+            writeMutex.unlock();
         }
     }
 
+    /**
+     * Writes as many bytes from the buffer into the channel as the channel accepts.
+     * Never blocks if the channel is in non blocking mode.
+     * Returns the amount of bytes written, 0 if the buffer is empty or the channel accepted nothing.
+     */
+    public int read(WritableByteChannel channel) throws IOException {
+        readMutex.lock();
+        try {
+            if (channel instanceof GatheringByteChannel) {
+                return readGathering((GatheringByteChannel) channel);
+            }
+
+            int total = 0;
+            while (true) {
+                int av = availableToRead();
+                if (av <= 0) {
+                    break;
+                }
+
+                int r = headReadable(av);
+                int written = channel.write(ByteBuffer.wrap(head.data, headPos, r));
+                if (written <= 0) {
+                    break;
+                }
+
+                total += written;
+                consumed(written);
+                if (written < r) {
+                    break;
+                }
+            }
+
+            return total;
+        } finally {
+            readMutex.unlock();
+        }
+    }
+
+    /**
+     * Maximum amount of segments written to a channel with one gathering write.
+     */
+    private static final int MAX_GATHER = 16;
+
+    /**
+     * Writes the readable bytes of up to MAX_GATHER segments to the channel with a single write call.
+     */
+    private int readGathering(GatheringByteChannel channel) throws IOException {
+        int av = availableToRead();
+        if (av <= 0) {
+            return 0;
+        }
+
+        int first = headReadable(av);
+        ByteBuffer[] buffers = new ByteBuffer[Math.min(MAX_GATHER, 2 + (av - first) / SEGMENT_SIZE)];
+        buffers[0] = ByteBuffer.wrap(head.data, headPos, first);
+        int count = 1;
+        int left = av - first;
+        Segment s = head;
+        while (left > 0 && count < buffers.length) {
+            s = s.next;
+            int c = Math.min(left, SEGMENT_SIZE);
+            buffers[count++] = ByteBuffer.wrap(s.data, 0, c);
+            left -= c;
+        }
+
+        long written = channel.write(buffers, 0, count);
+        long toConsume = written;
+        while (toConsume > 0) {
+            int r = headReadable((int) toConsume);
+            consumed(r);
+            toConsume -= r;
+        }
+
+        return (int) written;
+    }
 
     public long getTotalWriteCount() {
         return totalWriteCount;
@@ -491,7 +997,8 @@ public class RingBuffer {
             return 0;
         }
         int written = 0;
-        synchronized (writeMutex) {
+        writeMutex.lock();
+        try {
             long start = System.currentTimeMillis();
             if (totalTimeout == 0) {
                 singleTimeout = 0;
@@ -506,61 +1013,85 @@ public class RingBuffer {
                 int av = waitForBytesToWrite(singleTimeout);
                 if (av < 0) {
                     if (exc != null) {
-                        totalWriteCount+=written;
                         throw exc;
                     } else {
-                        totalWriteCount+=written;
                         throw new EOFException();
                     }
                 }
 
                 if (av == 0) {
-                    totalWriteCount+=written;
                     return written;
                 }
 
                 av = Math.min(av, leftToWrite);
+                copyIn(wb, wbstart+written, av);
+                written+=av;
+                if (!corked) {
+                    signalReadable();
+                }
+            } while (totalTimeout <= 0 || System.currentTimeMillis() - start < totalTimeout);
+
+            return written;
+        } finally {
+            writeMutex.unlock();
+        }
+    }
+
+    /**
+     * Fills the buffer with up to count bytes from the channel and waits for space like write(byte[]...) does.
+     * The bytes are read into the segments directly, this is used to send files without copying them into lua strings.
+     * Returns the amount of bytes written which is less than count on timeout or if the channel ended.
+     */
+    public long write(ReadableByteChannel channel, long count, int singleTimeout, int totalTimeout) throws IOException {
+        long written = 0;
+        writeMutex.lock();
+        try {
+            long start = System.currentTimeMillis();
+            if (totalTimeout == 0) {
+                singleTimeout = 0;
+            }
 
-                if (writePos+av < buffer.length) {
-                    System.arraycopy(wb, wbstart+written, buffer, writePos,av);
-                    written+=av;
-                    writePos+=av;
-                    synchronized (waitForReadableBytes) {
-                        waitForReadableBytes.notifyAll();
+            do {
+                long leftToWrite = count-written;
+                if (leftToWrite <= 0) {
+                    return written;
+                }
+
+                int av = waitForBytesToWrite(singleTimeout);
+                if (av < 0) {
+                    if (exc != null) {
+                        throw exc;
+                    } else {
+                        throw new EOFException();
                     }
-                    continue;
                 }
-                int firstRead = buffer.length-writePos;
-                System.arraycopy(wb, wbstart+written, buffer, writePos, firstRead);
-                written+=firstRead;
-                int sr = av-firstRead;
-                if (sr > 0) {
-                    System.arraycopy(wb, wbstart + written, buffer, 0, sr);
-                    written += sr;
+
+                if (av == 0) {
+                    return written;
                 }
-                writePos = sr;
-                synchronized (waitForReadableBytes) {
-                    waitForReadableBytes.notifyAll();
+
+                int read = copyIn(channel, (int) Math.min(av, leftToWrite));
+                if (read <= 0) {
+                    return written;
                 }
 
+                written+=read;
+                if (!corked) {
+                    signalReadable();
+                }
             } while (totalTimeout <= 0 || System.currentTimeMillis() - start < totalTimeout);
 
-            totalWriteCount+=written;
             return written;
+        } finally {
+            writeMutex.unlock();
         }
     }
 
     public void eof() {
+        publishedWriteCount = totalWriteCount;
         eof = true;
-        synchronized (waitForReadableBytes) {
-            waitForReadableBytes.notifyAll();
-        }
-        synchronized (waitForWriteableBytes) {
-            waitForWriteableBytes.notifyAll();
-        }
-        synchronized (waitForReader) {
-            waitForReader.notifyAll();
-        }
+        signalReadable();
+        signalWriteable();
     }
 
     public boolean isEof() {
@@ -572,16 +1103,10 @@ public class RingBuffer {
     }
 
     public void err(IOException exc) {
+        publishedWriteCount = totalWriteCount;
         eof = true;
         this.exc = exc;
-        synchronized (waitForReadableBytes) {
-            waitForReadableBytes.notifyAll();
-        }
-        synchronized (waitForWriteableBytes) {
-            waitForWriteableBytes.notifyAll();
-        }
-        synchronized (waitForReader) {
-            waitForReader.notifyAll();
-        }
+        signalReadable();
+        signalWriteable();
     }
 }
@@ -0,0 +1,96 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.tcp.java;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed size memory segments shared by all RingBuffers.
+ * A RingBuffer only holds segments while it contains data, so idle connections do not hold any memory.
+ */
+public class SegmentPool {
+
+    /**
+     * Size of each segment in bytes.
+     */
+    public static final int SEGMENT_SIZE = 4096;
+
+    private static final SegmentPool DEFAULT = new SegmentPool(1024);
+
+    private final Queue<Segment> pool = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private final int maxPooled;
+
+    /**
+     * Returns the pool used by RingBuffers unless another pool is given to them.
+     * It keeps up to 1024 unused segments (4 MiB).
+     */
+    public static SegmentPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param maxPooled maximum amount of unused segments kept for reuse. Further released segments are left to the gc.
+     */
+    public SegmentPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    public Segment acquire() {
+        Segment segment = pool.poll();
+        if (segment == null) {
+            return new Segment();
+        }
+
+        pooled.decrementAndGet();
+        return segment;
+    }
+
+    public void release(Segment segment) {
+        segment.next = null;
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+
+        pool.offer(segment);
+    }
+
+    /**
+     * Amount of unused segments currently held by the pool.
+     */
+    public int getPooledCount() {
+        return pooled.get();
+    }
+
+    /**
+     * A segment of a RingBuffer. Segments of a buffer are linked in the order the data was written.
+     */
+    public static class Segment {
+
+        final byte[] data = new byte[SEGMENT_SIZE];
+
+        volatile Segment next;
+    }
+}
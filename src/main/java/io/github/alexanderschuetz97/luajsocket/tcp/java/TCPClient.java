@@ -19,13 +19,20 @@
 //
 package io.github.alexanderschuetz97.luajsocket.tcp.java;
 
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
+import io.github.alexanderschuetz97.luajsocket.metrics.StripedCounter;
+import io.github.alexanderschuetz97.luajsocket.util.CountingOutputStream;
+
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.ReadableByteChannel;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a TCP client instance in TCPMaster.
@@ -36,11 +43,11 @@ public class TCPClient {
 
     private final TCPServer creator;
 
-    private final Socket socket;
+    private final Metrics metrics;
 
-    private final OutputStream socketOutputStream;
+    private final Socket socket;
 
-    private final InputStream socketInputStream;
+    private final TCPEngine engine;
 
     private final RingBuffer readFromSocketBuffer = new RingBuffer();
 
@@ -54,6 +61,12 @@ public class TCPClient {
 
     private volatile boolean writeErrorPassedOn = false;
 
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    //Blocked time of the buffers that was already added to the metrics.
+    private final AtomicLong countedReceiveBlockedNanos = new AtomicLong();
+    private final AtomicLong countedSendBlockedNanos = new AtomicLong();
+
     public TCPClient(Socket socket, TCPMaster master) throws IOException {
         this(socket, master, null);
     }
@@ -62,25 +75,88 @@ public class TCPClient {
         this.master = master;
         this.socket = socket;
         this.creator = creator;
-        this.socketOutputStream = socket.getOutputStream();
-        this.socketInputStream = socket.getInputStream();
+        this.metrics = master.getMetrics();
+        this.engine = master.getEngine();
+        applySettings(master.getSettings());
+        engine.start(this);
+        metrics.getConnections().increment();
+        master.notifyWriteReady();
+    }
+
+    /**
+     * Starts the blocking read and write jobs on the executor of the master. Used by BlockingTCPEngine.
+     */
+    void startBlockingJobs() throws IOException {
+        //Everything that is available in the ring is written with a single write call when the job flushes.
+        writeJob.socketOutputStream = new BufferedOutputStream(socket.getOutputStream(), RingBuffer.DEFAULT_CAPACITY);
+        readJob.socketInputStream = socket.getInputStream();
         master.execute(readJob);
         master.execute(writeJob);
     }
 
+    /**
+     * Applies the settings that are not socket options but affect the buffers of this client.
+     * These are the rcvbuf and sndbuf capacities and cork.
+     */
+    public void applySettings(TCPSettings settings) {
+        Boolean cork = settings.getCork();
+        if (cork != null) {
+            writeToSocketBuffer.setCorked(cork);
+        }
+
+        Integer rcv = settings.getReceiveBufferSize();
+        if (rcv != null) {
+            readFromSocketBuffer.setCapacity(rcv);
+        }
+
+        Integer snd = settings.getSendBufferSize();
+        if (snd != null) {
+            writeToSocketBuffer.setCapacity(snd);
+        }
+    }
+
+    /**
+     * Buffer that holds the bytes read from the socket that were not yet received by lua.
+     */
+    RingBuffer getReadBuffer() {
+        return readFromSocketBuffer;
+    }
+
+    /**
+     * Buffer that holds the bytes sent by lua that were not yet written to the socket.
+     */
+    RingBuffer getWriteBuffer() {
+        return writeToSocketBuffer;
+    }
+
+    /**
+     * Called by the engine just before it puts bytes into the read buffer.
+     */
+    void markReadPending() {
+        hasOneMoreReadQueue.set(true);
+    }
+
     public TCPMaster getMaster() {
         return master;
     }
 
     public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            metrics.getConnections().decrement();
+        }
+
         if (!socket.isClosed()) {
             synchronized (writeMutex) {
                 writeToSocketBuffer.eof();
             }
-            writeJob.awaitEOF();
+            awaitWriteDone();
         }
 
-        socket.close();
+        try {
+            socket.close();
+        } finally {
+            engine.closed(this);
+        }
 
         if (!writeErrorPassedOn && writeToSocketBuffer.getError() != null) {
             writeErrorPassedOn = true;
@@ -98,6 +174,9 @@ public class TCPClient {
         if (creator != null) {
             creator.getMaster().getStats().addBytesReceived(amt);
         }
+        metrics.getBytesReceived().add(amt);
+        metrics.getReceiveBufferHighWater().update(readFromSocketBuffer.getHighWaterMark());
+        addBlockedNanos(metrics.getReceiveBlockedNanos(), countedReceiveBlockedNanos, readFromSocketBuffer.getReadBlockedNanos());
     }
 
     private void incrementWrittenBytes(long amt) {
@@ -105,6 +184,44 @@ public class TCPClient {
         if (creator != null) {
             creator.getMaster().getStats().addBytesSent(amt);
         }
+        metrics.getBytesSent().add(amt);
+        metrics.getSendBufferHighWater().update(writeToSocketBuffer.getHighWaterMark());
+        addBlockedNanos(metrics.getSendBlockedNanos(), countedSendBlockedNanos, writeToSocketBuffer.getWriteBlockedNanos());
+    }
+
+    private static void addBlockedNanos(StripedCounter counter, AtomicLong counted, long blocked) {
+        long previous = counted.getAndSet(blocked);
+        if (blocked > previous) {
+            counter.add(blocked - previous);
+        }
+    }
+
+    /**
+     * Time lua spent waiting for bytes to receive on this connection.
+     */
+    public long getReceiveBlockedNanos() {
+        return readFromSocketBuffer.getReadBlockedNanos();
+    }
+
+    /**
+     * Time lua spent waiting for space in the send buffer of this connection.
+     */
+    public long getSendBlockedNanos() {
+        return writeToSocketBuffer.getWriteBlockedNanos();
+    }
+
+    /**
+     * Most bytes that were received but not yet read by lua at once.
+     */
+    public long getReceiveBufferHighWater() {
+        return readFromSocketBuffer.getHighWaterMark();
+    }
+
+    /**
+     * Most bytes that were sent by lua but not yet written to the socket at once.
+     */
+    public long getSendBufferHighWater() {
+        return writeToSocketBuffer.getHighWaterMark();
     }
 
     /**
@@ -115,6 +232,8 @@ public class TCPClient {
 
     public void readLine(ByteArrayOutputStream output, int singleTimeout, int totalTimeout) throws IOException, TimeoutException {
         hasOneMoreReadQueue.set(false);
+        //Whatever was corked must be sent before we wait for the answer.
+        writeToSocketBuffer.flush();
         if (singleTimeout != 0) {
             wasCalledWithNonZeroTimeout = true;
         }
@@ -133,6 +252,8 @@ public class TCPClient {
 
     public void readAll(ByteArrayOutputStream output, int singleTimeout, int totalTimeout) throws IOException, TimeoutException {
         hasOneMoreReadQueue.set(false);
+        //Whatever was corked must be sent before we wait for the answer.
+        writeToSocketBuffer.flush();
         if (singleTimeout != 0) {
             wasCalledWithNonZeroTimeout = true;
         }
@@ -152,6 +273,8 @@ public class TCPClient {
 
     public void readBytes(ByteArrayOutputStream output, int count, int singleTimeout, int totalTimeout) throws IOException, TimeoutException {
         hasOneMoreReadQueue.set(false);
+        //Whatever was corked must be sent before we wait for the answer.
+        writeToSocketBuffer.flush();
         if (singleTimeout != 0) {
             wasCalledWithNonZeroTimeout = true;
         }
@@ -168,6 +291,63 @@ public class TCPClient {
         }
     }
 
+    /**
+     * Receives count bytes into the output or, if count is negative, everything until the peer closes the connection.
+     * The bytes are written to the output directly from the receive buffer. Used by receivetofile.
+     * On error the output holds all bytes received so far.
+     */
+    public void readTo(CountingOutputStream output, long count, int singleTimeout, int totalTimeout) throws IOException, TimeoutException {
+        hasOneMoreReadQueue.set(false);
+        //Whatever was corked must be sent before we wait for the answer.
+        writeToSocketBuffer.flush();
+        if (singleTimeout != 0) {
+            wasCalledWithNonZeroTimeout = true;
+        }
+        if (singleTimeout == 0 && !wasCalledWithNonZeroTimeout) {
+            throw new TimeoutException();
+        }
+
+        long presize = output.getCount();
+        long start = System.currentTimeMillis();
+        try {
+            if (count < 0) {
+                readFromSocketBuffer.readAll(output, singleTimeout, totalTimeout);
+                return;
+            }
+
+            //readBytes only takes an int
+            while (output.getCount() - presize < count) {
+                int total = totalTimeout;
+                if (totalTimeout > 0) {
+                    total = (int) (totalTimeout - (System.currentTimeMillis() - start));
+                    if (total <= 0) {
+                        throw new TimeoutException();
+                    }
+                }
+
+                int n = (int) Math.min(count - (output.getCount() - presize), Integer.MAX_VALUE);
+                readFromSocketBuffer.readBytes(output, n, singleTimeout, total);
+            }
+        } finally {
+            incrementReadBytes(output.getCount() - presize);
+        }
+    }
+
+    /**
+     * Amount of bytes that can be received without waiting.
+     */
+    public int availableToReceive() {
+        return readFromSocketBuffer.availableToRead();
+    }
+
+    /**
+     * Length of the next line including the line feed if it was already received completely.
+     * Otherwise the amount of bytes that can be received without waiting.
+     */
+    public int availableLineLength() {
+        return readFromSocketBuffer.peekLineLength();
+    }
+
     private AtomicBoolean hasOneMoreReadQueue = new AtomicBoolean();
 
     public boolean readReady() {
@@ -178,6 +358,13 @@ public class TCPClient {
         return writeToSocketBuffer.canWrite();
     }
 
+    /**
+     * True if the connection is open, nothing was received that was not read yet and the peer did not close it.
+     */
+    public boolean isIdle() {
+        return !closed.get() && !socket.isClosed() && !readFromSocketBuffer.canRead() && writeToSocketBuffer.getError() == null;
+    }
+
     public int write(byte[] buffer, int off, int len, int singleTimeout, int totalTimeout) throws IOException {
         synchronized (writeMutex) {
 
@@ -193,6 +380,71 @@ public class TCPClient {
         }
     }
 
+    /**
+     * Sends up to count bytes read from the channel. The bytes are read into the send buffer directly. Used by sendfile.
+     * Returns the amount of bytes written which is less than count on timeout or if the channel ended.
+     */
+    public long write(ReadableByteChannel channel, long count, int singleTimeout, int totalTimeout) throws IOException {
+        synchronized (writeMutex) {
+            long presize = writeToSocketBuffer.getTotalWriteCount();
+            try {
+                return writeToSocketBuffer.write(channel, count, singleTimeout, totalTimeout);
+            } catch(Exception exc) {
+                writeErrorPassedOn = true;
+                throw exc;
+            } finally {
+                incrementWrittenBytes(writeToSocketBuffer.getTotalWriteCount() - presize);
+            }
+        }
+    }
+
+    /**
+     * Writes all chunks while holding the write mutex only once. The chunks are corked until all of them are buffered
+     * so the socket writer sees them all at once and can send them with as few writes as possible.
+     * Returns the amount of bytes written which is less than the sum of all lengths on timeout.
+     */
+    public long writev(byte[][] buffers, int[] offsets, int[] lengths, int singleTimeout, int totalTimeout) throws IOException {
+        synchronized (writeMutex) {
+            long presize = writeToSocketBuffer.getTotalWriteCount();
+            boolean wasCorked = writeToSocketBuffer.isCorked();
+            writeToSocketBuffer.setCorked(true);
+            long start = System.currentTimeMillis();
+            long written = 0;
+            try {
+                for (int i = 0; i < buffers.length; i++) {
+                    int total = totalTimeout;
+                    if (totalTimeout > 0) {
+                        total = (int) (totalTimeout - (System.currentTimeMillis() - start));
+                        if (total <= 0) {
+                            break;
+                        }
+                    }
+
+                    int w = writeToSocketBuffer.write(buffers[i], offsets[i], lengths[i], singleTimeout, total);
+                    written += w;
+                    if (w != lengths[i]) {
+                        break;
+                    }
+                }
+            } catch(Exception exc) {
+                writeErrorPassedOn = true;
+                throw exc;
+            } finally {
+                writeToSocketBuffer.setCorked(wasCorked);
+                incrementWrittenBytes(writeToSocketBuffer.getTotalWriteCount() - presize);
+            }
+
+            return written;
+        }
+    }
+
+    /**
+     * Sends all bytes that are held back because the client is corked.
+     */
+    public void flush() {
+        writeToSocketBuffer.flush();
+    }
+
     public int write(byte[] bytes, int timeout, int totalTimeout) throws IOException {
         return write(bytes, 0, bytes.length, timeout, totalTimeout);
     }
@@ -206,14 +458,44 @@ public class TCPClient {
             writeToSocketBuffer.eof();
         }
         //Wait for any async data not yet sent....
-        writeJob.awaitEOF();
+        awaitWriteDone();
+    }
+
+    private final Object writeDoneMutex = new Object();
+
+    private boolean writeDone = false;
+
+    /**
+     * Called by the engine once the write buffer reached eof and all data was written to the socket
+     * or if writing to the socket failed.
+     */
+    void signalWriteDone() {
+        synchronized (writeDoneMutex) {
+            writeDone = true;
+            writeDoneMutex.notifyAll();
+        }
+        master.notifyWriteReady();
+    }
+
+    private void awaitWriteDone() {
+        synchronized (writeDoneMutex) {
+            while (!writeDone) {
+                try {
+                    writeDoneMutex.wait();
+                } catch (InterruptedException e) {
+                    //DC.
+                }
+            }
+        }
     }
 
     class WriteJob implements Runnable {
-        volatile boolean done = false;
+
+        OutputStream socketOutputStream;
 
         @Override
         public void run() {
+            metrics.getThreads().increment();
             try {
                 while((writeToSocketBuffer.readBytes(socketOutputStream,-1) != -1)) {
                     socketOutputStream.flush();
@@ -225,31 +507,27 @@ public class TCPClient {
                 //cant occur.
             }
             finally {
-                synchronized (this) {
-                    done = true;
-                    this.notifyAll();
-                }
-                master.notifyWriteReady();
-            }
-        }
-
-        void awaitEOF() {
-            synchronized (this) {
-                while (!done) {
-                    try {
-                        this.wait();
-                    } catch (InterruptedException e) {
-                        //DC.
-                    }
-                }
+                metrics.getThreads().decrement();
+                signalWriteDone();
             }
         }
     }
 
     class ReadJob implements Runnable {
 
+        InputStream socketInputStream;
+
         @Override
         public void run() {
+            metrics.getThreads().increment();
+            try {
+                readLoop();
+            } finally {
+                metrics.getThreads().decrement();
+            }
+        }
+
+        private void readLoop() {
             byte[] buf = new byte[512];
             int i = 0;
             while(i != -1) {
@@ -262,7 +540,7 @@ public class TCPClient {
                 }
                 if (i > 0) {
                     try {
-                        hasOneMoreReadQueue.set(true);
+                        markReadPending();
                         master.notifyReadReady();
                         readFromSocketBuffer.write(buf, 0, i, -1, -1);
                     } catch (IOException e) {
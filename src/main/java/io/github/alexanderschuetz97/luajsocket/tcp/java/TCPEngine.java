@@ -0,0 +1,68 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.tcp.java;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Moves the bytes between the sockets and the RingBuffers of TCPClient and accepts connections for TCPServer.
+ * The engine is chosen when constructing LuaJSocketLib. Sockets passed to an engine must have been created by
+ * the same engine.
+ */
+public interface TCPEngine {
+
+    /**
+     * Creates a unconnected socket. The caller will connect it before passing it to start.
+     */
+    Socket createSocket() throws IOException;
+
+    /**
+     * Creates a unbound server socket. The caller will bind it before passing it to start.
+     */
+    ServerSocket createServerSocket() throws IOException;
+
+    /**
+     * Connects the socket of the pending connect without blocking the caller and
+     * calls complete on it once the connection is established or failed.
+     */
+    void connect(PendingConnect connect) throws IOException;
+
+    /**
+     * Start transferring data between the socket of the client and its buffers.
+     */
+    void start(TCPClient client) throws IOException;
+
+    /**
+     * Start accepting connections on the socket of the server.
+     */
+    void start(TCPServer server) throws IOException;
+
+    /**
+     * Called after the socket of the client was closed.
+     */
+    void closed(TCPClient client);
+
+    /**
+     * Called after the socket of the server was closed.
+     */
+    void closed(TCPServer server);
+}
@@ -19,32 +19,47 @@
 //
 package io.github.alexanderschuetz97.luajsocket.tcp.java;
 
+import io.github.alexanderschuetz97.luajsocket.dns.DNSResolver;
 import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
+import io.github.alexanderschuetz97.luajsocket.util.Selectable;
+import io.github.alexanderschuetz97.luajsocket.util.SocketSelector;
 import org.luaj.vm2.LuaError;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
 
 /**
  * Java Master Object for TCP connections.
  */
-public class TCPMaster {
+public class TCPMaster implements Selectable {
 
     protected final WeakReference<LuaJSocketLib> luaJSocket;
 
+    protected final SocketSelector selector;
+
+    protected final Metrics metrics;
+
     public TCPMaster(LuaJSocketLib socket) {
         luaJSocket = new WeakReference<>(socket);
+        selector = socket.getSocketSelector();
+        metrics = socket.getMetrics();
     }
 
     protected final TCPSettings settings = new TCPSettings();
 
     protected final TCPStats stats = new TCPStats();
 
-    protected TCPClient client;
+    protected volatile TCPClient client;
 
-    protected TCPServer server;
+    protected volatile TCPServer server;
+
+    protected volatile PendingConnect pendingConnect;
 
     protected volatile boolean isClosed;
 
@@ -56,6 +71,13 @@ public class TCPMaster {
         return stats;
     }
 
+    /**
+     * Counters shared by all sockets of the library that created this master.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     public TCPServer getServer() {
         return server;
     }
@@ -84,7 +106,6 @@ public class TCPMaster {
         this.client = new TCPClient(client, this);
     }
 
-
     public synchronized void setClient(TCPServer creator, Socket client) throws IOException {
         if (isInitialized()) {
             throw new LuaError("Already initialized");
@@ -95,6 +116,79 @@ public class TCPMaster {
         this.client = new TCPClient(client, this, creator);
     }
 
+    /**
+     * Starts connecting the socket to the address in the background.
+     * The master becomes a client once the returned PendingConnect completes successfully.
+     * An unresolved address is resolved with the DNSResolver of the library, in the background unless it is cached.
+     */
+    public synchronized PendingConnect startConnect(Socket socket, SocketAddress address) throws IOException {
+        if (isInitialized()) {
+            throw new LuaError("Already initialized");
+        }
+
+        getSettings().apply(socket);
+        final PendingConnect connect = new PendingConnect(this, socket, address, getSettings().getConnectTimeout());
+        pendingConnect = connect;
+
+        if (address instanceof InetSocketAddress && ((InetSocketAddress) address).isUnresolved()) {
+            final InetSocketAddress unresolved = (InetSocketAddress) address;
+            final DNSResolver resolver = getLuaJSocket().getDNSResolver();
+            InetAddress cached = resolver.resolveNow(unresolved.getHostString());
+            if (cached == null) {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        metrics.getThreads().increment();
+                        InetAddress resolved;
+                        try {
+                            resolved = resolver.resolve(unresolved.getHostString());
+                        } catch (IOException e) {
+                            connect.complete(e);
+                            return;
+                        } finally {
+                            metrics.getThreads().decrement();
+                        }
+
+                        connect(connect, new InetSocketAddress(resolved, unresolved.getPort()));
+                    }
+                });
+                return connect;
+            }
+
+            address = new InetSocketAddress(cached, unresolved.getPort());
+        }
+
+        connect(connect, address);
+        return connect;
+    }
+
+    private void connect(PendingConnect connect, SocketAddress address) {
+        connect.setAddress(address);
+        try {
+            getEngine().connect(connect);
+        } catch (IOException e) {
+            connect.complete(e);
+        }
+    }
+
+    /**
+     * Returns the connect started by startConnect or null if there is none.
+     */
+    public PendingConnect getPendingConnect() {
+        return pendingConnect;
+    }
+
+    /**
+     * Called by the PendingConnect once its socket is connected.
+     */
+    synchronized void connected(Socket socket) throws IOException {
+        if (isClosed) {
+            throw new IOException("closed");
+        }
+
+        this.client = new TCPClient(socket, this);
+    }
+
     public boolean isClient() {
         return client != null;
     }
@@ -113,6 +207,12 @@ public class TCPMaster {
 
     public synchronized void close() throws IOException {
         isClosed = true;
+        //Closed masters are never selected.
+        selector.remove(this);
+        PendingConnect connect = pendingConnect;
+        if (connect != null && !connect.isDone()) {
+            connect.complete(new IOException("closed"));
+        }
         if (client != null) {
             try {
                 client.close();
@@ -129,51 +229,107 @@ public class TCPMaster {
             server = null;
         }
     }
-    //Condition stuff
+    //Select stuff
+
+    @Override
+    public boolean isReadReady() {
+        TCPClient c = client;
+        if (c != null) {
+            return c.readReady();
+        }
+
+        TCPServer s = server;
+        if (s != null) {
+            return s.acceptReady();
+        }
 
-    protected volatile SelectCondition condition;
+        return false;
+    }
 
-    public synchronized void setCondition(SelectCondition condition) {
-        if (condition != null && this.condition != condition && this.condition != null) {
-            throw new IllegalStateException("Only one condition at a time");
+    @Override
+    public boolean isWriteReady() {
+        TCPClient c = client;
+        if (c != null) {
+            return c.writeReady();
         }
-        this.condition = condition;
 
+        //A failed connect is reported as writeable just like in luasocket.
+        PendingConnect connect = pendingConnect;
+        return connect != null && connect.isDone();
+    }
+
+    @Override
+    public void onSelect() {
         //If select called then this also accounts to the querk of needing to be called with a non zero timeout.
-        if (this.client != null) {
-            this.client.wasCalledWithNonZeroTimeout = true;
+        TCPClient c = client;
+        if (c != null) {
+            c.wasCalledWithNonZeroTimeout = true;
+        }
+    }
+
+    /**
+     * Called by socket.select if this socket is waited on for reading.
+     * Like receive it sends whatever was corked, the answer to it may be what select is waiting for.
+     */
+    public void onSelectRead() {
+        TCPClient c = client;
+        if (c != null) {
+            c.flush();
         }
     }
 
     public void notifyReadReady() {
-        SelectCondition cond = condition;
-        if (cond != null) {
-            condition.notifyReadReady(this);
+        if (!isClosed) {
+            selector.readReady(this);
         }
     }
 
     public void notifyWriteReady() {
-        SelectCondition cond = condition;
-        if (cond != null) {
-            condition.notifyWriteReady(this);
+        if (!isClosed) {
+            selector.writeReady(this);
         }
     }
 
-    //Condition stuff end
+    //Select stuff end
 
     /**
      * Delegate method to execute async task.
      */
     protected void execute(Runnable runnable) {
+        getLuaJSocket().execute(runnable);
+    }
+
+    /**
+     * Returns the engine that performs the socket io for this master.
+     */
+    public TCPEngine getEngine() {
+        return getLuaJSocket().getTCPEngine();
+    }
+
+    /**
+     * Creates a unconnected socket suitable for the engine of this master.
+     */
+    public Socket createSocket() throws IOException {
+        return getEngine().createSocket();
+    }
+
+    /**
+     * Creates a unbound server socket suitable for the engine of this master.
+     */
+    public ServerSocket createServerSocket() throws IOException {
+        return getEngine().createServerSocket();
+    }
+
+    protected LuaJSocketLib getLuaJSocket() {
         LuaJSocketLib socket = luaJSocket.get();
         if (socket == null) {
             throw new RuntimeException("LuaJSocket instance was garbage collected.");
         }
-        socket.execute(runnable);
+        return socket;
     }
 
     public boolean isInitialized() {
-        return isClosed || isClient() || isServer();
+        return isClosed || isClient() || isServer() || pendingConnect != null;
     }
 
     @Override
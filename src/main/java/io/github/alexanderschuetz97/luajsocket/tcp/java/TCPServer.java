@@ -29,6 +29,7 @@ import java.net.Socket;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Represents a TCP server instance in TCPMaster.
@@ -39,21 +40,60 @@ public class TCPServer {
 
     private final ServerSocket server;
 
+    private final TCPEngine engine;
+
     private final AcceptWorker worker = new AcceptWorker();
 
-    public TCPServer(TCPMaster master, ServerSocket socket) {
+    private volatile Runnable acceptListener;
+
+    public TCPServer(TCPMaster master, ServerSocket socket) throws IOException {
         this.master = master;
         this.server = socket;
+        this.engine = master.getEngine();
+        engine.start(this);
+        master.getMetrics().getServers().increment();
+    }
+
+    /**
+     * Starts the blocking accept worker on the executor of the master. Used by BlockingTCPEngine.
+     */
+    void startAcceptWorker() {
         master.execute(worker);
     }
 
+    /**
+     * Hands a socket or IOException accepted by a non blocking engine over to lua.
+     * Returns false if lua has not yet accepted the previous socket.
+     */
+    boolean offerAccepted(Object socket) {
+        if (!socketTransferQueue.offer(socket)) {
+            return false;
+        }
+
+        master.notifyReadReady();
+        return true;
+    }
+
+    /**
+     * Sets a listener that is called each time lua took a socket from this server.
+     */
+    void setAcceptListener(Runnable listener) {
+        this.acceptListener = listener;
+    }
+
     public TCPMaster getMaster() {
         return master;
     }
 
     private LinkedBlockingQueue<Object> socketTransferQueue = new LinkedBlockingQueue<>(1);
 
+    private final AtomicBoolean closed = new AtomicBoolean();
+
     public void close() {
+        if (closed.compareAndSet(false, true)) {
+            master.getMetrics().getServers().decrement();
+        }
+
         try {
             server.close();
         } catch (IOException e) {
@@ -61,6 +101,7 @@ public class TCPServer {
         }
 
        worker.interrupt();
+       engine.closed(this);
     }
 
     public ServerSocket getSocket() {
@@ -69,7 +110,7 @@ public class TCPServer {
 
     private volatile boolean hasSocket = false;
 
-    public synchronized boolean acceptReady() {
+    public boolean acceptReady() {
         if (server.isClosed()) {
             return true;
         }
@@ -98,6 +139,11 @@ public class TCPServer {
             throw new InterruptedIOException();
         }
 
+        Runnable listener = acceptListener;
+        if (listener != null) {
+            listener.run();
+        }
+
         if (socket instanceof IOException) {
             throw (IOException) socket;
         }
@@ -108,7 +154,7 @@ public class TCPServer {
         TCPMasterUserdata tcpMasterUserdata = (TCPMasterUserdata) getMaster().luaJSocket.get().createTCP();
         TCPMaster tcpMaster = tcpMasterUserdata.getMaster();
         master.getSettings().copyTo(tcpMaster.getSettings());
-        tcpMaster.setClient(theSock);
+        tcpMaster.setClient(this, theSock);
         return tcpMasterUserdata;
     }
 
@@ -124,6 +170,7 @@ public class TCPServer {
                 started = true;
                 this.notifyAll();
             }
+            master.getMetrics().getThreads().increment();
             try {
                 while(!server.isClosed()) {
                     Object socket;
@@ -150,6 +197,7 @@ public class TCPServer {
                     }
                 }
             } finally {
+                master.getMetrics().getThreads().decrement();
                 synchronized (this) {
                     workerThread = null;
                     Thread.interrupted();
@@ -25,6 +25,11 @@ import java.net.Socket;
 
 public class TCPSettings {
 
+    /**
+     * Connect timeout in milliseconds of sockets with a timeout of 0.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+
     private Boolean keepAlive;
 
     private Boolean lingerOn;
@@ -35,6 +40,12 @@ public class TCPSettings {
 
     private Boolean noDelay;
 
+    private Integer receiveBufferSize;
+
+    private Integer sendBufferSize;
+
+    private Boolean cork;
+
     private int singleTimeout = -1;
 
     private int totalTimeout = -1;
@@ -56,6 +67,37 @@ public class TCPSettings {
         this.noDelay = noDelay;
     }
 
+    /**
+     * Sets SO_RCVBUF and the capacity of the buffer that holds received bytes until lua reads them.
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 1) {
+            throw new IllegalArgumentException("buffer size must be at least 1");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Sets SO_SNDBUF and the capacity of the buffer that holds sent bytes until they are written to the socket.
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 1) {
+            throw new IllegalArgumentException("buffer size must be at least 1");
+        }
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * While corked sent data is held back until the client is uncorked, receives, is selected for reading, is closed or the send buffer is full.
+     */
+    public void setCork(boolean cork) {
+        this.cork = cork;
+    }
+
+    public Boolean getCork() {
+        return cork;
+    }
+
     public Boolean getKeepAlive() {
         return keepAlive;
     }
@@ -76,6 +118,14 @@ public class TCPSettings {
         return noDelay;
     }
 
+    public Integer getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public Integer getSendBufferSize() {
+        return sendBufferSize;
+    }
+
     public int getSingleTimeout() {
         return singleTimeout;
     }
@@ -96,6 +146,19 @@ public class TCPSettings {
         return totalTimeout;
     }
 
+    /**
+     * Timeout in milliseconds of the connect running in the background, 0 means no timeout.
+     * A socket with a timeout of 0 still connects in the background, that connect gives up after DEFAULT_CONNECT_TIMEOUT.
+     */
+    public int getConnectTimeout() {
+        int timeout = getMinTimeout();
+        if (timeout < 0) {
+            return 0;
+        }
+
+        return timeout == 0 ? DEFAULT_CONNECT_TIMEOUT : timeout;
+    }
+
     public void setSingleTimeout(int timeout) {
         this.singleTimeout = timeout;
     }
@@ -117,12 +180,24 @@ public class TCPSettings {
         if (keepAlive != null) {
             socket.setKeepAlive(keepAlive);
         }
+
+        if (receiveBufferSize != null) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+
+        if (sendBufferSize != null) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
     }
 
     public void apply(ServerSocket serverSocket) throws IOException {
         if (reuseAddress != null) {
             serverSocket.setReuseAddress(reuseAddress);
         }
+
+        if (receiveBufferSize != null) {
+            serverSocket.setReceiveBufferSize(receiveBufferSize);
+        }
     }
 
     public void copyTo(TCPSettings target) {
@@ -133,6 +208,9 @@ public class TCPSettings {
         target.singleTimeout = singleTimeout;
         target.totalTimeout = totalTimeout;
         target.reuseAddress = reuseAddress;
+        target.receiveBufferSize = receiveBufferSize;
+        target.sendBufferSize = sendBufferSize;
+        target.cork = cork;
     }
 
 }
@@ -20,21 +20,26 @@
 package io.github.alexanderschuetz97.luajsocket.tcp.java;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Byte counters and age of a connection or server as returned by getstats.
+ * The stats of a server also count the bytes of all clients it accepted, totals of all connections are in the Metrics of the library.
+ */
 public class TCPStats {
 
     private volatile long ageTSP = System.currentTimeMillis();
 
-    private volatile long bytesSent = 0;
+    private final AtomicLong bytesSent = new AtomicLong();
 
-    private volatile long bytesReceived = 0;
+    private final AtomicLong bytesReceived = new AtomicLong();
 
     public long getBytesReceived() {
-        return bytesReceived;
+        return bytesReceived.get();
     }
 
     public long getBytesSent() {
-        return bytesSent;
+        return bytesSent.get();
     }
 
     public long getAgeInSeconds() {
@@ -42,11 +47,11 @@ public class TCPStats {
     }
 
     public void setBytesSent(long bytesSent) {
-        this.bytesSent = bytesSent;
+        this.bytesSent.set(bytesSent);
     }
 
     public void setBytesReceived(long bytesReceived) {
-        this.bytesReceived = bytesReceived;
+        this.bytesReceived.set(bytesReceived);
     }
 
     public synchronized void setAgeInSeconds(int seconds) {
@@ -58,11 +63,12 @@ public class TCPStats {
         ageTSP = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(seconds);
     }
 
-    public synchronized void addBytesSent(long bytesSent) {
-        this.bytesSent += bytesSent;
+    public void addBytesSent(long bytesSent) {
+        this.bytesSent.addAndGet(bytesSent);
     }
-    public synchronized void addBytesReceived(long bytesSent) {
-        this.bytesReceived += bytesSent;
+
+    public void addBytesReceived(long bytesReceived) {
+        this.bytesReceived.addAndGet(bytesReceived);
     }
 
 
@@ -20,9 +20,11 @@
 package io.github.alexanderschuetz97.luajsocket.tcp.lua;
 
 import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
 import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
 import io.github.alexanderschuetz97.luajsocket.socket.AbstractLuaJSocketFunction;
 import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
 import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Varargs;
 
@@ -32,6 +34,8 @@ import org.luaj.vm2.Varargs;
  */
 abstract class AbstractTCPFunction extends AbstractLuaJSocketFunction {
 
+    private static final LuaString TIMEOUT = LuaString.valueOf("timeout");
+
     public AbstractTCPFunction(LuaJSocketLib env) {
         super(env);
     }
@@ -43,7 +47,33 @@ abstract class AbstractTCPFunction extends AbstractLuaJSocketFunction {
             throw new LuaError("Expected TCP Master Object got " + value.typename());
         }
 
-        return invoke(((TCPMasterUserdata) value).getMaster(), args.subargs(2));
+        TCPMaster master = ((TCPMasterUserdata) value).getMaster();
+        String operation = getOperation();
+        if (operation == null) {
+            return invoke(master, args.subargs(2));
+        }
+
+        Metrics.Operation metrics = master.getMetrics().getOperation(operation);
+        metrics.getCalls().increment();
+        long start = System.nanoTime();
+        Varargs res = invoke(master, args.subargs(2));
+        if (!res.arg1().isnil()) {
+            metrics.getLatency().record(System.nanoTime() - start);
+        } else if (TIMEOUT.raweq(res.arg(2))) {
+            metrics.getTimeouts().increment();
+        } else {
+            metrics.getErrors().increment();
+        }
+
+        return res;
+    }
+
+    /**
+     * Name under which calls, timeouts and errors of this function are counted in the Metrics.
+     * Null if the function is not counted.
+     */
+    protected String getOperation() {
+        return null;
     }
 
     protected abstract Varargs invoke(TCPMaster master, Varargs args);
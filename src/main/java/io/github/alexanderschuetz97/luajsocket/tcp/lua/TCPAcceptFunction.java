@@ -19,6 +19,7 @@ package io.github.alexanderschuetz97.luajsocket.tcp.lua;
 // If not, see <https://www.gnu.org/licenses/>.
 //
 import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
 import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
 import io.github.alexanderschuetz97.luajsocket.util.Util;
 import org.luaj.vm2.Varargs;
@@ -34,6 +35,11 @@ public class TCPAcceptFunction extends AbstractTCPFunction {
         super(env);
     }
 
+    @Override
+    protected String getOperation() {
+        return Metrics.ACCEPT;
+    }
+
     @Override
     protected Varargs invoke(TCPMaster master, Varargs args) {
         if (master.isClosed()) {
@@ -24,7 +24,6 @@ import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
 import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Varargs;
 
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 
@@ -54,9 +53,9 @@ public class TCPBindFunction extends AbstractTCPFunction {
         int port = args.checkint(2);
 
         try {
-            ServerSocket socket = new ServerSocket();
+            ServerSocket socket = master.createServerSocket();
             master.getSettings().apply(socket);
-            socket.bind(new InetSocketAddress( InetAddress.getByName(host), port));
+            socket.bind(new InetSocketAddress( luaJSocket.getDNSResolver().resolve(host), port));
             master.setServer(socket);
         } catch (Exception e) {
             return varargsOf(NIL, stringToLuaString(e.getMessage()));
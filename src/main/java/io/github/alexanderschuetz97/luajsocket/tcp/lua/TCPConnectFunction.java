@@ -20,18 +20,25 @@
 package io.github.alexanderschuetz97.luajsocket.tcp.lua;
 
 import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.PendingConnect;
 import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
 import io.github.alexanderschuetz97.luajsocket.util.Util;
 import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Varargs;
 
-import java.net.InetAddress;
+import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
 
 /**
  * This function connects a tcp master object to a endpoint turning it into a client.
+ *
+ * Connecting happens in the background. If the timeout elapses before the connection is established "timeout" is returned
+ * and the connect continues. The socket becomes writeable in select once it is done and calling connect again returns
+ * its result. This allows opening many connections at once with a timeout of 0 like in luasocket.
+ * Calling connect again with a different host or port while connecting fails. The background connect itself gives up
+ * after the timeout of the socket (TCPSettings.getConnectTimeout).
+ * Host names that are not cached are resolved in the background as part of the connect.
  */
 public class TCPConnectFunction extends AbstractTCPFunction {
 
@@ -39,34 +46,55 @@ public class TCPConnectFunction extends AbstractTCPFunction {
         super(env);
     }
 
+    @Override
+    protected String getOperation() {
+        return Metrics.CONNECT;
+    }
+
     @Override
     protected Varargs invoke(TCPMaster master, Varargs args) {
-        if (master.isInitialized()) {
-            return varargsOf(NIL, valueOf("TCP Object already used."));
-        }
+        PendingConnect connect = master.getPendingConnect();
+        if (connect == null) {
+            if (master.isInitialized()) {
+                return varargsOf(NIL, valueOf("TCP Object already used."));
+            }
+
+            if (args.narg() < 2) {
+                return varargsOf(NIL, valueOf("Too few arguments. Expected host and port."));
+            }
+            String host = args.checkjstring(1);
+            int port = args.checkint(2);
 
-        if (args.narg() < 2) {
-            return varargsOf(NIL, valueOf("Too few arguments. Expected host and port."));
+            try {
+                connect = master.startConnect(master.createSocket(), InetSocketAddress.createUnresolved(host, port));
+            } catch (Exception e) {
+                return varargsOf(NIL, Util.stringToLuaString(e.getMessage()));
+            }
+        } else if (args.narg() >= 2 && !isRequested(connect, args.checkjstring(1), args.checkint(2))) {
+            return varargsOf(NIL, valueOf("Already connecting to a different address."));
         }
-        String host = args.checkjstring(1);
-        int port = args.checkint(2);
 
-        int timeout = master.getSettings().getMinTimeout();
-        Socket socket = new Socket();
         try {
-            master.getSettings().apply(socket);
-            if (timeout < 0) {
-                socket.connect(new InetSocketAddress(InetAddress.getByName(host), port));
-            } else {
-                socket.connect(new InetSocketAddress(InetAddress.getByName(host), port), Math.max(1,timeout));
+            if (!connect.await(master.getSettings().getMinTimeout())) {
+                return varargsOf(NIL, valueOf("timeout"));
             }
-            master.setClient(socket);
-        } catch (SocketTimeoutException e) {
-            return varargsOf(NIL, valueOf("timeout"));
-        } catch (Exception e) {
-            return varargsOf(NIL, Util.stringToLuaString(e.getMessage()));
+        } catch (InterruptedException e) {
+            return varargsOf(NIL, valueOf("interrupted"));
+        }
+
+        IOException error = connect.getError();
+        if (error != null) {
+            return varargsOf(NIL, Util.stringToLuaString(error.getMessage()));
         }
 
         return LuaValue.ONE;
     }
+
+    private static boolean isRequested(PendingConnect connect, String host, int port) {
+        if (!(connect.getRequestedAddress() instanceof InetSocketAddress)) {
+            return false;
+        }
+        InetSocketAddress requested = (InetSocketAddress) connect.getRequestedAddress();
+        return requested.getPort() == port && requested.getHostString().equals(host);
+    }
 }
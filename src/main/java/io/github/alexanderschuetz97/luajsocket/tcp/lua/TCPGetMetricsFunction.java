@@ -0,0 +1,57 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.tcp.lua;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPClient;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPStats;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.Varargs;
+
+/**
+ * Returns a table with the counters of a single connection. Durations are in seconds.
+ * The buffer and blocked values are only present for connected clients.
+ */
+public class TCPGetMetricsFunction extends AbstractTCPFunction {
+
+    public TCPGetMetricsFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    protected Varargs invoke(TCPMaster master, Varargs args) {
+        TCPStats stats = master.getStats();
+        LuaTable table = new LuaTable();
+        table.set("bytessent", valueOf(stats.getBytesSent()));
+        table.set("bytesreceived", valueOf(stats.getBytesReceived()));
+        table.set("age", valueOf(stats.getAgeInSeconds()));
+
+        TCPClient client = master.getClient();
+        if (client != null) {
+            table.set("receiveblocked", valueOf(client.getReceiveBlockedNanos() / 1000000000d));
+            table.set("sendblocked", valueOf(client.getSendBlockedNanos() / 1000000000d));
+            table.set("receivebuffermax", valueOf(client.getReceiveBufferHighWater()));
+            table.set("sendbuffermax", valueOf(client.getSendBufferHighWater()));
+        }
+
+        return table;
+    }
+}
@@ -20,6 +20,7 @@
 package io.github.alexanderschuetz97.luajsocket.tcp.lua;
 
 import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
 import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPClient;
 import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
 import io.github.alexanderschuetz97.luajsocket.util.ByteArrayOutputStreamWithBufferAccess;
@@ -38,10 +39,24 @@ import java.util.concurrent.TimeoutException;
  */
 public class TCPReceiveFunction extends AbstractTCPFunction {
 
+    private static final int LINE = 0;
+    private static final int COUNT = 1;
+    private static final int ALL = 2;
+
+    /**
+     * receive(n) allocates its buffer for n bytes up front, but never more than this unless the bytes are already there.
+     */
+    private static final int MAX_PRESIZE = 1024 * 1024;
+
     public TCPReceiveFunction(LuaJSocketLib env) {
         super(env);
     }
 
+    @Override
+    protected String getOperation() {
+        return Metrics.RECEIVE;
+    }
+
     @Override
     protected Varargs invoke(TCPMaster master, Varargs args) {
         if (master.isClosed()) {
@@ -52,35 +67,65 @@ public class TCPReceiveFunction extends AbstractTCPFunction {
             return varargsOf(NIL, valueOf("Not a client."));
         }
 
-        ByteArrayOutputStreamWithBufferAccess baos = new ByteArrayOutputStreamWithBufferAccess();
-        if (args.isstring(2)) {
-            LuaString ls = args.checkstring(2);;
-            baos.write(ls.m_bytes, ls.m_offset, ls.m_length);
-        }
-
         TCPClient client = master.getClient();
         int timeout = master.getSettings().getSingleTimeout();
         int timeoutTotal = master.getSettings().getTotalTimeout();
 
+        int mode;
+        int count = 0;
+        if (args.isnoneornil(1)) {
+            mode = LINE;
+        } else if (args.isnumber(1)) {
+            mode = COUNT;
+            count = args.checkint(1);
+        } else if (args.isstring(1)) {
+            switch (args.checkjstring(1)) {
+                case "*a":
+                    mode = ALL;
+                    break;
+                case "*l":
+                    mode = LINE;
+                    break;
+                default:
+                    return varargsOf(NIL, valueOf("Unsupported pattern " + args.checkjstring(1)));
+            }
+        } else {
+            return varargsOf(NIL, valueOf("unexpected first parameter expected string or number got " + args.arg1().typename()));
+        }
+
+        LuaString prefix = args.isstring(2) ? args.checkstring(2) : null;
+        int prefixLength = prefix == null ? 0 : prefix.m_length;
+
+        //Size the buffer for what we expect to receive so it does not have to grow while copying out of the ring.
+        int expected;
+        switch (mode) {
+            case COUNT:
+                expected = Math.max(0, Math.min(count, Math.max(MAX_PRESIZE, client.availableToReceive())));
+                break;
+            case LINE:
+                expected = client.availableLineLength();
+                break;
+            default:
+                expected = client.availableToReceive();
+                break;
+        }
+
+        ByteArrayOutputStreamWithBufferAccess baos = new ByteArrayOutputStreamWithBufferAccess(prefixLength + expected);
+        if (prefix != null) {
+            baos.write(prefix.m_bytes, prefix.m_offset, prefix.m_length);
+        }
+
         try {
-            if (args.isnoneornil(1)) {
-                client.readLine(baos, timeout, timeoutTotal);
-            } else if (args.isnumber(1)) {
-                int count = args.checkint(1);
-                client.readBytes(baos, count, timeout, timeoutTotal);
-            } else if (args.isstring(1)) {
-                switch (args.checkjstring(1)) {
-                    case "*a":
-                        client.readAll(baos, timeout, timeoutTotal);
-                        break;
-                    case "*l":
-                        client.readLine(baos, timeout, timeoutTotal);
-                        break;
-                    default:
-                        return varargsOf(NIL, valueOf("Unsupported pattern " + args.checkjstring(1)));
-                }
-            } else {
-                return varargsOf(NIL, valueOf("unexpected first parameter expected string or number got " + args.arg1().typename()));
+            switch (mode) {
+                case COUNT:
+                    client.readBytes(baos, count, timeout, timeoutTotal);
+                    break;
+                case LINE:
+                    client.readLine(baos, timeout, timeoutTotal);
+                    break;
+                default:
+                    client.readAll(baos, timeout, timeoutTotal);
+                    break;
             }
         } catch (EOFException e) {
             return varargsOf(NIL, valueOf("closed"), LuaString.valueUsing(baos.getBuffer(), 0, baos.size()));
@@ -0,0 +1,88 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.tcp.lua;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
+import io.github.alexanderschuetz97.luajsocket.util.CountingOutputStream;
+import io.github.alexanderschuetz97.luajsocket.util.Util;
+import org.luaj.vm2.Varargs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * client:receivetofile(path, len)
+ * Receives len bytes into the file, or everything until the peer closes the connection if len is nil.
+ * The file is created or truncated. The bytes are written to the file directly from the receive buffer
+ * so the data never becomes a lua string.
+ * Returns the amount of bytes received or nil, the error and the amount of bytes received before the error or timeout.
+ * This is not part of luasocket.
+ */
+public class TCPReceiveToFileFunction extends AbstractTCPFunction {
+
+    public TCPReceiveToFileFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    protected String getOperation() {
+        return Metrics.RECEIVETOFILE;
+    }
+
+    @Override
+    protected Varargs invoke(TCPMaster master, Varargs args) {
+        if (master.isClosed()) {
+            return varargsOf(NIL, valueOf("closed"));
+        }
+
+        if (!master.isClient()) {
+            return varargsOf(NIL, valueOf("Not a client."));
+        }
+
+        String path = args.checkjstring(1);
+        long len = args.isnoneornil(2) ? -1 : Math.max(0, args.checklong(2));
+
+        int timeout = master.getSettings().getSingleTimeout();
+        int totalTimeout = master.getSettings().getTotalTimeout();
+        CountingOutputStream output = null;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            output = new CountingOutputStream(Channels.newOutputStream(channel));
+            master.getClient().readTo(output, len, timeout, totalTimeout);
+            return valueOf(output.getCount());
+        } catch (EOFException e) {
+            return varargsOf(NIL, valueOf("closed"), valueOf(received(output)));
+        } catch (TimeoutException e) {
+            return varargsOf(NIL, valueOf("timeout"), valueOf(received(output)));
+        } catch (IOException e) {
+            return varargsOf(NIL, Util.stringToLuaString(e.getMessage()), valueOf(received(output)));
+        }
+    }
+
+    private static long received(CountingOutputStream output) {
+        return output == null ? 0 : output.getCount();
+    }
+}
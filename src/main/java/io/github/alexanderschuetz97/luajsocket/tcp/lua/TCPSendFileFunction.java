@@ -0,0 +1,91 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.tcp.lua;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
+import io.github.alexanderschuetz97.luajsocket.util.Util;
+import org.luaj.vm2.Varargs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * client:sendfile(path, offset, len)
+ * Sends len bytes of the file starting at the byte offset (0 based). Without len the rest of the file is sent.
+ * The file is read into the send buffer directly so the data never becomes a lua string.
+ * Returns the amount of bytes sent or nil, the error and the amount of bytes sent before the error or timeout.
+ * If the file becomes shorter while it is sent the error says so instead of reporting a timeout.
+ * This is not part of luasocket.
+ */
+public class TCPSendFileFunction extends AbstractTCPFunction {
+
+    public TCPSendFileFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    protected String getOperation() {
+        return Metrics.SENDFILE;
+    }
+
+    @Override
+    protected Varargs invoke(TCPMaster master, Varargs args) {
+        if (master.isClosed()) {
+            return varargsOf(NIL, valueOf("closed"));
+        }
+
+        if (!master.isClient()) {
+            return varargsOf(NIL, valueOf("Not a client."));
+        }
+
+        String path = args.checkjstring(1);
+        long offset = Math.max(0, args.optlong(2, 0));
+        long len = args.optlong(3, -1);
+
+        int timeout = master.getSettings().getSingleTimeout();
+        int totalTimeout = master.getSettings().getTotalTimeout();
+        long sentBefore = master.getStats().getBytesSent();
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (len < 0 || len > size - offset) {
+                len = Math.max(0, size - offset);
+            }
+            channel.position(offset);
+
+            long sent = master.getClient().write(channel, len, timeout, totalTimeout);
+            if (sent != len) {
+                if (channel.position() >= channel.size()) {
+                    return varargsOf(NIL, valueOf("file ended before len bytes were sent"), valueOf(sent));
+                }
+                return varargsOf(NIL, valueOf("timeout"), valueOf(sent));
+            }
+            return valueOf(sent);
+        } catch (EOFException e) {
+            return varargsOf(NIL, valueOf("closed"), valueOf(master.getStats().getBytesSent() - sentBefore));
+        } catch (IOException e) {
+            return varargsOf(NIL, Util.stringToLuaString(e.getMessage()), valueOf(master.getStats().getBytesSent() - sentBefore));
+        }
+    }
+}
@@ -20,6 +20,7 @@
 package io.github.alexanderschuetz97.luajsocket.tcp.lua;
 
 import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
 import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
 import io.github.alexanderschuetz97.luajsocket.util.Util;
 import org.luaj.vm2.LuaString;
@@ -44,6 +45,11 @@ public class TCPSendFunction extends AbstractTCPFunction {
         super(env);
     }
 
+    @Override
+    protected String getOperation() {
+        return Metrics.SEND;
+    }
+
     @Override
     protected Varargs invoke(TCPMaster master, Varargs args) {
         if (master.isClosed()) {
@@ -0,0 +1,101 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.tcp.lua;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.metrics.Metrics;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.TCPMaster;
+import io.github.alexanderschuetz97.luajsocket.util.Util;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+
+/**
+ * Sends all strings of a table to a endpoint. client:sendv({chunk1, chunk2, ...} [, i [, j]])
+ * j is clamped to the length of the table like the indices of send.
+ * Can only be called in a client.
+ *
+ * This is the same as calling send for every chunk except that the chunks are buffered all at once
+ * and the socket only starts sending once all of them are buffered.
+ * Returns the total amount of bytes sent or nil, error message and the amount of bytes sent before the error occurred.
+ */
+public class TCPSendVFunction extends AbstractTCPFunction {
+
+    public TCPSendVFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    protected String getOperation() {
+        return Metrics.SENDV;
+    }
+
+    @Override
+    protected Varargs invoke(TCPMaster master, Varargs args) {
+        if (master.isClosed()) {
+            return varargsOf(NIL, valueOf("closed"));
+        }
+
+        if (!master.isClient()) {
+            return varargsOf(NIL, valueOf("Not a client."));
+        }
+
+        LuaTable table = args.checktable(1);
+        int i = Math.max(1, args.optint(2, 1));
+        int j = Math.min(args.optint(3, table.length()), table.length());
+        int count = Math.max(0, j - i + 1);
+
+        byte[][] buffers = new byte[count][];
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        long len = 0;
+        for (int k = 0; k < count; k++) {
+            LuaValue v = table.get(i + k);
+            if (!v.isstring()) {
+                return argerror(1, "chunk " + (i + k) + " is not a string");
+            }
+
+            LuaString chunk = v.checkstring();
+            buffers[k] = chunk.m_bytes;
+            offsets[k] = chunk.m_offset;
+            lengths[k] = chunk.m_length;
+            len += chunk.m_length;
+        }
+
+        if (len == 0) {
+            return LuaValue.ZERO;
+        }
+
+        int timeout = master.getSettings().getSingleTimeout();
+        int totalTimeout = master.getSettings().getTotalTimeout();
+        try {
+            long l = master.getClient().writev(buffers, offsets, lengths, timeout, totalTimeout);
+            if (l != len) {
+                return varargsOf(NIL, valueOf("timeout"), valueOf(l));
+            }
+        } catch (Exception e) {
+            return varargsOf(NIL, Util.stringToLuaString(e.getMessage()));
+        }
+
+        return valueOf(len);
+    }
+}
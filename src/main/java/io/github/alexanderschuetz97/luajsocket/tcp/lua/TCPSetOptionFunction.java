@@ -57,6 +57,21 @@ public class TCPSetOptionFunction extends AbstractTCPFunction {
             case "tcp-nodelay":
                 copy.setNoDelay(args.checkboolean(2));
                 break;
+            case "rcvbuf":
+                if (args.checkint(2) < 1) {
+                    return LuaValue.NIL;
+                }
+                copy.setReceiveBufferSize(args.checkint(2));
+                break;
+            case "sndbuf":
+                if (args.checkint(2) < 1) {
+                    return LuaValue.NIL;
+                }
+                copy.setSendBufferSize(args.checkint(2));
+                break;
+            case "cork":
+                copy.setCork(args.checkboolean(2));
+                break;
             default:
                 return LuaValue.NIL;
         }
@@ -64,6 +79,7 @@ public class TCPSetOptionFunction extends AbstractTCPFunction {
         if (master.isClient()) {
             try {
                 copy.apply(master.getClient().getSocket());
+                master.getClient().applySettings(copy);
                 copy.copyTo(settings);
                 return LuaValue.ONE;
             } catch (Exception e) {
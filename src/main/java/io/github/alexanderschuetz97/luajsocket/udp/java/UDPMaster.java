@@ -19,93 +19,406 @@
 //
 package io.github.alexanderschuetz97.luajsocket.udp.java;
 
+import io.github.alexanderschuetz97.luajsocket.dns.DNSResolver;
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.util.Selectable;
+import io.github.alexanderschuetz97.luajsocket.util.SocketSelector;
+import io.github.alexanderschuetz97.luajsocket.util.Util;
 import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
 
 import java.io.IOException;
-import java.net.*;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Java Master Object for UDP connections.
+ *
+ * The channel is non blocking. Waiting for a datagram or for space to send one is done with a selector that is
+ * only opened once an operation actually has to wait. Datagrams are received into pooled direct buffers and only
+ * the requested amount of bytes is copied out of them.
+ * Datagrams to addresses other than the connected peer are sent without disconnecting, see getOffPeerChannel.
+ * For socket.select the UDPWatcher reports arriving datagrams to the SocketSelector of the library.
  */
-public class UDPMaster {
+public class UDPMaster implements Selectable {
 
+    /**
+     * Largest possible udp payload.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 0xffff;
+
+    /**
+     * Most datagrams returned by a single receiveMany.
+     */
+    public static final int MAX_RECEIVE_MANY = 1024;
+
+    //initial size of the result tables of receiveMany, they grow if more datagrams are queued
+    private static final int RECEIVE_MANY_INITIAL = 16;
+
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    /**
+     * Amount of peers whose lua representation is cached before the cache is cleared.
+     */
+    private static final int MAX_CACHED_PEERS = 1024;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+
+    private final DatagramChannel channel;
     private final DatagramSocket socket;
-    private final DatagramPacket buffer = new DatagramPacket(new byte[0xffff], 0xffff );
-    private InetSocketAddress connectedAddress;
+    private volatile InetSocketAddress connectedAddress;
+
+    /**
+     * Timeout in milliseconds, negative means wait forever.
+     */
+    private volatile int timeout = -1;
+
+    private volatile DatagramChannel offPeerChannel;
 
-    public UDPMaster() {
+    private volatile Selector readSelector;
+    private volatile Selector writeSelector;
+
+    private final ConcurrentHashMap<SocketAddress, Peer> peers = new ConcurrentHashMap<>();
+
+    private final SocketSelector selector;
+
+    private final DNSResolver resolver;
+
+    /**
+     * True while the UDPWatcher waits for a datagram of this master.
+     */
+    private final AtomicBoolean watched = new AtomicBoolean();
+
+    /**
+     * Datagram that was received to find out if this master is ready to read. Handed out by the next receive.
+     */
+    private final AtomicReference<Datagram> pending = new AtomicReference<>();
+
+    public UDPMaster(LuaJSocketLib socket) {
+        selector = socket.getSocketSelector();
+        resolver = socket.getDNSResolver();
         try {
-            this.socket = new DatagramSocket();
+            this.channel = DatagramChannel.open();
+            this.channel.configureBlocking(false);
+            this.socket = channel.socket();
             this.socket.setReuseAddress(true);
-        } catch (SocketException e) {
+        } catch (IOException e) {
             throw new LuaError(e);
         }
     }
 
-    public synchronized void setTimeout(int timeout) throws IOException {
-        if (timeout == 0) {
-            timeout = 1;
+    /**
+     * Sets the timeout in milliseconds. 0 means do not wait at all, negative means wait forever.
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public synchronized void connect(String address, int port) throws IOException {
+        InetSocketAddress inetSocketAddress = new InetSocketAddress(resolver.resolve(address), port);
+        channel.connect(inetSocketAddress);
+        this.connectedAddress = inetSocketAddress;
+    }
+
+    public void send(byte[] payload, int off, int len) throws IOException {
+        InetSocketAddress address = connectedAddress;
+        if (address == null) {
+            throw new IOException("Not connected!");
+        }
+
+        send(ByteBuffer.wrap(payload, off, len), address);
+    }
+
+    public void sendTo(byte[] payload, int off, int len, String address, int port) throws IOException{
+        send(ByteBuffer.wrap(payload, off, len), new InetSocketAddress(resolver.resolve(address), port));
+    }
+
+    /**
+     * Sends all datagrams in order. A null target sends the datagram to the connected peer.
+     * Stops early if the timeout of this master expires and returns the amount of datagrams sent.
+     */
+    public int sendMany(ByteBuffer[] payloads, InetSocketAddress[] targets) throws IOException {
+        InetSocketAddress connected = connectedAddress;
+        for (InetSocketAddress target : targets) {
+            if (target == null && connected == null) {
+                throw new IOException("Not connected!");
+            }
         }
 
-        if (timeout < 0) {
-            timeout = 0;
+        Deadline deadline = deadline();
+        for (int i = 0; i < payloads.length; i++) {
+            if (!send(payloads[i], targets[i] == null ? connected : targets[i], deadline)) {
+                return i;
+            }
         }
 
-        socket.setSoTimeout(timeout);
+        return payloads.length;
     }
 
-    public synchronized void connect(String address, int port) throws IOException {
-        InetSocketAddress inetSocketAddress = new InetSocketAddress(InetAddress.getByName(address), port);
-        this.socket.connect(inetSocketAddress);
-        this.connectedAddress = inetSocketAddress;
+    private void send(ByteBuffer buffer, SocketAddress target) throws IOException {
+        if (!send(buffer, target, deadline())) {
+            throw new SocketTimeoutException();
+        }
+    }
 
+    private boolean send(ByteBuffer buffer, SocketAddress target, Deadline deadline) throws IOException {
+        InetSocketAddress connected = connectedAddress;
+        if (connected != null && !connected.equals(target)) {
+            //The off peer channel is blocking, udp sends only block briefly while the send buffer drains.
+            getOffPeerChannel().send(buffer, target);
+            return true;
+        }
+
+        while (channel.send(buffer, target) == 0) {
+            if (!await(SelectionKey.OP_WRITE, deadline)) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
-    public synchronized void send(byte[] payload, int off, int len) throws IOException {
-        if (connectedAddress == null) {
-            throw new IOException("Not connected!");
+    /**
+     * Receives one datagram and returns up to size bytes of it.
+     * The rest of the datagram is discarded.
+     */
+    public LuaString receive(int size) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            receive(buffer);
+            return toLuaString(buffer, size);
+        } finally {
+            releaseBuffer(buffer);
         }
-        DatagramPacket packet = new DatagramPacket(payload, off, len, connectedAddress);
-        socket.send(packet);
     }
 
-    public synchronized void sendTo(byte[] payload, int off, int len, String address, int port) throws IOException{
-        InetSocketAddress inetSocketAddress = new InetSocketAddress(InetAddress.getByName(address), port);
-        boolean dc = false;
-        if (connectedAddress != null && !connectedAddress.equals(inetSocketAddress)) {
-            //unlucky
-            socket.disconnect();
-            dc = true;
+    /**
+     * Receives one datagram and returns up to size bytes of it, the ip of the sender and the port of the sender.
+     */
+    public Varargs receiveFrom(int size) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            SocketAddress address = receive(buffer);
+            Peer peer = getPeer(address);
+            return LuaValue.varargsOf(toLuaString(buffer, size), peer.ip, peer.port);
+        } finally {
+            releaseBuffer(buffer);
         }
+    }
+
+    /**
+     * Waits up to timeout milliseconds for a datagram and then drains all datagrams that are already queued,
+     * up to maxCount (at most MAX_RECEIVE_MANY). Returns a table of payloads (each up to size bytes), a table of ips
+     * and a table of ports. A negative timeout uses the timeout of this master.
+     */
+    public Varargs receiveMany(int maxCount, int size, int timeout) throws IOException {
+        maxCount = Math.min(maxCount, MAX_RECEIVE_MANY);
+        int initial = Math.min(maxCount, RECEIVE_MANY_INITIAL);
+        LuaTable payloads = new LuaTable(initial, 0);
+        LuaTable ips = new LuaTable(initial, 0);
+        LuaTable ports = new LuaTable(initial, 0);
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            SocketAddress address = receive(buffer, timeout < 0 ? deadline() : new Deadline(timeout));
+            int i = 1;
+            while (true) {
+                Peer peer = getPeer(address);
+                payloads.rawset(i, toLuaString(buffer, size));
+                ips.rawset(i, peer.ip);
+                ports.rawset(i, peer.port);
+                if (i++ >= maxCount) {
+                    break;
+                }
 
-        socket.send(new DatagramPacket(payload, off, len, inetSocketAddress));
-        if (dc) {
-            socket.connect(connectedAddress);
+                buffer.clear();
+                address = channel.receive(buffer);
+                if (address == null) {
+                    break;
+                }
+                buffer.flip();
+            }
+        } finally {
+            releaseBuffer(buffer);
         }
+
+        return LuaValue.varargsOf(payloads, ips, ports);
     }
 
-    public synchronized byte[] receive() throws IOException {
-        socket.receive(buffer);
-        int l = buffer.getLength();
-        byte[] copy = new byte[l];
-        System.arraycopy(buffer.getData(), buffer.getOffset(), copy, 0, l);
-        return copy;
+    /**
+     * Receives one datagram into the buffer and flips it. Returns the sender.
+     */
+    private SocketAddress receive(ByteBuffer buffer) throws IOException {
+        return receive(buffer, deadline());
     }
 
-    public synchronized ReceiveFromResult receiveFrom() throws IOException {
-        socket.receive(buffer);
-        int l = buffer.getLength();
-        byte[] copy = new byte[l];
-        System.arraycopy(buffer.getData(), buffer.getOffset(), copy, 0, l);
-        return new ReceiveFromResult(new InetSocketAddress(buffer.getAddress(), buffer.getPort()), copy);
+    private SocketAddress receive(ByteBuffer buffer, Deadline deadline) throws IOException {
+        Datagram datagram = pending.getAndSet(null);
+        if (datagram != null) {
+            buffer.clear();
+            buffer.put(datagram.data);
+            buffer.flip();
+            return datagram.address;
+        }
+
+        while (true) {
+            buffer.clear();
+            SocketAddress address = channel.receive(buffer);
+            if (address != null) {
+                buffer.flip();
+                return address;
+            }
+
+            if (!await(SelectionKey.OP_READ, deadline)) {
+                throw new SocketTimeoutException();
+            }
+        }
     }
 
-    public synchronized void disconnect() {
-        socket.disconnect();
+    private static LuaString toLuaString(ByteBuffer buffer, int size) {
+        byte[] data = new byte[Math.max(0, Math.min(size, buffer.remaining()))];
+        buffer.get(data);
+        return LuaString.valueUsing(data);
+    }
+
+    /**
+     * Converting the sender address to lua values is cached so repeated datagrams from
+     * the same peer do not have to format the ip again.
+     */
+    private Peer getPeer(SocketAddress address) {
+        Peer peer = peers.get(address);
+        if (peer != null) {
+            return peer;
+        }
+
+        InetSocketAddress inet = (InetSocketAddress) address;
+        peer = new Peer(Util.stringToLuaString(Util.ipAddressToString(inet.getAddress())), LuaValue.valueOf(inet.getPort()));
+        if (peers.size() >= MAX_CACHED_PEERS) {
+            peers.clear();
+        }
+        peers.put(address, peer);
+        return peer;
+    }
+
+    private Deadline deadline() {
+        return new Deadline(timeout);
+    }
+
+    /**
+     * Waits until the channel is ready for the operation. Returns false if the deadline passed.
+     */
+    private boolean await(int op, Deadline deadline) throws IOException {
+        if (deadline.timeout == 0) {
+            return false;
+        }
+
+        Selector selector = getSelector(op);
+        if (deadline.timeout < 0) {
+            selector.select();
+        } else {
+            long remaining = deadline.end - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            //select(0) would wait forever
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+        }
+        selector.selectedKeys().clear();
+        if (!channel.isOpen()) {
+            throw new IOException("closed");
+        }
+        return true;
+    }
+
+    private Selector getSelector(int op) throws IOException {
+        Selector selector = op == SelectionKey.OP_READ ? readSelector : writeSelector;
+        if (selector != null) {
+            return selector;
+        }
+
+        synchronized (this) {
+            selector = op == SelectionKey.OP_READ ? readSelector : writeSelector;
+            if (selector == null) {
+                selector = Selector.open();
+                channel.register(selector, op);
+                if (op == SelectionKey.OP_READ) {
+                    readSelector = selector;
+                } else {
+                    writeSelector = selector;
+                }
+            }
+            return selector;
+        }
+    }
+
+    /**
+     * A connected channel can only send to its peer. Datagrams to any other address are sent with a second unconnected
+     * channel bound to the same local address so the connected association is never disturbed.
+     */
+    private DatagramChannel getOffPeerChannel() throws IOException {
+        DatagramChannel offPeer = offPeerChannel;
+        if (offPeer != null) {
+            return offPeer;
+        }
+
+        synchronized (this) {
+            if (offPeerChannel == null) {
+                if (!channel.isOpen()) {
+                    throw new IOException("closed");
+                }
+
+                offPeer = DatagramChannel.open();
+                try {
+                    DatagramSocket offPeerSocket = offPeer.socket();
+                    offPeerSocket.setReuseAddress(true);
+                    offPeerSocket.setBroadcast(socket.getBroadcast());
+                    offPeerSocket.bind(socket.getLocalSocketAddress());
+                } catch (IOException e) {
+                    offPeer.close();
+                    throw e;
+                }
+                offPeerChannel = offPeer;
+            }
+
+            return offPeerChannel;
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = BUFFERS.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        //Only an estimate, the pool may become slightly larger than the limit.
+        if (BUFFERS.size() < MAX_POOLED_BUFFERS) {
+            BUFFERS.offer(buffer);
+        }
+    }
+
+    public synchronized void disconnect() throws IOException {
+        channel.disconnect();
+        connectedAddress = null;
     }
 
     public synchronized void setBroadcast(boolean flag) throws IOException {
         socket.setBroadcast(flag);
+        if (offPeerChannel != null) {
+            offPeerChannel.socket().setBroadcast(flag);
+        }
     }
 
     public synchronized void bind(String address, int port) throws IOException {
@@ -113,7 +426,7 @@ public class UDPMaster {
             address = "0.0.0.0";
         }
 
-        socket.bind(new InetSocketAddress(InetAddress.getByName(address), port));
+        socket.bind(new InetSocketAddress(resolver.resolve(address), port));
     }
 
     public InetSocketAddress getConnectedAddress() {
@@ -129,24 +442,151 @@ public class UDPMaster {
     }
 
     public synchronized void close() {
-        socket.close();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //DC.
+        }
+
+        selector.remove(this);
+        pending.set(null);
+
+        if (offPeerChannel != null) {
+            try {
+                offPeerChannel.close();
+            } catch (IOException e) {
+                //DC.
+            }
+        }
+
+        closeSelector(readSelector);
+        closeSelector(writeSelector);
+    }
+
+    private static void closeSelector(Selector selector) {
+        if (selector == null) {
+            return;
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            //DC.
+        }
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    DatagramChannel getChannel() {
+        return channel;
+    }
+
+    //Select stuff
+
+    @Override
+    public boolean isReadReady() {
+        if (pending.get() != null) {
+            return true;
+        }
+
+        if (!channel.isOpen()) {
+            return false;
+        }
+
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            synchronized (pending) {
+                if (pending.get() != null) {
+                    return true;
+                }
+
+                buffer.clear();
+                SocketAddress address = channel.receive(buffer);
+                if (address != null) {
+                    buffer.flip();
+                    byte[] data = new byte[buffer.remaining()];
+                    buffer.get(data);
+                    pending.set(new Datagram(data, address));
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        } finally {
+            releaseBuffer(buffer);
+        }
+
+        watch();
+        return false;
+    }
+
+    @Override
+    public boolean isWriteReady() {
+        //Udp sends do not wait for the peer.
+        return channel.isOpen();
+    }
+
+    @Override
+    public void onSelect() {
+        watch();
+        selector.writeReady(this);
     }
 
-    public static class ReceiveFromResult {
-        final InetSocketAddress address;
+    private void watch() {
+        if (watched.compareAndSet(false, true)) {
+            UDPWatcher.getInstance().watch(this);
+        }
+    }
+
+    /**
+     * Called by the UDPWatcher once a datagram can be received.
+     */
+    void datagramArrived() {
+        watched.set(false);
+        if (channel.isOpen()) {
+            selector.readReady(this);
+        }
+    }
+
+    //Select stuff end
+
+    private static class Datagram {
         final byte[] data;
+        final SocketAddress address;
 
-        ReceiveFromResult(InetSocketAddress address, byte[] data) {
-            this.address = address;
+        Datagram(byte[] data, SocketAddress address) {
             this.data = data;
+            this.address = address;
         }
+    }
 
-        public byte[] getData() {
-            return data;
+    private static class Peer {
+        final LuaValue ip;
+        final LuaValue port;
+
+        Peer(LuaValue ip, LuaValue port) {
+            this.ip = ip;
+            this.port = port;
         }
+    }
+
+    /**
+     * When a blocking operation gives up. The timeout is kept apart from the System.nanoTime() value
+     * because any long, zero and negative ones included, may be a nanoTime.
+     */
+    private static class Deadline {
+
+        //negative waits forever, 0 does not wait at all
+        final int timeout;
+
+        //only compared by subtraction
+        final long end;
 
-        public InetSocketAddress getAddress() {
-            return address;
+        Deadline(int timeout) {
+            this.timeout = timeout;
+            this.end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeout));
         }
     }
 }
@@ -0,0 +1,119 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.udp.java;
+
+import org.luaj.vm2.LuaError;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Thread that waits for datagrams on udp sockets that are used with socket.select.
+ * A socket is watched once until a datagram arrives, it then reports itself to its SocketSelector and has to be
+ * watched again once it was drained. Registration is only done by the thread of the watcher.
+ */
+public class UDPWatcher implements Runnable {
+
+    private static UDPWatcher INSTANCE;
+
+    /**
+     * Returns the watcher shared by all udp sockets, the thread is started on first use.
+     */
+    public static synchronized UDPWatcher getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new UDPWatcher();
+            INSTANCE.thread.start();
+        }
+
+        return INSTANCE;
+    }
+
+    private final Selector selector;
+
+    private final Queue<UDPMaster> toWatch = new ConcurrentLinkedQueue<>();
+
+    private final Thread thread;
+
+    private UDPWatcher() {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new LuaError(e);
+        }
+
+        thread = new Thread(this, "luajsocket udp watcher");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Waits for the next datagram of the master and then calls UDPMaster.datagramArrived.
+     */
+    void watch(UDPMaster master) {
+        toWatch.add(master);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            UDPMaster master;
+            while ((master = toWatch.poll()) != null) {
+                DatagramChannel channel = master.getChannel();
+                try {
+                    SelectionKey key = channel.keyFor(selector);
+                    if (key == null) {
+                        channel.register(selector, SelectionKey.OP_READ, master);
+                    } else {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } catch (ClosedChannelException | CancelledKeyException exc) {
+                    //Master was closed.
+                }
+            }
+
+            try {
+                selector.select();
+            } catch (IOException e) {
+                continue;
+            }
+
+            Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+            while (iter.hasNext()) {
+                SelectionKey key = iter.next();
+                iter.remove();
+                try {
+                    key.interestOps(0);
+                    ((UDPMaster) key.attachment()).datagramArrived();
+                } catch (CancelledKeyException exc) {
+                    //Master was closed.
+                } catch (RuntimeException exc) {
+                    //DC.
+                }
+            }
+        }
+    }
+}
@@ -22,10 +22,8 @@ package io.github.alexanderschuetz97.luajsocket.udp.lua;
 import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
 import io.github.alexanderschuetz97.luajsocket.udp.java.UDPMaster;
 import io.github.alexanderschuetz97.luajsocket.util.Util;
-import org.luaj.vm2.LuaString;
 import org.luaj.vm2.Varargs;
 
-import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 
 public class UDPReceiveFromFunction extends AbstractUDPFunction{
@@ -36,12 +34,9 @@ public class UDPReceiveFromFunction extends AbstractUDPFunction{
 
     @Override
     protected Varargs invoke(UDPMaster master, Varargs args) {
-        int len = args.optint(1, 0xffff);
+        int len = Math.max(0, args.optint(1, UDPMaster.MAX_DATAGRAM_SIZE));
         try {
-            UDPMaster.ReceiveFromResult b = master.receiveFrom();
-            InetSocketAddress address = b.getAddress();
-            byte[] data = b.getData();
-            return varargsOf(LuaString.valueUsing(data, 0, Math.min(len, data.length)), Util.stringToLuaString(Util.ipAddressToString(address.getAddress())), valueOf(address.getPort()));
+            return master.receiveFrom(len);
         } catch (SocketTimeoutException e) {
             return varargsOf(NIL, valueOf("timeout"));
         } catch (Exception e) {
@@ -22,7 +22,6 @@ package io.github.alexanderschuetz97.luajsocket.udp.lua;
 import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
 import io.github.alexanderschuetz97.luajsocket.udp.java.UDPMaster;
 import io.github.alexanderschuetz97.luajsocket.util.Util;
-import org.luaj.vm2.LuaString;
 import org.luaj.vm2.Varargs;
 
 import java.net.SocketTimeoutException;
@@ -35,10 +34,9 @@ public class UDPReceiveFunction extends AbstractUDPFunction{
 
     @Override
     protected Varargs invoke(UDPMaster master, Varargs args) {
-        int len = args.optint(1, 0xffff);
+        int len = Math.max(0, args.optint(1, UDPMaster.MAX_DATAGRAM_SIZE));
         try {
-            byte[] b = master.receive();
-            return LuaString.valueUsing(b, 0, Math.min(len, b.length));
+            return master.receive(len);
         } catch (SocketTimeoutException e) {
             return varargsOf(NIL, valueOf("timeout"));
         } catch (Exception e) {
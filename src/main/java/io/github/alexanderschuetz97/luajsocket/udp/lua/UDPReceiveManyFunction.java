@@ -0,0 +1,58 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.udp.lua;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.udp.java.UDPMaster;
+import io.github.alexanderschuetz97.luajsocket.util.Util;
+import org.luaj.vm2.Varargs;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * udp:receivemany(maxcount, timeout, size)
+ * Waits up to timeout seconds for a datagram and then returns all datagrams that are already queued (up to maxcount)
+ * as three tables: payloads, ips and ports. A nil timeout uses the timeout set with settimeout.
+ * maxcount is capped at UDPMaster.MAX_RECEIVE_MANY.
+ */
+public class UDPReceiveManyFunction extends AbstractUDPFunction {
+
+    public UDPReceiveManyFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    protected Varargs invoke(UDPMaster master, Varargs args) {
+        int maxCount = args.optint(1, 64);
+        if (maxCount < 1) {
+            return varargsOf(NIL, valueOf("maxcount must be positive"));
+        }
+
+        double timeout = args.optdouble(2, -1);
+        int size = Math.max(0, args.optint(3, UDPMaster.MAX_DATAGRAM_SIZE));
+        try {
+            return master.receiveMany(maxCount, size, timeout < 0 ? -1 : (int) Math.min(Integer.MAX_VALUE, timeout * 1000));
+        } catch (SocketTimeoutException e) {
+            return varargsOf(NIL, valueOf("timeout"));
+        } catch (Exception e) {
+            return varargsOf(NIL, Util.stringToLuaString(e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.udp.lua;
+
+import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
+import io.github.alexanderschuetz97.luajsocket.udp.java.UDPMaster;
+import io.github.alexanderschuetz97.luajsocket.util.Util;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * udp:sendmany(list)
+ * Sends every entry of the list. An entry is either a string which is sent to the peer set with setpeername
+ * or a table {data, ip, port}. Returns the amount of datagrams sent or nil, error, amount sent.
+ */
+public class UDPSendManyFunction extends AbstractUDPFunction {
+
+    public UDPSendManyFunction(LuaJSocketLib env) {
+        super(env);
+    }
+
+    @Override
+    protected Varargs invoke(UDPMaster master, Varargs args) {
+        LuaTable list = args.checktable(1);
+        int len = list.length();
+        ByteBuffer[] payloads = new ByteBuffer[len];
+        InetSocketAddress[] targets = new InetSocketAddress[len];
+
+        try {
+            for (int i = 0; i < len; i++) {
+                LuaValue entry = list.rawget(i + 1);
+                LuaString data;
+                if (entry.istable()) {
+                    data = entry.get(1).checkstring();
+                    InetAddress address = luaJSocket.getDNSResolver().resolve(entry.get(2).checkjstring());
+                    targets[i] = new InetSocketAddress(address, entry.get(3).checkint());
+                } else {
+                    data = entry.checkstring();
+                }
+
+                payloads[i] = ByteBuffer.wrap(data.m_bytes, data.m_offset, data.m_length);
+            }
+
+            int sent = master.sendMany(payloads, targets);
+            if (sent < len) {
+                return varargsOf(NIL, valueOf("timeout"), valueOf(sent));
+            }
+
+            return valueOf(sent);
+        } catch (IOException e) {
+            return varargsOf(NIL, Util.stringToLuaString(e.getMessage()), ZERO);
+        }
+    }
+}
@@ -39,7 +39,7 @@ public class UDPSendToFunction extends AbstractUDPFunction {
         LuaString str = args.checkstring(1);
 
         try {
-            master.send(str.m_bytes, str.m_offset, str.m_length);
+            master.sendTo(str.m_bytes, str.m_offset, str.m_length, args.checkjstring(2), args.checkint(3));
         } catch (IOException e) {
             return LuaValue.varargsOf(LuaValue.NIL, Util.stringToLuaString(e.getMessage()));
         }
@@ -37,12 +37,12 @@ public class UDPSetPeerNameFunction extends AbstractUDPFunction {
     protected Varargs invoke(UDPMaster master, Varargs args) {
         String str = args.checkjstring(1);
 
-        if ("*".equals(str)) {
-            master.disconnect();
-            return LuaValue.ONE;
-        }
-
         try {
+            if ("*".equals(str)) {
+                master.disconnect();
+                return LuaValue.ONE;
+            }
+
             master.connect(str, args.checkint(2));
         } catch (IOException e) {
             return LuaValue.varargsOf(LuaValue.NIL, Util.stringToLuaString(e.getMessage()));
@@ -21,11 +21,8 @@ package io.github.alexanderschuetz97.luajsocket.udp.lua;
 
 import io.github.alexanderschuetz97.luajsocket.lib.LuaJSocketLib;
 import io.github.alexanderschuetz97.luajsocket.udp.java.UDPMaster;
-import io.github.alexanderschuetz97.luajsocket.util.Util;
 import org.luaj.vm2.Varargs;
 
-import java.io.IOException;
-
 public class UDPSetTimeoutFunction extends AbstractUDPFunction {
 
     public UDPSetTimeoutFunction(LuaJSocketLib env) {
@@ -34,11 +31,9 @@ public class UDPSetTimeoutFunction extends AbstractUDPFunction {
 
     @Override
     protected Varargs invoke(UDPMaster master, Varargs args) {
-        try {
-            master.setTimeout(args.optint(1, -1));
-            return ONE;
-        } catch (IOException e) {
-            return varargsOf(NIL, Util.stringToLuaString(e.getMessage()));
-        }
+        //Timeout is given in seconds and may be fractional.
+        double timeout = args.optdouble(1, -1);
+        master.setTimeout(timeout < 0 ? -1 : (int) Math.min(Integer.MAX_VALUE, timeout * 1000));
+        return ONE;
     }
 }
@@ -20,6 +20,7 @@
 package io.github.alexanderschuetz97.luajsocket.util;
 
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 
 /**
  * Sometimes, it is really not necessary to copy out the buffer from a byte array output stream.
@@ -42,6 +43,17 @@ public class ByteArrayOutputStreamWithBufferAccess extends ByteArrayOutputStream
         return buf;
     }
 
+    /**
+     * Grows the internal buffer to exactly fit additional more bytes if it is too small.
+     * Used when the amount of bytes that will be written is known in advance so the buffer does not have to grow repeatedly.
+     */
+    public void ensureCapacity(int additional) {
+        int required = count + additional;
+        if (additional > 0 && required > buf.length) {
+            buf = Arrays.copyOf(buf, required);
+        }
+    }
+
     //remove unneeded exception.
     public void write(byte b[]) {
         write(b, 0, b.length);
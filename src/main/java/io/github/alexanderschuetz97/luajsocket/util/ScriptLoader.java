@@ -4,13 +4,14 @@ import org.luaj.vm2.Globals;
 import org.luaj.vm2.LuaError;
 import org.luaj.vm2.LuaFunction;
 import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -18,12 +19,20 @@ import java.util.zip.ZipInputStream;
  * Utility to load the precompiled lua scripts.
  * Those scripts are loaded from java bytecode unless a debugLib is present.
  * Presence of a debugLib forces recompilation using globals.compiler.
+ *
+ * The classes are defined on the first load of each script and the prototypes compiled for a debugLib are kept.
+ * Both are immutable and shared by all Globals that use this loader, each load still returns a new function
+ * bound to the given Globals.
  */
 public class ScriptLoader {
 
     private static ScriptLoader instance;
 
-    private final Map<String, Class<? extends LuaFunction>> loaded = new HashMap<>();
+    private final Map<String, Class<? extends LuaFunction>> loaded = new ConcurrentHashMap<>();
+
+    private final Map<String, Prototype> prototypes = new ConcurrentHashMap<>();
+
+    private ClassLoader classLoader;
 
     public static synchronized ScriptLoader instance() {
         if (instance == null) {
@@ -59,6 +68,10 @@ public class ScriptLoader {
 
     protected static class BACL extends ClassLoader {
 
+        static {
+            registerAsParallelCapable();
+        }
+
         private final Map<String, byte[]> files;
 
         public BACL(Map<String, byte[]> files) {
@@ -82,45 +95,80 @@ public class ScriptLoader {
     }
 
     protected void init() {
-       ClassLoader urlClassLoader = getClassLoader();
+        classLoader = getClassLoader();
+    }
+
+    /**
+     * Returns the class of the precompiled script. The class is defined on first use.
+     */
+    protected Class<? extends LuaFunction> getScriptClass(String aScript) {
+        Class<? extends LuaFunction> clazz = loaded.get(aScript);
+        if (clazz != null) {
+            return clazz;
+        }
+
+        if (!aScript.endsWith(".lua")) {
+            throw new LuaError("Script " + aScript + " not found");
+        }
+
         try {
-            loaded.put("ftp.lua", (Class<? extends LuaFunction>) Class.forName("ftp", true, urlClassLoader));
-            loaded.put("headers.lua", (Class<? extends LuaFunction>) Class.forName("headers", true, urlClassLoader));
-            loaded.put("http.lua", (Class<? extends LuaFunction>) Class.forName("http", true, urlClassLoader));
-            loaded.put("ltn12.lua", (Class<? extends LuaFunction>) Class.forName("ltn12", true, urlClassLoader));
-            loaded.put("mime.lua", (Class<? extends LuaFunction>) Class.forName("mime", true, urlClassLoader));
-            loaded.put("smtp.lua", (Class<? extends LuaFunction>) Class.forName("smtp", true, urlClassLoader));
-            loaded.put("socket.lua", (Class<? extends LuaFunction>) Class.forName("socket", true, urlClassLoader));
-            loaded.put("tp.lua", (Class<? extends LuaFunction>) Class.forName("tp", true, urlClassLoader));
-            loaded.put("url.lua", (Class<? extends LuaFunction>) Class.forName("url", true, urlClassLoader));
+            clazz = Class.forName(aScript.substring(0, aScript.length()-4), true, classLoader).asSubclass(LuaFunction.class);
+        } catch (ClassNotFoundException e) {
+            throw new LuaError("Script " + aScript + " not found");
         } catch (Exception e) {
             throw new LuaError("Failed to load precompiled lua scripts from jar " + e.getClass().getName() + " " + e.getMessage());
         }
+
+        loaded.put(aScript, clazz);
+        return clazz;
     }
 
-    public LuaValue load(Globals globals, String aScript) {
-        if (globals.debuglib != null) {
-            InputStream in = ScriptLoader.class.getResourceAsStream("/luasocket/"+aScript);
+    /**
+     * Returns the prototype of the script compiled with globals.compiler. Only used if a debugLib is present.
+     */
+    protected Prototype getPrototype(Globals globals, String aScript) {
+        Prototype prototype = prototypes.get(aScript);
+        if (prototype != null) {
+            return prototype;
+        }
 
-            if (in == null) {
-                throw new LuaError("resource /luasocket/" + aScript + " is missing");
-            }
+        InputStream in = ScriptLoader.class.getResourceAsStream("/luasocket/"+aScript);
+
+        if (in == null) {
+            throw new LuaError("resource /luasocket/" + aScript + " is missing");
+        }
 
-            String script = null;
+        try {
+            prototype = globals.compilePrototype(in, aScript);
+        } catch (IOException e) {
+            throw new LuaError("Error reading resource /luasocket/" + aScript);
+        } finally {
             try {
-                script = Util.inputStreamToString(in);
+                in.close();
             } catch (IOException e) {
-                throw new LuaError("Error reading resource /luasocket/" + aScript);
+                //DC
             }
-
-            return globals.load(script, aScript, globals);
         }
 
-        Class<? extends LuaFunction> clazz = loaded.get(aScript);
-        if (clazz == null) {
-            throw new LuaError("Script " + aScript + " not found");
+        prototypes.put(aScript, prototype);
+        return prototype;
+    }
+
+    public LuaValue load(Globals globals, String aScript) {
+        if (globals.debuglib != null) {
+            if (globals.loader == null) {
+                throw new LuaError("No loader.");
+            }
+            Prototype prototype = getPrototype(globals, aScript);
+            try {
+                return globals.loader.load(prototype, aScript, globals);
+            } catch (IOException e) {
+                throw new LuaError("Error loading " + aScript + " " + e.getMessage());
+            }
         }
 
+        Class<? extends LuaFunction> clazz = getScriptClass(aScript);
+
         try {
             LuaFunction function = clazz.newInstance();
             function.initupvalue1(globals);
@@ -0,0 +1,42 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.util;
+
+/**
+ * Object that can be waited on by socket.select.
+ * Implementations must inform their SocketSelector each time they may have become ready.
+ */
+public interface Selectable {
+
+    /**
+     * Returns true if a receive/accept would not block.
+     */
+    boolean isReadReady();
+
+    /**
+     * Returns true if a send would not block.
+     */
+    boolean isWriteReady();
+
+    /**
+     * Called by socket.select before it checks the readiness of this object.
+     */
+    void onSelect();
+}
@@ -0,0 +1,156 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Long lived readiness registry used by socket.select.
+ *
+ * Sockets stay registered for their entire lifetime and report each time they may have become ready.
+ * They are then kept in a candidate set until a select finds out they are no longer ready.
+ * A select therefore only has to look at the sockets that are both candidates and part of its call.
+ * Any amount of concurrent selects may wait on the same socket.
+ */
+public class SocketSelector {
+
+    private final Set<Selectable> readCandidates = Collections.newSetFromMap(new ConcurrentHashMap<Selectable, Boolean>());
+
+    private final Set<Selectable> writeCandidates = Collections.newSetFromMap(new ConcurrentHashMap<Selectable, Boolean>());
+
+    private final Object mutex = new Object();
+
+    private volatile int waiters;
+
+    /**
+     * Informs the selector that the selectable may be ready to read/accept.
+     */
+    public void readReady(Selectable selectable) {
+        if (readCandidates.add(selectable) && waiters > 0) {
+            wakeup();
+        }
+    }
+
+    /**
+     * Informs the selector that the selectable may be ready to write.
+     */
+    public void writeReady(Selectable selectable) {
+        if (writeCandidates.add(selectable) && waiters > 0) {
+            wakeup();
+        }
+    }
+
+    /**
+     * Removes the selectable from the selector. Should be called once the selectable was closed.
+     */
+    public void remove(Selectable selectable) {
+        readCandidates.remove(selectable);
+        writeCandidates.remove(selectable);
+    }
+
+    protected void wakeup() {
+        synchronized (mutex) {
+            mutex.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until at least one of the given selectables is ready or the timeout (in milliseconds) elapses.
+     * negative timeout means wait forever. All ready selectables are added to the ready collections.
+     * Returns false on timeout.
+     */
+    public boolean select(Set<? extends Selectable> read, Set<? extends Selectable> write, Collection<Selectable> readyRead, Collection<Selectable> readyWrite, int timeout) {
+        long start = System.currentTimeMillis();
+        synchronized (mutex) {
+            waiters++;
+            try {
+                while (true) {
+                    scan(readCandidates, read, readyRead, true);
+                    scan(writeCandidates, write, readyWrite, false);
+                    if (!readyRead.isEmpty() || !readyWrite.isEmpty()) {
+                        return true;
+                    }
+
+                    if (timeout == 0) {
+                        return false;
+                    }
+
+                    try {
+                        if (timeout < 0) {
+                            mutex.wait();
+                        } else {
+                            long left = timeout - (System.currentTimeMillis() - start);
+                            if (left <= 0) {
+                                return false;
+                            }
+                            mutex.wait(left);
+                        }
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /**
+     * Only looks at selectables that are both candidates and wanted by the caller. Iterates over the smaller of the
+     * two sets so a select over a few sockets stays cheap while many other sockets are ready to write.
+     */
+    private static void scan(Set<Selectable> candidates, Set<? extends Selectable> wanted, Collection<Selectable> ready, boolean forRead) {
+        if (wanted.size() <= candidates.size()) {
+            for (Selectable selectable : wanted) {
+                if (candidates.contains(selectable)) {
+                    check(candidates, selectable, ready, forRead);
+                }
+            }
+            return;
+        }
+
+        for (Selectable candidate : candidates) {
+            if (wanted.contains(candidate)) {
+                check(candidates, candidate, ready, forRead);
+            }
+        }
+    }
+
+    private static void check(Set<Selectable> candidates, Selectable candidate, Collection<Selectable> ready, boolean forRead) {
+        if (isReady(candidate, forRead)) {
+            ready.add(candidate);
+            return;
+        }
+
+        //Stale. Check again after removing in case it became ready in between.
+        candidates.remove(candidate);
+        if (isReady(candidate, forRead)) {
+            candidates.add(candidate);
+            ready.add(candidate);
+        }
+    }
+
+    private static boolean isReady(Selectable selectable, boolean forRead) {
+        return forRead ? selectable.isReadReady() : selectable.isWriteReady();
+    }
+}
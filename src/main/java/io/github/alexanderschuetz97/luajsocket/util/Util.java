@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -81,13 +82,14 @@ public class Util {
     };
 
     /**
-     * Inverse base 64 table. Non Base64 Characters are null.
+     * Inverse base 64 table for all byte values. Non Base64 Characters are -1.
      * EX: 'A' -> 0
      * EX: 'D' -> 3
      */
-    public static final Integer[] B64TABLE_REVERSE = new Integer[123];
+    public static final int[] B64TABLE_REVERSE = new int[256];
 
     static {
+        Arrays.fill(B64TABLE_REVERSE, -1);
         for (int i = 0; i < BASE64_TABLE.length; i++) {
             B64TABLE_REVERSE[BASE64_TABLE[i]] = i;
         }
@@ -0,0 +1,72 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to the virtual thread executor of Java 21 and newer.
+ * The library is compiled for Java 7 so the executor is looked up reflectively.
+ */
+public class VirtualThreads {
+
+    private static final Method NEW_EXECUTOR;
+
+    static {
+        Method m;
+        try {
+            m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            //Java 19 and 20 have the method but throw unless preview features are enabled.
+            ((ExecutorService) m.invoke(null)).shutdown();
+        } catch (Exception e) {
+            m = null;
+        }
+        NEW_EXECUTOR = m;
+    }
+
+    private VirtualThreads() {
+
+    }
+
+    /**
+     * Returns true if the running JVM supports virtual threads.
+     */
+    public static boolean isAvailable() {
+        return NEW_EXECUTOR != null;
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread for every task
+     * or null if the running JVM does not support virtual threads.
+     */
+    public static ExecutorService newExecutor() {
+        if (NEW_EXECUTOR == null) {
+            return null;
+        }
+
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
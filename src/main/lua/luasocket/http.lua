@@ -21,6 +21,7 @@ local ltn12 = require("ltn12")
 local mime = require("mime")
 local string = require("string")
 local headers = require("socket.headers")
+local core = require("socket.http.core")
 local base = _G
 local table = require("table")
 socket.http = {}
@@ -33,6 +34,14 @@ local _M = socket.http
 _M.TIMEOUT = 60
 -- user agent field sent in request
 _M.USERAGENT = socket._VERSION
+-- reuse http connections if the server permits it
+_M.KEEPALIVE = true
+-- decompress gzip and deflate bodies unless the request says otherwise
+_M.DECOMPRESS = false
+-- keep-alive pool: setpool(maxperhost, idletimeout), getpool() and closeidle()
+_M.setpool = core.setpool
+_M.getpool = core.getpool
+_M.closeidle = core.closeidle
 
 -- supported schemes and their particulars
 local SCHEMES = {
@@ -56,31 +65,8 @@ local PORT = SCHEMES[SCHEME].port
 -- Reads MIME headers from a connection, unfolding where needed
 -----------------------------------------------------------------------------
 local function receiveheaders(sock, headers)
-    local line, name, value, err
-    headers = headers or {}
-    -- get first line
-    line, err = sock:receive()
-    if err then return nil, err end
-    -- headers go until a blank line is found
-    while line ~= "" do
-        -- get field-name and value
-        name, value = socket.skip(2, string.find(line, "^(.-):%s*(.*)"))
-        if not (name and value) then return nil, "malformed reponse headers" end
-        name = string.lower(name)
-        -- get next line (value might be folded)
-        line, err  = sock:receive()
-        if err then return nil, err end
-        -- unfold any folded values
-        while string.find(line, "^%s") do
-            value = value .. line
-            line = sock:receive()
-            if err then return nil, err end
-        end
-        -- save pair in table
-        if headers[name] then headers[name] = headers[name] .. ", " .. value
-        else headers[name] = value end
-    end
-    return headers
+    -- parsed in java, all lines are received at once
+    return core.receiveheaders(sock, headers)
 end
 
 -----------------------------------------------------------------------------
@@ -91,24 +77,8 @@ socket.sourcet["http-chunked"] = function(sock, headers)
         getfd = function() return sock:getfd() end,
         dirty = function() return sock:dirty() end
     }, {
-        __call = function()
-            -- get chunk size, skip extention
-            local line, err = sock:receive()
-            if err then return nil, err end
-            local size = base.tonumber(string.gsub(line, ";.*", ""), 16)
-            if not size then return nil, "invalid chunk size" end
-            -- was it the last chunk?
-            if size > 0 then
-                -- if not, get chunk and skip terminating CRLF
-                local chunk, err, part = sock:receive(size)
-                if chunk then sock:receive() end
-                return chunk, err
-            else
-                -- if it was, read trailers into headers table
-                headers, err = receiveheaders(sock, headers)
-                if not headers then return nil, err end
-            end
-        end
+        -- receives the chunk size line, the chunk and its line feed at once
+        __call = core.chunkedsource(sock, headers)
     })
 end
 
@@ -130,14 +100,30 @@ end
 -----------------------------------------------------------------------------
 local metat = { __index = {} }
 
-function _M.open(host, port, create)
-    -- create socket with user connect function, or with default
-    local c = socket.try(create())
-    local h = base.setmetatable({ c = c }, metat)
+function _M.open(host, port, create, scheme, new)
+    local h = base.setmetatable({}, metat)
+    -- plain tcp connections are taken from and released to the keep-alive pool
+    if _M.KEEPALIVE and create == socket.tcp then
+        h.pool = { scheme or SCHEME, host, port }
+        if not new then
+            h.c = core.take(scheme or SCHEME, host, port)
+            h.reused = h.c ~= nil
+        end
+    end
     -- create finalized try
     h.try = socket.newtry(function() h:close() end)
+    if h.reused then
+        h.try(h.c:settimeout(_M.TIMEOUT))
+        return h
+    end
+    -- create socket with user connect function, or with default
+    local c = socket.try(create())
+    h.c = c
     -- set timeout before connecting
     h.try(c:settimeout(_M.TIMEOUT))
+    -- the request line and headers of a request on a reused connection
+    -- would otherwise wait for the delayed ack of the previous segment
+    if h.pool then h.try(c:setoption("tcp-nodelay", true)) end
     h.try(c:connect(host, port))
     -- here everything worked
     return h
@@ -168,19 +154,11 @@ function metat.__index:sendbody(headers, source, step)
 end
 
 function metat.__index:receivestatusline()
-    local status,ec = self.try(self.c:receive(5))
+    local code, status = core.receivestatusline(self.c)
     -- identify HTTP/0.9 responses, which do not contain a status line
     -- this is just a heuristic, but is what the RFC recommends
-    if status ~= "HTTP/" then
-        if ec == "timeout" then
-            return 408
-        end
-        return nil, status
-    end
-    -- otherwise proceed reading a status line
-    status = self.try(self.c:receive("*l", status))
-    local code = socket.skip(2, string.find(status, "HTTP/%d*%.%d* (%d%d%d)"))
-    return self.try(base.tonumber(code), status)
+    if code == false then return nil, status end
+    return self.try(code, status)
 end
 
 function metat.__index:receiveheaders()
@@ -209,6 +187,14 @@ function metat.__index:close()
     return self.c:close()
 end
 
+-- puts the connection into the keep-alive pool, closes it if it did not come from the pool
+function metat.__index:release()
+    if self.pool then
+        return core.release(self.pool[1], self.pool[2], self.pool[3], self.c)
+    end
+    return self.c:close()
+end
+
 -----------------------------------------------------------------------------
 -- High level HTTP API
 -----------------------------------------------------------------------------
@@ -236,6 +222,27 @@ local function adjustproxy(reqt)
     end
 end
 
+-- content codings that are decoded if decompressing
+local CODINGS = { gzip = true, ["x-gzip"] = true, deflate = true }
+
+local function wantsdecompress(reqt)
+    if reqt.decompress == nil then return _M.DECOMPRESS end
+    return reqt.decompress
+end
+
+-- wraps the sink with a decoder for the content-encoding of the response
+local function decodesink(reqt, headers, sink)
+    local coding = string.lower(headers["content-encoding"] or "")
+    if not sink or not CODINGS[coding] or not wantsdecompress(reqt) then return sink end
+    local decoded = ltn12.sink.chain(mime.decode(coding), sink)
+    -- invalid data is reported like a failing sink, so the connection gets closed
+    return function(chunk, err)
+        local ok, ret, snkerr = base.pcall(decoded, chunk, err)
+        if not ok then return nil, ret end
+        return ret, snkerr
+    end
+end
+
 local function adjustheaders(reqt)
     -- default headers
     local host = reqt.host
@@ -245,9 +252,12 @@ local function adjustheaders(reqt)
     local lower = {
         ["user-agent"] = _M.USERAGENT,
         ["host"] = host,
-        ["connection"] = "close, TE",
+        ["connection"] = _M.KEEPALIVE and "TE" or "close, TE",
         ["te"] = "trailers"
     }
+    if wantsdecompress(reqt) then
+        lower["accept-encoding"] = "gzip, deflate"
+    end
     -- if we have authentication information, pass it along
     if reqt.user and reqt.password then
         lower["authorization"] =
@@ -323,6 +333,32 @@ local function shouldreceivebody(reqt, code)
     return 1
 end
 
+local function shouldkeepalive(reqt, code, status, headers)
+    local connection = string.lower(headers["connection"] or "")
+    if string.find(connection, "close", 1, true) then return false end
+    local requested = string.lower(base.tostring(reqt.headers["connection"] or ""))
+    if string.find(requested, "close", 1, true) then return false end
+    -- HTTP/1.0 servers close the connection unless they say otherwise
+    if not string.find(status, "^HTTP/1%.1") and
+            not string.find(connection, "keep-alive", 1, true) then return false end
+    if not shouldreceivebody(reqt, code) then return true end
+    -- the body must have ended before the connection did
+    local t = headers["transfer-encoding"]
+    if t and t ~= "identity" then return true end
+    return base.tonumber(headers["content-length"]) ~= nil
+end
+
+-- sends the request and receives the status line
+local function sendrequest(h, nreqt)
+    h:sendrequestline(nreqt.method, nreqt.uri)
+    h:sendheaders(nreqt.headers)
+    -- if there is a body, send it
+    if nreqt.source then
+        h:sendbody(nreqt.headers, nreqt.source, nreqt.step)
+    end
+    return h:receivestatusline()
+end
+
 -- forward declarations
 local trequest, tredirect
 
@@ -343,6 +379,7 @@ local trequest, tredirect
         proxy = reqt.proxy,
         maxredirects = reqt.maxredirects,
         nredirects = (reqt.nredirects or 0) + 1,
+        decompress = reqt.decompress,
         create = reqt.create
     }
     -- pass location header back as a hint we redirected
@@ -355,15 +392,21 @@ end
     -- we loop until we get what we want, or
     -- until we are sure there is no way to get it
     local nreqt = adjustrequest(reqt)
-    local h = _M.open(nreqt.host, nreqt.port, nreqt.create)
-    -- send request line and headers
-    h:sendrequestline(nreqt.method, nreqt.uri)
-    h:sendheaders(nreqt.headers)
-    -- if there is a body, send it
-    if nreqt.source then
-        h:sendbody(nreqt.headers, nreqt.source, nreqt.step)
+    local h = _M.open(nreqt.host, nreqt.port, nreqt.create, nreqt.scheme)
+    local code, status
+    if h.reused and not nreqt.source then
+        -- the server may have closed the idle connection while we sent
+        -- the request, in that case try once more on a new connection
+        local ok
+        ok, code, status = base.pcall(sendrequest, h, nreqt)
+        if not ok then
+            h:close()
+            h = _M.open(nreqt.host, nreqt.port, nreqt.create, nreqt.scheme, true)
+            code, status = sendrequest(h, nreqt)
+        end
+    else
+        code, status = sendrequest(h, nreqt)
     end
-    local code, status = h:receivestatusline()
     -- if it is an HTTP/0.9 server, simply get the body and we are done
     if not code then
         h:receive09body(status, nreqt.sink, nreqt.step)
@@ -386,9 +429,10 @@ end
     end
     -- here we are finally done
     if shouldreceivebody(nreqt, code) then
-        h:receivebody(headers, nreqt.sink, nreqt.step)
+        h:receivebody(headers, decodesink(nreqt, headers, nreqt.sink), nreqt.step)
     end
-    h:close()
+    if shouldkeepalive(nreqt, code, status, headers) then h:release()
+    else h:close() end
     return 1, code, headers, status
 end
 
@@ -424,5 +468,133 @@ _M.request = socket.protect(function(reqt, body)
     else return trequest(reqt) end
 end)
 
+-- receives one response of a pipeline, redirects are not followed
+local function receiveresponse(h, nreqt)
+    local code, status = h:receivestatusline()
+    if not code then h.try(nil, "HTTP/0.9 response in pipeline") end
+    local headers
+    -- ignore any 100-continue messages
+    while code == 100 do
+        headers = h:receiveheaders()
+        code, status = h:receivestatusline()
+    end
+    headers = h:receiveheaders()
+    if shouldreceivebody(nreqt, code) then
+        h:receivebody(headers, decodesink(nreqt, headers, nreqt.sink), nreqt.step)
+    end
+    return code, status, headers
+end
+
+local function tpipeline(reqts)
+    local nreqts, targets = {}, {}
+    for i, reqt in base.ipairs(reqts) do
+        if base.type(reqt) == "string" then
+            reqt = genericform(reqt)
+            targets[i] = reqt.target
+        end
+        if reqt.source then socket.try(nil, "pipelined requests can't have a body") end
+        nreqts[i] = adjustrequest(reqt)
+        if nreqts[i].host ~= nreqts[1].host or nreqts[i].port ~= nreqts[1].port
+                or nreqts[i].scheme ~= nreqts[1].scheme then
+            socket.try(nil, "pipelined requests must go to the same host")
+        end
+    end
+    local results = {}
+    local first, n = nreqts[1], #nreqts
+    local i, new = 1, false
+    while i <= n do
+        local h = _M.open(first.host, first.port, first.create, first.scheme, new)
+        -- send all requests that are left in one write burst
+        if h.c.setoption then h.c:setoption("cork", true) end
+        for j = i, n do
+            h:sendrequestline(nreqts[j].method, nreqts[j].uri)
+            h:sendheaders(nreqts[j].headers)
+        end
+        if h.c.setoption then h.c:setoption("cork", false) end
+        -- receive the responses in order until the server closes the connection
+        local start, keep = i, true
+        while keep and i <= n do
+            local ok, code, status, headers = base.pcall(receiveresponse, h, nreqts[i])
+            if not ok then
+                h:close()
+                -- the server may have closed the idle connection, try once more on a new one
+                if h.reused and i == start then break end
+                for j = i, n do results[j] = { nil, code } end
+                return results
+            end
+            local result = 1
+            if targets[i] then result = table.concat(targets[i]) end
+            results[i] = { result, code, headers, status }
+            keep = shouldkeepalive(nreqts[i], code, status, headers)
+            i = i + 1
+        end
+        if keep and i > n then h:release()
+        elseif not h.reused or i > start then h:close() end
+        new = true
+    end
+    return results
+end
+
+_M.pipeline = socket.protect(tpipeline)
+
+-- request line and headers of a request as sent by sendrequestline and sendheaders
+local function requesthead(nreqt)
+    local canonic = headers.canonic
+    local h = "\r\n"
+    for f, v in base.pairs(nreqt.headers) do
+        h = (canonic[f] or f) .. ": " .. v .. "\r\n" .. h
+    end
+    return string.format("%s %s HTTP/1.1\r\n", nreqt.method, nreqt.uri) .. h
+end
+
+local function trequestall(reqts, opts)
+    opts = opts or {}
+    local list, nreqts = {}, {}
+    for i, reqt in base.ipairs(reqts) do
+        if base.type(reqt) == "string" then reqt = { url = reqt } end
+        if reqt.source or reqt.sink then
+            socket.try(nil, "requestall can't use sources or sinks, pass the body as string")
+        end
+        local body = reqt.body
+        if body then
+            -- like genericform, but the caller may override method and headers
+            local breqt = { method = "POST" }
+            for k, v in base.pairs(reqt) do breqt[k] = v end
+            breqt.headers = { ["content-length"] = string.len(body) }
+            for k, v in base.pairs(reqt.headers or {}) do breqt.headers[k] = v end
+            reqt = breqt
+        end
+        local nreqt = adjustrequest(reqt)
+        nreqts[i] = nreqt
+        if nreqt.create ~= socket.tcp then
+            socket.try(nil, "requestall only supports plain http")
+        end
+        local requested = string.lower(base.tostring(nreqt.headers["connection"] or ""))
+        list[i] = {
+            scheme = nreqt.scheme,
+            host = nreqt.host,
+            port = base.tonumber(nreqt.port),
+            head = requesthead(nreqt),
+            body = body,
+            receivebody = nreqt.method ~= "HEAD",
+            keepalive = _M.KEEPALIVE and not string.find(requested, "close", 1, true)
+        }
+    end
+    local results = core.requestall(list, opts.concurrency, _M.TIMEOUT, opts.timeout)
+    for i, r in base.ipairs(results) do
+        if r[1] and r[3] then
+            local t = {}
+            local sink = decodesink(nreqts[i], r[3], ltn12.sink.table(t))
+            local ok, err = sink(r[1])
+            if ok then ok, err = sink(nil) end
+            if not ok then results[i] = { nil, err }
+            else r[1] = table.concat(t) end
+        end
+    end
+    return results
+end
+
+_M.requestall = socket.protect(trequestall)
+
 _M.schemes = SCHEMES
 return _M
\ No newline at end of file
@@ -17,6 +17,7 @@
 -----------------------------------------------------------------------------
 local string = require("string")
 local table = require("table")
+local core = require("ltn12.core")
 local unpack = unpack or table.unpack
 local base = _G
 local _M = {}
@@ -52,35 +53,8 @@ end
 
 -- chains a bunch of filters together
 -- (thanks to Wim Couwenberg)
-function filter.chain(...)
-    local arg = {...}
-    local n = base.select('#',...)
-    local top, index = 1, 1
-    local retry = ""
-    return function(chunk)
-        retry = chunk and retry
-        while true do
-            if index == top then
-                chunk = arg[index](chunk)
-                if chunk == "" or top == n then return chunk
-                elseif chunk then index = index + 1
-                else
-                    top = top+1
-                    index = top
-                end
-            else
-                chunk = arg[index](chunk or "")
-                if chunk == "" then
-                    index = index - 1
-                    chunk = retry
-                elseif chunk then
-                    if index == n then return chunk
-                    else index = index + 1 end
-                else base.error("filter returned inappropriate nil") end
-            end
-        end
-    end
-end
+-- luajsocket: implemented in java
+filter.chain = core.filterchain
 
 -----------------------------------------------------------------------------
 -- Source stuff
@@ -104,11 +78,7 @@ end
 -- creates a file source
 function source.file(handle, io_err)
     if handle then
-        return function()
-            local chunk = handle:read(_M.BLOCKSIZE)
-            if not chunk then handle:close() end
-            return chunk
-        end
+        return core.filesource(handle, _M.BLOCKSIZE)
     else return source.error(io_err or "unable to open file") end
 end
 
@@ -126,13 +96,7 @@ end
 -- creates string source
 function source.string(s)
     if s then
-        local i = 1
-        return function()
-            local chunk = string.sub(s, i, i+_M.BLOCKSIZE-1)
-            i = i + _M.BLOCKSIZE
-            if chunk ~= "" then return chunk
-            else return nil end
-        end
+        return core.stringsource(s, _M.BLOCKSIZE)
     else return source.empty() end
 end
 
@@ -232,11 +196,7 @@ end
 -- creates a sink that stores into a table
 function sink.table(t)
     t = t or {}
-    local f = function(chunk, err)
-        if chunk then table.insert(t, chunk) end
-        return 1
-    end
-    return f, t
+    return core.tablesink(t), t
 end
 
 -- turns a fancy sink into a simple sink
@@ -253,12 +213,7 @@ end
 -- creates a file sink
 function sink.file(handle, io_err)
     if handle then
-        return function(chunk, err)
-            if not chunk then
-                handle:close()
-                return 1
-            else return handle:write(chunk) end
-        end
+        return core.filesink(handle)
     else return sink.error(io_err or "unable to open file") end
 end
 
@@ -304,24 +259,11 @@ end
 -- Pump stuff
 -----------------------------------------------------------------------------
 -- pumps one chunk from the source to the sink
-function pump.step(src, snk)
-    local chunk, src_err = src()
-    local ret, snk_err = snk(chunk, src_err)
-    if chunk and ret then return 1
-    else return nil, src_err or snk_err end
-end
+-- luajsocket: implemented in java
+pump.step = core.pumpstep
 
 -- pumps all data from a source to a sink, using a step function
-function pump.all(src, snk, step)
-    base.assert(src and snk)
-    step = step or pump.step
-    while true do
-        local ret, err = step(src, snk)
-        if not ret then
-            if err then return nil, err
-            else return 1 end
-        end
-    end
-end
+-- luajsocket: implemented in java, sources of ltn12.core are asked for larger chunks
+pump.all = core.pumpall
 
 return _M
\ No newline at end of file
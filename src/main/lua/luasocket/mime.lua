@@ -43,7 +43,7 @@ end
 
 -- define the encoding filters
 encodet['base64'] = function()
-    return ltn12.filter.cycle(_M.b64, "")
+    return _M.b64filter()
 end
 
 encodet['quoted-printable'] = function(mode)
@@ -51,9 +51,26 @@ encodet['quoted-printable'] = function(mode)
             (mode == "binary") and "=0D=0A" or "\r\n")
 end
 
+encodet['gzip'] = function(level)
+    return _M.deflatefilter("gzip", level)
+end
+
+encodet['deflate'] = function(level)
+    return _M.deflatefilter("deflate", level)
+end
+
 -- define the decoding filters
 decodet['base64'] = function()
-    return ltn12.filter.cycle(_M.unb64, "")
+    return _M.unb64filter()
+end
+
+decodet['gzip'] = function()
+    return _M.inflatefilter("gzip")
+end
+decodet['x-gzip'] = decodet['gzip']
+
+decodet['deflate'] = function()
+    return _M.inflatefilter("deflate")
 end
 
 decodet['quoted-printable'] = function()
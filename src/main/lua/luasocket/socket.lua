@@ -18,6 +18,7 @@ local base = _G
 local string = require("string")
 local math = require("math")
 local socket = require("socket.core")
+local ltn12core = require("ltn12.core")
 
 local _M = socket
 
@@ -119,33 +120,16 @@ sourcet["by-length"] = function(sock, length)
         getfd = function() return sock:getfd() end,
         dirty = function() return sock:dirty() end
     }, {
-        __call = function()
-            if length <= 0 then return nil end
-            local size = math.min(socket.BLOCKSIZE, length)
-            local chunk, err = sock:receive(size)
-            if err then return nil, err end
-            length = length - string.len(chunk)
-            return chunk
-        end
+        __call = ltn12core.socketsource(sock, "by-length", socket.BLOCKSIZE, length)
     })
 end
 
 sourcet["until-closed"] = function(sock)
-    local done
     return base.setmetatable({
         getfd = function() return sock:getfd() end,
         dirty = function() return sock:dirty() end
     }, {
-        __call = function()
-            if done then return nil end
-            local chunk, err, partial = sock:receive(socket.BLOCKSIZE)
-            if not err then return chunk
-            elseif err == "closed" then
-                sock:close()
-                done = 1
-                return partial
-            else return nil, err end
-        end
+        __call = ltn12core.socketsource(sock, "until-closed", socket.BLOCKSIZE)
     })
 end
 
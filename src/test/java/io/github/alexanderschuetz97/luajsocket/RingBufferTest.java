@@ -20,6 +20,7 @@
 package io.github.alexanderschuetz97.luajsocket;
 
 import io.github.alexanderschuetz97.luajsocket.tcp.java.RingBuffer;
+import io.github.alexanderschuetz97.luajsocket.tcp.java.SegmentPool;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -27,9 +28,11 @@ import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
 
 public class RingBufferTest {
 
@@ -78,6 +81,99 @@ public class RingBufferTest {
         Assert.assertArrayEquals(bbb, baos.toByteArray());
     }
 
+    @Test
+    public void testSegmentsReturnedWhenEmpty() throws Exception {
+        SegmentPool pool = new SegmentPool(64);
+        RingBuffer buf = new RingBuffer(0x10000, pool);
+        byte[] data = new byte[0x9000];
+        new Random().nextBytes(data);
+
+        Assert.assertEquals(data.length, buf.write(data, 0, data.length, 0, 0));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        buf.readBytes(baos, data.length, 0, 0);
+
+        Assert.assertArrayEquals(data, baos.toByteArray());
+        Assert.assertEquals(9, pool.getPooledCount());
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        RingBuffer buf = new RingBuffer(100);
+        byte[] data = new byte[150];
+        Assert.assertEquals(100, buf.write(data, 0, data.length, 0, 0));
+        Assert.assertFalse(buf.canWrite());
+
+        buf.setCapacity(200);
+        Assert.assertEquals(50, buf.write(data, 100, 50, 0, 0));
+        Assert.assertTrue(buf.canWrite());
+    }
+
+    @Test
+    public void testSingleTimeout() throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            buffer.readBytes(new ByteArrayOutputStream(), 1, 200, -1);
+            Assert.fail();
+        } catch (TimeoutException e) {
+            //expected
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 190);
+
+        byte[] data = new byte[RingBuffer.DEFAULT_CAPACITY];
+        Assert.assertEquals(data.length, buffer.write(data, 0, data.length, 0, 0));
+        start = System.currentTimeMillis();
+        Assert.assertEquals(0, buffer.write(data, 0, 1, 200, -1));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 190);
+    }
+
+    @Test
+    public void testTotalTimeout() throws Exception {
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!buffer.isEof()) {
+                        buffer.write(new byte[]{'a'}, 0, 1, -1, -1);
+                        Thread.sleep(20);
+                    }
+                } catch (Exception e) {
+                    //closed by after()
+                }
+            }
+        });
+
+        //Every single wait is satisfied by the writer but the total timeout still applies.
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        long start = System.currentTimeMillis();
+        try {
+            buffer.readLine(baos, 100, 300);
+            Assert.fail();
+        } catch (TimeoutException e) {
+            //expected
+        }
+        long took = System.currentTimeMillis() - start;
+        Assert.assertTrue(took >= 290 && took < 1000);
+        Assert.assertTrue(baos.size() > 0);
+    }
+
+    @Test
+    public void testPeekLineLength() throws Exception {
+        Assert.assertEquals(0, buffer.peekLineLength());
+
+        byte[] data = new byte[10000];
+        Arrays.fill(data, (byte) 'a');
+        data[5000] = '\n';
+        buffer.write(data, 0, 4000, 0, 0);
+        Assert.assertEquals(4000, buffer.peekLineLength());
+
+        buffer.write(data, 4000, 6000, 0, 0);
+        Assert.assertEquals(5001, buffer.peekLineLength());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        buffer.readLine(baos, 0, 0);
+        Assert.assertEquals(5000, baos.size());
+        Assert.assertEquals(4999, buffer.peekLineLength());
+    }
 
     private void writeToBuffer(byte[] buf, int count, int step, int delayMin, int delayMax) throws IOException {
         Random rand = new Random();
@@ -0,0 +1,172 @@
+//
+// Copyright Alexander Schütz, 2021
+//
+// This file is part of luajsocket.
+//
+// luajsocket is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// luajsocket is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// A copy of the GNU Lesser General Public License should be provided
+// in the COPYING & COPYING.LESSER files in top level directory of luajsocket.
+// If not, see <https://www.gnu.org/licenses/>.
+//
+package io.github.alexanderschuetz97.luajsocket;
+
+import io.github.alexanderschuetz97.luajsocket.util.Selectable;
+import io.github.alexanderschuetz97.luajsocket.util.SocketSelector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SocketSelectorTest {
+
+    private ExecutorService executorService;
+
+    private SocketSelector selector;
+
+    @Before
+    public void before() {
+        executorService = Executors.newCachedThreadPool();
+        selector = new SocketSelector();
+    }
+
+    @After
+    public void after() {
+        executorService.shutdownNow();
+        executorService = null;
+        selector = null;
+    }
+
+    @Test
+    public void testTimeout() {
+        TestSelectable sel = new TestSelectable();
+        List<Selectable> readReady = new ArrayList<>();
+        List<Selectable> writeReady = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        Assert.assertFalse(selector.select(Collections.singleton(sel), Collections.<Selectable>emptySet(), readReady, writeReady, 100));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 100);
+        Assert.assertTrue(readReady.isEmpty());
+    }
+
+    @Test
+    public void testOnlyWantedAreReturned() {
+        TestSelectable wanted = new TestSelectable();
+        TestSelectable other = new TestSelectable();
+        other.read = true;
+        selector.readReady(other);
+        wanted.read = true;
+        selector.readReady(wanted);
+
+        List<Selectable> readReady = new ArrayList<>();
+        List<Selectable> writeReady = new ArrayList<>();
+        Assert.assertTrue(selector.select(Collections.singleton(wanted), Collections.singleton(wanted), readReady, writeReady, 0));
+        Assert.assertEquals(Collections.<Selectable>singletonList(wanted), readReady);
+        Assert.assertTrue(writeReady.isEmpty());
+    }
+
+    @Test
+    public void testOtherWriteReadyAreNotPolled() {
+        List<TestSelectable> others = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            TestSelectable other = new TestSelectable();
+            other.write = true;
+            selector.writeReady(other);
+            others.add(other);
+        }
+
+        TestSelectable wanted = new TestSelectable();
+        wanted.write = true;
+        selector.writeReady(wanted);
+
+        List<Selectable> readReady = new ArrayList<>();
+        List<Selectable> writeReady = new ArrayList<>();
+        Assert.assertTrue(selector.select(Collections.<Selectable>emptySet(), Collections.singleton(wanted), readReady, writeReady, 0));
+        Assert.assertEquals(Collections.<Selectable>singletonList(wanted), writeReady);
+        for (TestSelectable other : others) {
+            Assert.assertEquals(0, other.polls.get());
+        }
+    }
+
+    @Test
+    public void testStaleCandidateIsNotReturned() {
+        TestSelectable sel = new TestSelectable();
+        sel.read = true;
+        selector.readReady(sel);
+        sel.read = false;
+
+        List<Selectable> readReady = new ArrayList<>();
+        List<Selectable> writeReady = new ArrayList<>();
+        Assert.assertFalse(selector.select(Collections.singleton(sel), Collections.<Selectable>emptySet(), readReady, writeReady, 0));
+    }
+
+    @Test
+    public void testConcurrentWaiters() throws Exception {
+        final TestSelectable sel = new TestSelectable();
+        final Set<Selectable> wanted = new HashSet<>();
+        wanted.add(sel);
+
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executorService.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    List<Selectable> readReady = new ArrayList<>();
+                    return selector.select(wanted, Collections.<Selectable>emptySet(), readReady, new ArrayList<Selectable>(), 5000) && readReady.contains(sel);
+                }
+            }));
+        }
+
+        Thread.sleep(200);
+        sel.read = true;
+        selector.readReady(sel);
+
+        for (Future<Boolean> f : futures) {
+            Assert.assertTrue(f.get(1000, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static class TestSelectable implements Selectable {
+
+        volatile boolean read;
+
+        volatile boolean write;
+
+        final AtomicInteger polls = new AtomicInteger();
+
+        @Override
+        public boolean isReadReady() {
+            return read;
+        }
+
+        @Override
+        public boolean isWriteReady() {
+            polls.incrementAndGet();
+            return write;
+        }
+
+        @Override
+        public void onSelect() {
+
+        }
+    }
+}